@@ -0,0 +1,99 @@
+package org.graylog2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.log.GelfAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole appender path, from {@code doAppend} to the socket, against a local UDP sink,
+ * with growing number of logging threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfAppenderBenchmark {
+
+    private static final String FQCN = GelfAppenderBenchmark.class.getName();
+
+    @Param({"200", "5000"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean extendedInformation;
+
+    private UdpSink sink;
+    private GelfAppender appender;
+
+    @State(Scope.Thread)
+    public static class Events {
+        LoggingEvent event;
+
+        @Setup
+        public void setUp(GelfAppenderBenchmark benchmark) {
+            event = new LoggingEvent(FQCN, Category.getInstance(GelfAppenderBenchmark.class), Priority.INFO,
+                                     Payloads.text(benchmark.messageSize), null);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        sink = new UdpSink();
+
+        appender = new GelfAppender();
+        appender.setName("benchmark");
+        appender.setGraylogHost("127.0.0.1");
+        appender.setGraylogPort(sink.getPort());
+        appender.setOriginHost("benchmark-host");
+        appender.setAddExtendedInformation(extendedInformation);
+        appender.activateOptions();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        appender.close();
+        sink.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append1(Events events) {
+        appender.doAppend(events.event);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void append4(Events events) {
+        appender.doAppend(events.event);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void append16(Events events) {
+        appender.doAppend(events.event);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void append64(Events events) {
+        appender.doAppend(events.event);
+    }
+}
@@ -0,0 +1,71 @@
+package org.graylog2.benchmarks;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compressing and chunking messages which take many datagrams, with and without sending them to a local UDP sink.
+ * Text barely compresses, so the compressed size is close to messageSize.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfChunkingBenchmark {
+
+    @Param({"4000", "16000", "64000"})
+    public int messageSize;
+
+    private GelfMessage message;
+    private UdpSink sink;
+    private GelfSender sender;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(messageSize);
+        StringBuilder text = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            text.append((char) ('!' + random.nextInt(94)));
+        }
+        message = new GelfMessage("chunked", text.toString(), new Date(), "6");
+        message.setHost("benchmark-host");
+
+        sink = new UdpSink();
+        sender = new GelfSender("127.0.0.1", sink.getPort(), GelfSender.DEFAULT_CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        sink.close();
+    }
+
+    @Benchmark
+    public List<byte[]> toDatagrams() {
+        return message.toDatagrams(GelfSender.DEFAULT_CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public boolean sendMessage() {
+        return sender.sendMessage(message);
+    }
+}
@@ -0,0 +1,86 @@
+package org.graylog2.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.graylog2.GelfFanOut;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost on the logging thread of sending one message to several local UDP sinks: through one {@link GelfFanOut},
+ * which serializes once, against one sender per destination, as separate appenders would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfFanOutBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int destinations;
+
+    private GelfMessage message;
+    private final List<UdpSink> sinks = new ArrayList<UdpSink>();
+    private final List<GelfSender> senders = new ArrayList<GelfSender>();
+    private GelfFanOut fanOut;
+
+    @Setup
+    public void setUp() throws Exception {
+        message = new GelfMessage("fan-out", Payloads.text(1000), new Date(), "6");
+        message.setHost("benchmark-host");
+
+        List<GelfSender> fanOutSenders = new ArrayList<GelfSender>();
+        for (int i = 0; i < destinations; i++) {
+            UdpSink sink = new UdpSink();
+            sinks.add(sink);
+            senders.add(new GelfSender("127.0.0.1", sink.getPort(), GelfSender.DEFAULT_CHUNK_SIZE));
+            fanOutSenders.add(new GelfSender("127.0.0.1", sink.getPort(), GelfSender.DEFAULT_CHUNK_SIZE));
+        }
+        fanOut = new GelfFanOut("benchmark", fanOutSenders, 10000);
+        fanOut.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fanOut.close(1000);
+        for (GelfSender sender : senders) {
+            sender.close();
+        }
+        for (UdpSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    @Benchmark
+    public int fanOut() {
+        return fanOut.send(message);
+    }
+
+    @Benchmark
+    public int senderPerDestination() {
+        int sent = 0;
+        for (GelfSender sender : senders) {
+            if (sender.sendMessage(message)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,68 @@
+package org.graylog2.benchmarks;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of a ready message: JSON escaping, GZIP and chunking.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfMessageBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int messageSize;
+
+    @Param({"0", "10", "50"})
+    public int fieldCount;
+
+    private GelfMessage message;
+
+    @Setup
+    public void setUp() {
+        String text = Payloads.text(messageSize);
+        message = new GelfMessage(text.substring(0, Math.min(249, text.length())), text, new Date(), "6");
+        message.setHost("benchmark-host");
+        for (int i = 0; i < fieldCount; i++) {
+            if (i % 2 == 0) {
+                message.addField("field" + i, Payloads.text(16 + i));
+            } else {
+                message.addField("field" + i, i * 1000L);
+            }
+        }
+    }
+
+    @Benchmark
+    public String toJson() {
+        return message.toJson();
+    }
+
+    @Benchmark
+    public byte[] toGzipMessage() {
+        return message.toGzipMessage();
+    }
+
+    @Benchmark
+    public List<byte[]> toDatagrams() {
+        return message.toDatagrams(GelfSender.DEFAULT_CHUNK_SIZE);
+    }
+}
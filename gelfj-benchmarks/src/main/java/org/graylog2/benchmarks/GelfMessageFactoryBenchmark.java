@@ -0,0 +1,102 @@
+package org.graylog2.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfMessageFactory;
+import org.graylog2.GelfMessageProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a log4j event to a GELF message, with the costly options switched on and off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfMessageFactoryBenchmark implements GelfMessageProvider {
+
+    private static final String FQCN = GelfMessageFactoryBenchmark.class.getName();
+
+    @Param({"false", "true"})
+    public boolean extendedInformation;
+
+    @Param({"false", "true"})
+    public boolean location;
+
+    @Param({"false", "true"})
+    public boolean stacktrace;
+
+    private final Map<String, String> fields = new HashMap<String, String>();
+    private LoggingEvent event;
+
+    @Setup
+    public void setUp() {
+        fields.put("environment", "BENCH");
+        fields.put("application", "gelfj");
+
+        MDC.put("requestId", "6f1c2a");
+        MDC.put("user", "john");
+        NDC.push("benchmark");
+
+        Throwable thrown = stacktrace ? new IllegalStateException("Benchmark failure") : null;
+        event = new LoggingEvent(FQCN, Category.getInstance(GelfMessageFactoryBenchmark.class), Priority.INFO,
+                                 Payloads.text(200), thrown);
+    }
+
+    @TearDown
+    public void tearDown() {
+        MDC.remove("requestId");
+        MDC.remove("user");
+        NDC.remove();
+    }
+
+    @Benchmark
+    public GelfMessage makeMessage() {
+        // log4j computes location from a fresh stack trace for every event
+        LocationInfo locationInfo = location ? new LocationInfo(new Throwable(), FQCN) : null;
+        return GelfMessageFactory.makeMessage(event, this, locationInfo);
+    }
+
+    public boolean isExtractStacktrace() {
+        return stacktrace;
+    }
+
+    public String getOriginHost() {
+        return "benchmark-host";
+    }
+
+    public String getFacility() {
+        return "gelf-java";
+    }
+
+    public Map<String, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    public boolean isAddExtendedInformation() {
+        return extendedInformation;
+    }
+}
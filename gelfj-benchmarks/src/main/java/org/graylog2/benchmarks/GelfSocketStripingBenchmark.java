@@ -0,0 +1,86 @@
+package org.graylog2.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One sender shared by growing number of threads, sending through one or several UDP sockets to a local sink.
+ * Throughput should grow with threads up to the number of cores once there are about as many sockets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GelfSocketStripingBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int sockets;
+
+    private UdpSink sink;
+    private GelfSender sender;
+
+    @State(Scope.Thread)
+    public static class Messages {
+        GelfMessage message;
+
+        @Setup
+        public void setUp() {
+            message = new GelfMessage("striped", Payloads.text(200), new Date(), "6");
+            message.setHost("benchmark-host");
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        sink = new UdpSink();
+        sender = new GelfSender("127.0.0.1", sink.getPort(), GelfSender.DEFAULT_CHUNK_SIZE, sockets);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        sink.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean send1(Messages messages) {
+        return sender.sendMessage(messages.message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean send4(Messages messages) {
+        return sender.sendMessage(messages.message);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean send16(Messages messages) {
+        return sender.sendMessage(messages.message);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean send64(Messages messages) {
+        return sender.sendMessage(messages.message);
+    }
+}
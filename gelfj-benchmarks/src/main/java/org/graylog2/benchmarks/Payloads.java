@@ -0,0 +1,28 @@
+package org.graylog2.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic log-like text, so compression ratios are comparable between runs.
+ */
+final class Payloads {
+
+    private static final String[] WORDS = {
+            "user", "request", "session", "failed", "completed", "in", "ms", "for", "id", "order",
+            "payment", "cache", "miss", "hit", "timeout", "retry", "connection", "pool", "query", "rows",
+            "0x7f3a", "42", "1337", "GET", "POST", "/api/v1/items", "status=200", "status=503", "ok", "error"
+    };
+
+    private Payloads() {
+    }
+
+    static String text(int size) {
+        Random random = new Random(size);
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(size);
+        return text.toString();
+    }
+}
@@ -0,0 +1,54 @@
+package org.graylog2.benchmarks;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local UDP receiver draining everything sent to it, so benchmarks measure the sender
+ * rather than a full socket buffer.
+ */
+final class UdpSink implements Runnable {
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final AtomicLong packets = new AtomicLong();
+
+    UdpSink() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setReceiveBufferSize(4 * 1024 * 1024);
+        thread = new Thread(this, "udp-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    long getPackets() {
+        return packets.get();
+    }
+
+    public void run() {
+        DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+        try {
+            while (true) {
+                socket.receive(packet);
+                packets.incrementAndGet();
+            }
+        } catch (SocketException e) {
+            // closed
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void close() throws InterruptedException {
+        socket.close();
+        thread.join();
+    }
+}
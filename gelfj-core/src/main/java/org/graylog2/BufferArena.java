@@ -0,0 +1,189 @@
+package org.graylog2;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size direct buffers, so serialized messages stay off the Java heap on their way to the socket.
+ * <p>
+ * Slabs are allocated on first use up to a hard limit and reused afterwards; {@link #acquire()} returns null
+ * rather than grow past it, or past the {@link MemoryBudget} slabs reserve their size from until the arena is
+ * closed. Every acquired slab must be handed back with {@link #release(Slab)}. With leak
+ * tracking on, the arena remembers where each outstanding slab was acquired, and {@link #checkLeaks()} reports it.
+ */
+public final class BufferArena {
+
+    /**
+     * One buffer of the arena, leased between {@link #acquire()} and {@link #release(Slab)}.
+     */
+    public static final class Slab {
+        private final ByteBuffer buffer;
+        private volatile boolean leased;
+        private volatile Throwable acquiredAt;
+
+        Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        /**
+         * @return direct buffer of the slab, cleared when acquired
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+    }
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final boolean trackLeaks;
+    private final MemoryBudget budget;
+    private volatile boolean closed;
+    private final ConcurrentLinkedQueue<Slab> free = new ConcurrentLinkedQueue<Slab>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicInteger leased = new AtomicInteger();
+    private final Set<Slab> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Slab, Boolean>());
+
+    public BufferArena(int slabSize, int maxSlabs) {
+        this(slabSize, maxSlabs, Boolean.getBoolean("gelfj.arena.trackLeaks"));
+    }
+
+    /**
+     * @param slabSize bytes per slab
+     * @param maxSlabs most slabs ever allocated, so off-heap memory stays below slabSize * maxSlabs
+     * @param trackLeaks remember where outstanding slabs were acquired; costs a stack trace per acquire
+     */
+    public BufferArena(int slabSize, int maxSlabs, boolean trackLeaks) {
+        this(slabSize, maxSlabs, trackLeaks, MemoryBudget.shared());
+    }
+
+    /**
+     * @param budget budget each allocated slab reserves its size from
+     */
+    public BufferArena(int slabSize, int maxSlabs, boolean trackLeaks, MemoryBudget budget) {
+        if (slabSize <= 0 || maxSlabs <= 0) {
+            throw new IllegalArgumentException("Slab size and count must be positive");
+        }
+        this.slabSize = slabSize;
+        this.maxSlabs = maxSlabs;
+        this.trackLeaks = trackLeaks;
+        this.budget = budget;
+    }
+
+    /**
+     * @return cleared slab, or null if all slabs the limits allow are leased or the arena is closed
+     */
+    public Slab acquire() {
+        if (closed) {
+            return null;
+        }
+        Slab slab = free.poll();
+        if (slab == null) {
+            int count;
+            do {
+                count = allocated.get();
+                if (count >= maxSlabs) {
+                    return null;
+                }
+            } while (!allocated.compareAndSet(count, count + 1));
+            if (!budget.tryReserve(slabSize)) {
+                allocated.decrementAndGet();
+                return null;
+            }
+            slab = new Slab(slabSize);
+        }
+        slab.buffer.clear();
+        slab.leased = true;
+        leased.incrementAndGet();
+        if (trackLeaks) {
+            slab.acquiredAt = new Throwable("Slab acquired here");
+            outstanding.add(slab);
+        }
+        return slab;
+    }
+
+    /**
+     * @throws IllegalStateException if slab is not leased, e.g. released twice
+     */
+    public void release(Slab slab) {
+        if (!slab.leased) {
+            throw new IllegalStateException("Slab released twice or not acquired from an arena");
+        }
+        slab.leased = false;
+        if (trackLeaks) {
+            outstanding.remove(slab);
+            slab.acquiredAt = null;
+        }
+        leased.decrementAndGet();
+        if (closed) {
+            discard();
+        } else {
+            free.offer(slab);
+            if (closed) {
+                // closed meanwhile, so close may have missed this slab
+                discardFree();
+            }
+        }
+    }
+
+    /**
+     * Gives the budget of free slabs back and drops them; leased ones follow when released.
+     */
+    public void close() {
+        closed = true;
+        discardFree();
+    }
+
+    private void discardFree() {
+        while (free.poll() != null) {
+            discard();
+        }
+    }
+
+    private void discard() {
+        allocated.decrementAndGet();
+        budget.release(slabSize);
+    }
+
+    /**
+     * @throws IllegalStateException if slabs are still leased, caused by where the first of them was acquired
+     *                               when tracking leaks
+     */
+    public void checkLeaks() {
+        int count = leased.get();
+        if (count == 0) {
+            return;
+        }
+        IllegalStateException leak = new IllegalStateException(count + " slab(s) not released");
+        for (Slab slab : outstanding) {
+            Throwable acquiredAt = slab.acquiredAt;
+            if (acquiredAt != null) {
+                leak.initCause(acquiredAt);
+                break;
+            }
+        }
+        throw leak;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public int getMaxSlabs() {
+        return maxSlabs;
+    }
+
+    /**
+     * @return slabs allocated and not discarded by {@link #close()}; their memory is kept until garbage collected
+     */
+    public int getAllocated() {
+        return allocated.get();
+    }
+
+    public int getLeased() {
+        return leased.get();
+    }
+}
@@ -0,0 +1,76 @@
+package org.graylog2;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects compressed output straight into datagram sized arrays, leaving room for the GELF chunk header
+ * in front of each. A large message is never held in one array and copied into chunks afterwards, so peak
+ * memory stays at the compressed size plus one chunk.
+ * <p>
+ * The chunk count is only known when compression finished, so headers are written by {@link #toDatagrams()}.
+ */
+final class ChunkingOutputStream extends OutputStream {
+
+    private final int maxChunkSize;
+    private final List<byte[]> chunks = new ArrayList<byte[]>(4);
+    private byte[] current;
+    private int position;
+
+    ChunkingOutputStream(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || position == current.length) {
+                nextChunk();
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void nextChunk() {
+        current = new byte[GelfMessage.GELF_CHUNK_HEADER_LENGTH + maxChunkSize];
+        chunks.add(current);
+        position = GelfMessage.GELF_CHUNK_HEADER_LENGTH;
+    }
+
+    /**
+     * @return whole message as one datagram if it fits, otherwise chunks with headers
+     */
+    List<byte[]> toDatagrams() {
+        if (chunks.size() <= 1) {
+            byte[] payload = current == null ? new byte[0]
+                                             : Arrays.copyOfRange(current, GelfMessage.GELF_CHUNK_HEADER_LENGTH, position);
+            return Collections.singletonList(payload);
+        }
+
+        if (position < current.length) {
+            chunks.set(chunks.size() - 1, Arrays.copyOf(current, position));
+        }
+        final int messageId = GelfMessage.nextChunkedMessageId();
+        final byte[] address = HostIdentity.getAddress4Bytes();
+        final int num = chunks.size();
+        for (int idx = 0; idx < num; idx++) {
+            GelfMessage.writeChunkHeader(chunks.get(idx), messageId, address, idx, num);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,113 @@
+package org.graylog2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.graylog2.metrics.SenderMetrics;
+
+/**
+ * Stops a sender from trying while its endpoint keeps failing.
+ * <p>
+ * After failureThreshold failures, each within retryMillis of the one before, the circuit opens and
+ * {@link #tryAcquire()} refuses sends. Successes do not reset the count, as over UDP a datagram sent
+ * between two ICMP port unreachable errors only looks like one.
+ * Once retryMillis passed it lets a single probe through; the circuit closes if the probe succeeds and opens
+ * for another retryMillis if it fails. A probe that never reports back is replaced after retryMillis, too.
+ * Callers can check {@link #isAvailable()} first to skip building messages which would be refused anyway.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final SenderMetrics metrics;
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+    private final AtomicInteger recentFailures = new AtomicInteger();
+    private volatile long lastFailure;
+    // while not closed, time in millis from which the next probe may go
+    private final AtomicLong retryAt = new AtomicLong();
+
+    private volatile int failureThreshold = 5;
+    private volatile long retryMillis = 1000;
+
+    public CircuitBreaker(SenderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param failureThreshold failures close to each other opening the circuit; 0 or less never opens it
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public void setRetryMillis(long retryMillis) {
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * @return true if a send would currently be let through; does not take the probe of an open circuit
+     */
+    public boolean isAvailable() {
+        return state.get() == CLOSED || System.currentTimeMillis() >= retryAt.get();
+    }
+
+    /**
+     * @return true if the caller may send and must report the outcome with {@link #success()} or {@link #failure()}
+     */
+    public boolean tryAcquire() {
+        if (state.get() == CLOSED) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long at = retryAt.get();
+        if (now >= at && retryAt.compareAndSet(at, now + retryMillis)) {
+            state.set(HALF_OPEN);
+            metrics.circuitStateChanged(State.HALF_OPEN.name());
+            return true;
+        }
+        metrics.circuitRejected();
+        return false;
+    }
+
+    public void success() {
+        if (state.get() != CLOSED && state.getAndSet(CLOSED) != CLOSED) {
+            recentFailures.set(0);
+            metrics.circuitStateChanged(State.CLOSED.name());
+        }
+    }
+
+    public void failure() {
+        long now = System.currentTimeMillis();
+        int failures;
+        if (now - lastFailure > retryMillis) {
+            recentFailures.set(1);
+            failures = 1;
+        } else {
+            failures = recentFailures.incrementAndGet();
+        }
+        lastFailure = now;
+        int current = state.get();
+        if (current == HALF_OPEN) {
+            open(HALF_OPEN);
+        } else if (current == CLOSED && failureThreshold > 0 && failures >= failureThreshold) {
+            open(CLOSED);
+        }
+    }
+
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    private void open(int from) {
+        retryAt.set(System.currentTimeMillis() + retryMillis);
+        if (state.compareAndSet(from, OPEN)) {
+            metrics.circuitOpened();
+        }
+    }
+}
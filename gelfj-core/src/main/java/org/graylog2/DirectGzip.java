@@ -0,0 +1,46 @@
+package org.graylog2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * GZIPs a message into direct buffers, filling one after another, so it can go to a channel chunk by chunk.
+ * <p>
+ * This implementation compresses into the heap buffer of a {@link GelfCompressor} and copies from there, since the
+ * Java 7 {@link java.util.zip.Deflater} only writes to arrays. On JDK 11 and later the multi-release jar replaces it
+ * with one deflating straight into the buffers.
+ * <p>
+ * Not thread safe; keep one per thread.
+ */
+final class DirectGzip {
+
+    private final GelfCompressor compressor = new GelfCompressor();
+    private int length;
+    private int position;
+
+    /**
+     * Starts compressing a message; its bytes must not change until {@link #fill} returned true.
+     */
+    void start(byte[] bytes, int length) {
+        this.length = compressor.gzip(bytes, length);
+        position = 0;
+    }
+
+    /**
+     * Writes the next compressed bytes of the message into target, up to its limit.
+     *
+     * @return true once the whole message is written
+     */
+    boolean fill(ByteBuffer target) {
+        int count = Math.min(length - position, target.remaining());
+        target.put(compressor.getBuffer(), position, count);
+        position += count;
+        return position == length;
+    }
+
+    /**
+     * @return true if compressed bytes go to the buffers without passing through a heap array
+     */
+    static boolean isDirect() {
+        return false;
+    }
+}
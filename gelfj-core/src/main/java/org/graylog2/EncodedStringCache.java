@@ -0,0 +1,136 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.graylog2.metrics.CacheMetrics;
+
+/**
+ * Bounded cache from strings which repeat across messages, like host, facility, thread or logger names,
+ * to their escaped UTF-8 encoding, so writing them again is a single array copy.
+ * <p>
+ * Strings are looked up by identity first, then by equality, in a bucket of four slots picked by hash. A miss
+ * takes a free slot of the bucket, or else sweeps it from a slot picked by hash and replaces the first entry
+ * not hit since the last sweep, giving each entry a second chance like the clock algorithm. Lookups and updates
+ * take no lock; racing inserts may lose an entry, which only costs encoding it again.
+ */
+public final class EncodedStringCache {
+
+    private static final int WAYS = 4;
+
+    private static final class Entry {
+        final String key;
+        final byte[] encoded;
+        volatile boolean referenced;
+
+        Entry(String key, byte[] encoded) {
+            this.key = key;
+            this.encoded = encoded;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int bucketMask;
+    private final int maxLength;
+    private final String prefix;
+    private final String suffix;
+    private final CacheMetrics metrics = new CacheMetrics();
+
+    /**
+     * @param capacity most cached strings, rounded up to a power of two
+     * @param maxLength longest string worth caching; longer ones are not looked up
+     * @param prefix JSON written before the escaped string, e.g. a quote
+     * @param suffix JSON written after the escaped string
+     */
+    public EncodedStringCache(int capacity, int maxLength, String prefix, String suffix) {
+        int size = WAYS;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<Entry>(size);
+        this.bucketMask = (size - 1) & ~(WAYS - 1);
+        this.maxLength = maxLength;
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return prefix, escaped s and suffix as UTF-8, null if s is too long to cache
+     */
+    public byte[] get(String s) {
+        if (s.length() > maxLength) {
+            return null;
+        }
+        int h = s.hashCode();
+        int bucket = (h ^ (h >>> 16)) * WAYS & bucketMask;
+
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = slots.get(bucket + i);
+            if (entry != null && entry.key == s) {
+                return hit(entry);
+            }
+        }
+        for (int i = 0; i < WAYS; i++) {
+            Entry entry = slots.get(bucket + i);
+            if (entry != null && entry.key.equals(s)) {
+                return hit(entry);
+            }
+        }
+
+        metrics.miss();
+        byte[] encoded = encode(s);
+        insert(bucket, (h >>> 8) & (WAYS - 1), new Entry(s, encoded));
+        return encoded;
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    private byte[] hit(Entry entry) {
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        metrics.hit();
+        return entry.encoded;
+    }
+
+    private void insert(int bucket, int hand, Entry entry) {
+        for (int i = 0; i < WAYS; i++) {
+            if (slots.get(bucket + i) == null && slots.compareAndSet(bucket + i, null, entry)) {
+                return;
+            }
+        }
+        // a second sweep finds the slots whose reference bits the first one cleared
+        for (int i = 0; i < 2 * WAYS; i++) {
+            int slot = bucket + ((hand + i) & (WAYS - 1));
+            Entry current = slots.get(slot);
+            if (current == null) {
+                if (slots.compareAndSet(slot, null, entry)) {
+                    return;
+                }
+            } else if (!current.referenced) {
+                if (slots.compareAndSet(slot, current, entry)) {
+                    metrics.eviction();
+                    return;
+                }
+            } else {
+                current.referenced = false;
+            }
+        }
+    }
+
+    private byte[] encode(String s) {
+        Utf8Buffer buffer = new Utf8Buffer(prefix.length() + s.length() + suffix.length() + 8);
+        try {
+            buffer.append(prefix);
+            GelfJson.escape(s, 0, s.length(), buffer);
+            buffer.append(suffix);
+        } catch (IOException e) {
+            // Utf8Buffer does not throw
+            throw new IllegalStateException(e);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.length());
+    }
+}
@@ -0,0 +1,191 @@
+package org.graylog2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reassembles chunked GELF datagrams into whole payloads.
+ * <p>
+ * Memory is bounded: at most maxPendingMessages partial messages holding at most maxPendingBytes are kept,
+ * the oldest ones are given up when a new chunk would exceed either limit, and messages not completed within
+ * the timeout are dropped by {@link #expire(long)}. Given up messages are counted as incomplete.
+ * <p>
+ * Not thread safe; meant to be fed by the single thread reading a UDP socket.
+ */
+public class GelfChunkAssembler {
+
+    /**
+     * Most chunks a GELF message may be split into.
+     */
+    public static final int MAX_CHUNKS = 128;
+
+    private final int maxPendingMessages;
+    private final long maxPendingBytes;
+    private final long timeoutMillis;
+
+    // insertion ordered, so iteration starts with the oldest message
+    private final Map<Long, Chunks> pending = new LinkedHashMap<Long, Chunks>();
+    private long pendingBytes;
+
+    private final AtomicLong incomplete = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+
+    public GelfChunkAssembler(int maxPendingMessages, long maxPendingBytes, long timeoutMillis) {
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxPendingBytes = maxPendingBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static boolean isChunk(byte[] data, int offset, int length) {
+        return length > GelfMessage.GELF_CHUNK_HEADER_LENGTH && data[offset] == 0x1e && data[offset + 1] == 0x0f;
+    }
+
+    /**
+     * Adds a datagram.
+     *
+     * @return whole payload if the datagram completed a message or was not chunked, null otherwise
+     */
+    public byte[] add(byte[] data, int offset, int length) {
+        if (!isChunk(data, offset, length)) {
+            byte[] payload = new byte[length];
+            System.arraycopy(data, offset, payload, 0, length);
+            return payload;
+        }
+
+        long id = 0;
+        for (int i = offset + 2; i < offset + 10; i++) {
+            id = (id << 8) | (data[i] & 0xFF);
+        }
+        int index = data[offset + 10] & 0xFF;
+        int count = data[offset + 11] & 0xFF;
+        if (count == 0 || count > MAX_CHUNKS || index >= count) {
+            invalid.incrementAndGet();
+            return null;
+        }
+
+        Long key = Long.valueOf(id);
+        Chunks chunks = pending.get(key);
+        if (chunks == null) {
+            if (count == 1) {
+                return copyPayload(data, offset, length);
+            }
+            chunks = new Chunks(count, System.currentTimeMillis());
+            pending.put(key, chunks);
+        } else if (chunks.parts.length != count) {
+            invalid.incrementAndGet();
+            remove(key, chunks);
+            return null;
+        }
+        if (chunks.parts[index] != null) {
+            // resent datagram
+            return null;
+        }
+
+        int partLength = length - GelfMessage.GELF_CHUNK_HEADER_LENGTH;
+        makeRoom(key, partLength);
+        if (pendingBytes + partLength > maxPendingBytes) {
+            // this message alone is over the limit
+            remove(key, chunks);
+            incomplete.incrementAndGet();
+            return null;
+        }
+        chunks.parts[index] = copyPayload(data, offset, length);
+        chunks.received++;
+        chunks.bytes += partLength;
+        pendingBytes += partLength;
+        if (chunks.received < count) {
+            return null;
+        }
+
+        remove(key, chunks);
+        byte[] payload = new byte[chunks.bytes];
+        int position = 0;
+        for (byte[] part : chunks.parts) {
+            System.arraycopy(part, 0, payload, position, part.length);
+            position += part.length;
+        }
+        return payload;
+    }
+
+    /**
+     * Drops messages started more than the timeout before now.
+     *
+     * @return number of messages dropped
+     */
+    public int expire(long nowMillis) {
+        long started = nowMillis - timeoutMillis;
+        int expired = 0;
+        for (Iterator<Chunks> i = pending.values().iterator(); i.hasNext(); ) {
+            Chunks chunks = i.next();
+            if (chunks.started > started) {
+                // the rest started later
+                break;
+            }
+            i.remove();
+            pendingBytes -= chunks.bytes;
+            expired++;
+        }
+        incomplete.addAndGet(expired);
+        return expired;
+    }
+
+    public int getPendingMessages() {
+        return pending.size();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return messages given up because they timed out or did not fit the limits
+     */
+    public long getIncomplete() {
+        return incomplete.get();
+    }
+
+    /**
+     * @return chunks with broken headers
+     */
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    private void makeRoom(Long key, int partLength) {
+        Iterator<Map.Entry<Long, Chunks>> i = pending.entrySet().iterator();
+        while (i.hasNext() && (pending.size() > maxPendingMessages || pendingBytes + partLength > maxPendingBytes)) {
+            Map.Entry<Long, Chunks> oldest = i.next();
+            if (oldest.getKey().equals(key)) {
+                continue;
+            }
+            i.remove();
+            pendingBytes -= oldest.getValue().bytes;
+            incomplete.incrementAndGet();
+        }
+    }
+
+    private void remove(Long key, Chunks chunks) {
+        pending.remove(key);
+        pendingBytes -= chunks.bytes;
+    }
+
+    private static byte[] copyPayload(byte[] data, int offset, int length) {
+        byte[] part = new byte[length - GelfMessage.GELF_CHUNK_HEADER_LENGTH];
+        System.arraycopy(data, offset + GelfMessage.GELF_CHUNK_HEADER_LENGTH, part, 0, part.length);
+        return part;
+    }
+
+    private static final class Chunks {
+        final byte[][] parts;
+        final long started;
+        int received;
+        int bytes;
+
+        Chunks(int count, long started) {
+            this.parts = new byte[count][];
+            this.started = started;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.graylog2;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes JSON text as UTF-8 and GZIPs it into buffers kept between calls, so steady state
+ * compression does not allocate.
+ * <p>
+ * Not thread safe; keep one per thread. Call {@link #end()} when it is no longer needed to free native memory.
+ */
+public class GelfCompressor {
+
+    private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+
+    private byte[] input = new byte[1024];
+    private byte[] output = new byte[1024];
+    private int inputLength;
+
+    /**
+     * @return length of compressed message in {@link #getBuffer()}
+     */
+    public int gzip(CharSequence json) {
+        int inputLength = encodeUtf8(json);
+        return gzip(input, inputLength);
+    }
+
+    /**
+     * @return length of compressed message in {@link #getBuffer()}
+     */
+    public int gzip(byte[] bytes, int length) {
+        inputLength = length;
+        crc.reset();
+        crc.update(bytes, 0, length);
+
+        deflater.reset();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+
+        System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+        int position = GZIP_HEADER.length;
+        while (!deflater.finished()) {
+            if (position == output.length) {
+                output = grow(output, position, position + 1);
+            }
+            position += deflater.deflate(output, position, output.length - position);
+        }
+
+        if (position + GZIP_TRAILER_LENGTH > output.length) {
+            output = grow(output, position, position + GZIP_TRAILER_LENGTH);
+        }
+        position = writeIntLE(output, position, (int) crc.getValue());
+        position = writeIntLE(output, position, length);
+        return position;
+    }
+
+    /**
+     * @return buffer holding the last compressed message; valid until the next call
+     */
+    public byte[] getBuffer() {
+        return output;
+    }
+
+    /**
+     * @return uncompressed size of the last compressed message, in bytes
+     */
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public void end() {
+        deflater.end();
+    }
+
+    private int encodeUtf8(CharSequence s) {
+        final int length = s.length();
+        // worst case is 3 bytes per char; surrogate pairs take 4 bytes for 2 chars
+        if (input.length < length * 3) {
+            input = new byte[length * 3];
+        }
+
+        byte[] buf = input;
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                buf[position++] = (byte) ch;
+            } else if (ch < 0x800) {
+                buf[position++] = (byte) (0xC0 | (ch >> 6));
+                buf[position++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, s.charAt(++i));
+                buf[position++] = (byte) (0xF0 | (cp >> 18));
+                buf[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[position++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, replace like String.getBytes does
+                buf[position++] = (byte) '?';
+            } else {
+                buf[position++] = (byte) (0xE0 | (ch >> 12));
+                buf[position++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                buf[position++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private static byte[] grow(byte[] buffer, int used, int required) {
+        byte[] grown = new byte[Math.max(required, buffer.length * 2)];
+        System.arraycopy(buffer, 0, grown, 0, used);
+        return grown;
+    }
+
+    private static int writeIntLE(byte[] buf, int position, int value) {
+        buf[position] = (byte) value;
+        buf[position + 1] = (byte) (value >> 8);
+        buf[position + 2] = (byte) (value >> 16);
+        buf[position + 3] = (byte) (value >> 24);
+        return position + 4;
+    }
+}
@@ -0,0 +1,52 @@
+package org.graylog2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Turns received GELF payloads back into JSON bytes.
+ */
+public final class GelfDecoder {
+
+    private GelfDecoder() {
+    }
+
+    /**
+     * Inflates GZIP or ZLIB compressed payloads; returns uncompressed ones as they are.
+     *
+     * @param maxLength most bytes the JSON may take, so small datagrams cannot inflate to huge buffers
+     * @throws IOException if the payload is corrupt or inflates to more than maxLength bytes
+     */
+    public static byte[] decompress(byte[] payload, int maxLength) throws IOException {
+        InputStream in;
+        if (payload.length > 2 && payload[0] == (byte) 0x1f && payload[1] == (byte) 0x8b) {
+            in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        } else if (payload.length > 2 && payload[0] == (byte) 0x78) {
+            in = new InflaterInputStream(new ByteArrayInputStream(payload));
+        } else {
+            if (payload.length > maxLength) {
+                throw new IOException("GELF message longer than " + maxLength + " bytes");
+            }
+            return payload;
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxLength, payload.length * 4));
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                if (out.size() + read > maxLength) {
+                    throw new IOException("GELF message longer than " + maxLength + " bytes");
+                }
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.graylog2.metrics.StripedCounter;
+
+/**
+ * Sends every message to several destinations, serializing it only once.
+ * <p>
+ * The calling thread renders the message to JSON and, if any destination takes datagrams, compresses it, once for
+ * all destinations. The resulting payload is never changed again and is queued to each destination. Every
+ * destination has its own bounded queue, sending thread and circuit breaker, so a slow or failing one drops its
+ * own messages without holding up the others. Queued payloads reserve their size from a {@link MemoryBudget} once,
+ * however many destinations hold them.
+ * <p>
+ * A fan-out is itself a sender, so it fits wherever a {@link GelfSender} is expected; its metrics count messages
+ * queued to at least one destination, while each destination's sender counts what actually left.
+ */
+public class GelfFanOut extends GelfSender {
+
+    private static final int MAX_REUSED_JSON_LENGTH = 64 * 1024;
+    private static final long POLL_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private static final ThreadLocal<Encoding> encodings = new ThreadLocal<Encoding>() {
+        @Override
+        protected Encoding initialValue() {
+            return new Encoding();
+        }
+    };
+
+    /**
+     * Sender of one destination, with the queue and thread feeding it.
+     */
+    public static final class Destination {
+        private final GelfSender sender;
+        private final ArrayBlockingQueue<Payload> queue;
+        private final StripedCounter dropped = new StripedCounter();
+        private Thread thread;
+
+        Destination(GelfSender sender, int queueSize) {
+            this.sender = sender;
+            this.queue = new ArrayBlockingQueue<Payload>(queueSize);
+        }
+
+        public GelfSender getSender() {
+            return sender;
+        }
+
+        /**
+         * @return messages not queued, because the queue was full, the circuit breaker was open or the budget used up
+         */
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public int getQueued() {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Serialized message shared by all destinations; gives its budget back when the last one is done with it.
+     */
+    private static final class Payload {
+        final byte[] json;
+        final byte[] compressed;
+        final AtomicInteger holders;
+
+        Payload(byte[] json, byte[] compressed, int holders) {
+            this.json = json;
+            this.compressed = compressed;
+            this.holders = new AtomicInteger(holders);
+        }
+
+        int size() {
+            return (json == null ? 0 : json.length) + (compressed == null ? 0 : compressed.length);
+        }
+    }
+
+    private final List<Destination> destinations;
+    private final MemoryBudget budget;
+    private final boolean anyJson;
+    private final boolean anyCompressed;
+    private volatile boolean running = true;
+    private volatile long closeDeadline;
+
+    /**
+     * @param name name of the metrics MBean
+     * @param senders senders of the destinations; closed with the fan-out
+     * @param queueSize most messages waiting per destination
+     */
+    public GelfFanOut(String name, List<? extends GelfSender> senders, int queueSize) {
+        this(name, senders, queueSize, MemoryBudget.shared());
+    }
+
+    public GelfFanOut(String name, List<? extends GelfSender> senders, int queueSize, MemoryBudget budget) {
+        super(null, -1, "fan-out:" + name);
+        if (senders.isEmpty()) {
+            throw new IllegalArgumentException("No destinations");
+        }
+        this.budget = budget;
+        List<Destination> list = new ArrayList<Destination>(senders.size());
+        boolean json = false;
+        boolean compressed = false;
+        for (GelfSender sender : senders) {
+            list.add(new Destination(sender, queueSize));
+            if (sender.takesJsonPayloads()) {
+                json = true;
+            } else {
+                compressed = true;
+            }
+        }
+        this.destinations = Collections.unmodifiableList(list);
+        this.anyJson = json;
+        this.anyCompressed = compressed;
+    }
+
+    /**
+     * Opens a sender for a destination written as {@code udp:host[:port]}, {@code tcp:host[:port]},
+     * {@code unix:path} or as the URL of a GELF HTTP input; the port defaults to 12201.
+     *
+     * @param maxChunkSize largest datagram payload of UDP destinations
+     * @throws IOException if the destination is not written like that, cannot be opened, or needs what the runtime
+     *         lacks, like Unix domain sockets before Java 16
+     */
+    public static GelfSender openDestination(String spec, int maxChunkSize) throws IOException {
+        String trimmed = spec.trim();
+        int colon = trimmed.indexOf(':');
+        String scheme = colon < 0 ? "" : trimmed.substring(0, colon);
+        String address = trimmed.substring(colon + 1);
+        if ("unix".equals(scheme)) {
+            try {
+                return new GelfUnixSocketSender(address);
+            } catch (UnsupportedOperationException e) {
+                throw new IOException("Cannot open destination " + spec + ": " + e.getMessage(), e);
+            }
+        }
+        if ("http".equals(scheme) || "https".equals(scheme)) {
+            return new GelfHttpSender(trimmed);
+        }
+        int portColon = address.lastIndexOf(':');
+        String host = portColon < 0 ? address : address.substring(0, portColon);
+        int port;
+        try {
+            port = portColon < 0 ? 12201 : Integer.parseInt(address.substring(portColon + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid port in destination " + spec, e);
+        }
+        if ("udp".equals(scheme)) {
+            return new GelfSender(host, port, maxChunkSize);
+        }
+        if ("tcp".equals(scheme)) {
+            return new GelfTcpSender(host, port);
+        }
+        throw new IOException("Destination " + spec + " is not udp:host[:port], tcp:host[:port], unix:path or a URL");
+    }
+
+    public void start() {
+        for (int i = 0; i < destinations.size(); i++) {
+            final Destination destination = destinations.get(i);
+            destination.thread = new Thread(new Runnable() {
+                public void run() {
+                    drain(destination);
+                }
+            }, "gelf-fan-out-" + i);
+            destination.thread.setDaemon(true);
+            destination.thread.start();
+        }
+    }
+
+    /**
+     * @return true if at least one destination's circuit breaker lets messages through
+     */
+    @Override
+    public boolean isAvailable() {
+        for (Destination destination : destinations) {
+            if (destination.sender.isAvailable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serializes message once and queues it to every destination that has room and is available.
+     *
+     * @return false if no destination took it
+     */
+    @Override
+    public boolean sendMessage(GelfMessage message) {
+        return send(message) > 0;
+    }
+
+    /**
+     * Like {@link #sendMessage}.
+     *
+     * @return number of destinations the message was queued to
+     */
+    public int send(GelfMessage message) {
+        if (!message.isValid() || !running) {
+            return 0;
+        }
+        numberMessage(message);
+        long start = System.nanoTime();
+        Encoding encoding = encodings.get();
+        Utf8Buffer json = encoding.json;
+        json.reset(MAX_REUSED_JSON_LENGTH);
+        message.toJson(json);
+        byte[] compressed = null;
+        if (anyCompressed) {
+            int length = encoding.compressor.gzip(json.array(), json.length());
+            compressed = Arrays.copyOf(encoding.compressor.getBuffer(), length);
+        }
+        Payload payload = new Payload(anyJson ? Arrays.copyOf(json.array(), json.length()) : null, compressed,
+                                      destinations.size());
+
+        if (!budget.tryReserve(payload.size())) {
+            for (Destination destination : destinations) {
+                destination.dropped.increment();
+            }
+            return 0;
+        }
+        int queued = 0;
+        for (Destination destination : destinations) {
+            if (destination.sender.isAvailable() && destination.queue.offer(payload)) {
+                queued++;
+            } else {
+                destination.dropped.increment();
+                done(payload);
+            }
+        }
+        if (queued > 0) {
+            getMetrics().messageSent(json.length(), System.nanoTime() - start);
+        } else {
+            getMetrics().sendFailure();
+        }
+        return queued;
+    }
+
+    /**
+     * Serialized payloads are compressed or not depending on the destination, so they cannot be fanned out.
+     */
+    @Override
+    public boolean sendPayload(byte[] payload, int length) {
+        getMetrics().sendFailure();
+        return false;
+    }
+
+    @Override
+    public boolean sendDatagrams(List<byte[]> bytesList) {
+        getMetrics().sendFailure();
+        return false;
+    }
+
+    public List<Destination> getDestinations() {
+        return destinations;
+    }
+
+    /**
+     * Like {@link #close(long)}, waiting up to five seconds.
+     */
+    @Override
+    public void close() {
+        try {
+            close(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops accepting messages, waits up to timeoutMillis for queued ones to be sent and closes all senders.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        closeDeadline = System.nanoTime() + timeoutMillis * 1000000L;
+        running = false;
+        for (Destination destination : destinations) {
+            if (destination.thread != null) {
+                destination.thread.join(timeoutMillis + 1000);
+            }
+        }
+        for (Destination destination : destinations) {
+            Payload payload;
+            while ((payload = destination.queue.poll()) != null) {
+                done(payload);
+            }
+            destination.sender.close();
+        }
+        super.close();
+    }
+
+    private void drain(Destination destination) {
+        GelfSender sender = destination.sender;
+        while (running || (!destination.queue.isEmpty() && System.nanoTime() < closeDeadline)) {
+            Payload payload;
+            try {
+                payload = destination.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (payload == null) {
+                continue;
+            }
+            try {
+                if (sender.takesJsonPayloads()) {
+                    sender.sendPayload(payload.json, payload.json.length);
+                } else {
+                    sender.sendPayload(payload.compressed, payload.compressed.length);
+                }
+            } catch (RuntimeException e) {
+                // one broken message must not stop the destination; senders count their own failures
+            } finally {
+                done(payload);
+            }
+        }
+    }
+
+    private void done(Payload payload) {
+        if (payload.holders.decrementAndGet() == 0) {
+            budget.release(payload.size());
+        }
+    }
+
+    /**
+     * Per thread buffers for rendering and compressing messages.
+     */
+    private static final class Encoding {
+        final Utf8Buffer json = new Utf8Buffer(1024);
+        final GelfCompressor compressor = new GelfCompressor();
+    }
+}
@@ -0,0 +1,299 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends GELF messages to a Graylog2 GELF HTTP input as GZIP compressed POST requests, for networks which only
+ * let HTTP out.
+ * <p>
+ * The calling thread serializes and compresses the message into per thread buffers, then copies it into an array
+ * of its own and queues it, as a request, for a small pool of sending threads, one per connection. So each message
+ * allocates its compressed size and a request object, and at most {@code connections} requests are in flight. The JDK
+ * keeps their connections alive between requests, up to five idle ones per server unless {@code http.maxConnections}
+ * says otherwise; sending threads read responses to the end into a buffer of their own for that.
+ * <p>
+ * A request answered with a 5xx status or failing with an I/O error is retried with exponential backoff; when
+ * retries are used up, the circuit breaker counts a failure. Redirects and 4xx statuses are not followed or retried,
+ * since the input would answer the same again; only redirects and 401, 403 and 404, which say the URL or credentials
+ * are wrong, count as a failure of the circuit breaker, other 4xx statuses just drop the message. Queued messages reserve their size from the shared
+ * {@link MemoryBudget}, and a message finding the queue full or the budget used up is dropped.
+ */
+public class GelfHttpSender extends GelfSender {
+
+    private static final int MAX_REUSED_JSON_LENGTH = 64 * 1024;
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private static final ThreadLocal<Encoding> encodings = new ThreadLocal<Encoding>() {
+        @Override
+        protected Encoding initialValue() {
+            return new Encoding();
+        }
+    };
+    // responses are discarded into these, one per sending thread
+    private static final ThreadLocal<byte[]> drainBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    private final URL url;
+    private final ThreadPoolExecutor executor;
+    private final MemoryBudget budget;
+    private volatile int maxRetries = 3;
+    private volatile long retryBackoffMillis = 100;
+
+    public GelfHttpSender(String url) throws MalformedURLException {
+        this(url, 2, 1000, MemoryBudget.shared());
+    }
+
+    /**
+     * @param url GELF HTTP input, like {@code http://graylog2.example.com:12201/gelf}
+     * @param connections most requests in flight at once
+     * @param queueSize most messages waiting for a connection
+     */
+    public GelfHttpSender(String url, int connections, int queueSize, MemoryBudget budget)
+        throws MalformedURLException {
+        super(null, -1, url);
+        this.url = new URL(url);
+        if (!"http".equals(this.url.getProtocol()) && !"https".equals(this.url.getProtocol())) {
+            close();
+            throw new MalformedURLException("Not an HTTP URL: " + url);
+        }
+        this.budget = budget;
+        final String name = "gelf-http-" + this.url.getHost();
+        this.executor = new ThreadPoolExecutor(connections, connections, 0, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param maxRetries retries of a request answered with a 5xx status or failing with an I/O error
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param retryBackoffMillis wait before the first retry, doubled for each further one up to five seconds
+     */
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    /**
+     * Compresses the message and queues it.
+     *
+     * @return false if the message was invalid or dropped; failures of the request itself show in the metrics
+     */
+    @Override
+    public boolean sendMessage(GelfMessage message) {
+        if (!message.isValid() || !getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        numberMessage(message);
+        Encoding encoding = encodings.get();
+        Utf8Buffer json = encoding.json;
+        json.reset(MAX_REUSED_JSON_LENGTH);
+        message.toJson(json);
+        int length = encoding.compressor.gzip(json.array(), json.length());
+        return queue(Arrays.copyOf(encoding.compressor.getBuffer(), length), json.length());
+    }
+
+    /**
+     * Queues an already GZIP compressed message.
+     */
+    @Override
+    public boolean sendPayload(byte[] payload, int length) {
+        if (!getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        return queue(Arrays.copyOf(payload, length), 0);
+    }
+
+    /**
+     * GELF HTTP inputs take whole messages, not chunks.
+     */
+    @Override
+    public boolean sendDatagrams(List<byte[]> bytesList) {
+        getMetrics().sendFailure();
+        return false;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Runnable request : executor.shutdownNow()) {
+                ((Request) request).release();
+            }
+        }
+        super.close();
+    }
+
+    private boolean queue(byte[] payload, int uncompressedLength) {
+        if (!budget.tryReserve(payload.length)) {
+            getMetrics().sendFailure();
+            return false;
+        }
+        try {
+            executor.execute(new Request(payload, uncompressedLength, System.nanoTime()));
+            return true;
+        } catch (RejectedExecutionException e) {
+            budget.release(payload.length);
+            getMetrics().sendFailure();
+            return false;
+        }
+    }
+
+    private final class Request implements Runnable {
+        final byte[] payload;
+        final int uncompressedLength;
+        final long queued;
+
+        Request(byte[] payload, int uncompressedLength, long queued) {
+            this.payload = payload;
+            this.uncompressedLength = uncompressedLength;
+            this.queued = queued;
+        }
+
+        public void run() {
+            try {
+                long backoff = retryBackoffMillis;
+                for (int attempt = 0; ; attempt++) {
+                    if (post(payload)) {
+                        getMetrics().datagramSent(payload.length, false);
+                        getMetrics().messageSent(uncompressedLength, System.nanoTime() - queued);
+                        getCircuitBreaker().success();
+                        return;
+                    }
+                    if (attempt >= maxRetries || executor.isShutdown()) {
+                        getMetrics().sendFailure();
+                        getCircuitBreaker().failure();
+                        return;
+                    }
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                getMetrics().sendFailure();
+            } catch (ClientError e) {
+                getMetrics().sendFailure();
+                if (e.misdirected) {
+                    getCircuitBreaker().failure();
+                }
+            } finally {
+                release();
+            }
+        }
+
+        void release() {
+            budget.release(payload.length);
+        }
+    }
+
+    /**
+     * @return true if the input accepted the message, false if it is worth retrying
+     * @throws ClientError if the input rejected or redirected the message, which retrying would not change
+     */
+    private boolean post(byte[] payload) throws ClientError {
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            // a streamed POST cannot be resent to the new location anyway
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            OutputStream out = connection.getOutputStream();
+            out.write(payload);
+            out.close();
+
+            int status = connection.getResponseCode();
+            // reading the response to the end hands the connection back for the next request
+            drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            if (status >= 200 && status < 300) {
+                return true;
+            }
+            if (status >= 300 && status < 500) {
+                throw new ClientError(status < 400 || status == 401 || status == 403 || status == 404);
+            }
+            return false;
+        } catch (IOException e) {
+            connection.disconnect();
+            return false;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = drainBuffers.get();
+        try {
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 3xx or 4xx response; not retried.
+     */
+    private static final class ClientError extends Exception {
+        /**
+         * true if every message will get the same answer, false if the input rejected this one only
+         */
+        final boolean misdirected;
+
+        ClientError(boolean misdirected) {
+            super(null, null, false, false);
+            this.misdirected = misdirected;
+        }
+    }
+
+    /**
+     * Per thread buffers for rendering and compressing messages.
+     */
+    private static final class Encoding {
+        final Utf8Buffer json = new Utf8Buffer(1024);
+        final GelfCompressor compressor = new GelfCompressor();
+    }
+}
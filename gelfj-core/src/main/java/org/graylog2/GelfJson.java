@@ -0,0 +1,77 @@
+package org.graylog2;
+
+import java.io.IOException;
+
+/**
+ * JSON string escaping shared by {@link GelfMessage} and layouts rendering GELF directly into their own buffers.
+ * Appends characters one by one and allocates nothing.
+ */
+public final class GelfJson {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private GelfJson() {
+    }
+
+    /**
+     * Appends escaped characters of s, without surrounding quotes
+     */
+    public static void escape(CharSequence s, StringBuilder sb) {
+        escape(s, 0, s.length(), sb);
+    }
+
+    /**
+     * Appends escaped characters of s from start (inclusive) to end (exclusive), without surrounding quotes
+     */
+    public static void escape(CharSequence s, int start, int end, StringBuilder sb) {
+        try {
+            escape(s, start, end, (Appendable) sb);
+        } catch (IOException e) {
+            // StringBuilder never throws it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void escape(CharSequence s, int start, int end, Appendable sb) throws IOException {
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '/':
+                sb.append("\\/");
+                break;
+            default:
+                //Reference: http://www.unicode.org/versions/Unicode5.1.0/
+                if ((ch >= '\u0000' && ch <= '\u001F') || (ch >= '\u007F' && ch <= '\u009F') || (ch >= '\u2000' && ch <= '\u20FF')) {
+                    sb.append("\\u")
+                      .append(HEX[(ch >> 12) & 0xF])
+                      .append(HEX[(ch >> 8) & 0xF])
+                      .append(HEX[(ch >> 4) & 0xF])
+                      .append(HEX[ch & 0xF]);
+                } else {
+                    sb.append(ch);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package org.graylog2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.graylog2.metrics.StageTracer;
+import org.graylog2.metrics.StageTracer.Sample;
+import org.graylog2.metrics.StageTracer.Stage;
+
+public class GelfMessage {
+
+    private static final String ID_NAME = "id";
+    public static final String GELF_VERSION = "1.0";
+    /**
+     * Version writing numbers unquoted, timestamp with milliseconds, and no full_message repeating short_message
+     */
+    public static final String GELF_VERSION_1_1 = "1.1";
+    private static final byte[] GELF_CHUNKED_ID = new byte[]{0x1e, 0x0f};
+    static final int GELF_CHUNK_HEADER_LENGTH = GELF_CHUNKED_ID.length+8+2; // magic + 8 byte message id + 2 byte message number and index
+    
+    private static final AtomicLong idGen = new AtomicLong();
+    private static final int MAX_REUSED_JSON_LENGTH = 64 * 1024;
+    private static final int MAX_CACHED_LENGTH = 256;
+
+    // values like host, logger or thread name repeat in nearly every message; encoded as "value"
+    private static final EncodedStringCache VALUES = new EncodedStringCache(1024, MAX_CACHED_LENGTH, "\"", "\"");
+    // additional field names, encoded as ,"_name":
+    private static final EncodedStringCache FIELD_NAMES = new EncodedStringCache(256, MAX_CACHED_LENGTH, ",\"_", "\":");
+    private static final ThreadLocal<Utf8Buffer> jsonBuffers = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer(1024);
+        }
+    };
+
+    static {
+        VALUES.getMetrics().register("EncodedStringCache", "values");
+        FIELD_NAMES.getMetrics().register("EncodedStringCache", "fieldNames");
+    }
+
+    private String version = GELF_VERSION;
+    private String host;
+    private String shortMessage;
+    private String fullMessage;
+    private Long timestamp;
+    private long javaTimestamp;
+    private String level;
+    private String facility = "gelf-java";
+    private String line;
+    private String file;
+    private Map<String, Object> additonalFields = new HashMap<String, Object>();
+    // keys of the additional fields added by addRepeatedField; only their values go through the VALUES cache
+    private String[] repeatedKeys;
+    private int repeatedCount;
+    private String senderId;
+    private long sequence;
+    // bytes reserved from a memory budget while the message is queued
+    int budgetBytes;
+    private long jsonLength;
+
+    public GelfMessage() {
+    }
+
+    // todo: merge these constructors.
+
+    public GelfMessage(String shortMessage, String fullMessage, Date timestamp, String level) {
+        this.shortMessage = shortMessage;
+        this.fullMessage = fullMessage;
+        this.javaTimestamp = timestamp.getTime();
+        this.timestamp = javaTimestamp / 1000L;
+        this.level = level;
+    }
+
+    public GelfMessage(String shortMessage, String fullMessage, Long timestamp, String level, String line, String file) {
+        this.shortMessage = shortMessage;
+        this.fullMessage = fullMessage;
+        this.javaTimestamp = timestamp;
+        this.timestamp = javaTimestamp / 1000L;
+        this.level = level;
+        this.line = line;
+        this.file = file;
+    }
+    
+    private void json(Appendable sb, String key, String value, boolean quote) throws IOException
+    {
+        if (value == null)
+            return;
+        
+        sb.append(',').append('"');
+        GelfJson.escape(key, 0, key.length(), sb);
+        sb.append('"').append(':');
+        
+        if (quote) {
+            quoted(sb, value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static void quoted(Appendable sb, String value) throws IOException
+    {
+        sb.append('"');
+        GelfJson.escape(value, 0, value.length(), sb);
+        sb.append('"');
+    }
+
+    /**
+     * Like json, for quoted values which repeat across messages. Written to UTF-8 as one copy of their cached encoding.
+     */
+    private void repeatedJson(Appendable sb, String key, String value) throws IOException
+    {
+        if (value == null)
+            return;
+
+        sb.append(',').append('"').append(key).append('"').append(':');
+        repeated(sb, value);
+    }
+
+    private static void repeated(Appendable sb, String value) throws IOException
+    {
+        byte[] encoded = sb instanceof Utf8Buffer ? VALUES.get(value) : null;
+        if (encoded != null) {
+            ((Utf8Buffer) sb).appendEncoded(encoded);
+        } else {
+            quoted(sb, value);
+        }
+    }
+
+    private void additionalJson(Appendable sb, String key, Object value) throws IOException
+    {
+        String vstr = value.toString();
+        boolean quote = value == vstr; // String.toString return this, otherwise there will be another instance
+        byte[] name = sb instanceof Utf8Buffer ? FIELD_NAMES.get(key) : null;
+        if (name == null) {
+            sb.append(',').append('"').append('_');
+            GelfJson.escape(key, 0, key.length(), sb);
+            sb.append('"').append(':');
+        } else {
+            ((Utf8Buffer) sb).appendEncoded(name);
+        }
+
+        if (!quote) {
+            sb.append(vstr);
+        } else if (isRepeated(key)) {
+            repeated(sb, vstr);
+        } else {
+            quoted(sb, vstr);
+        }
+    }
+
+    private boolean isRepeated(String key) {
+        for (int i = 0; i < repeatedCount; i++) {
+            if (repeatedKeys[i].equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends a value which GELF 1.1 wants as a number, unquoted if it is one.
+     */
+    private static void numberJson(Appendable sb, String key, String value) throws IOException
+    {
+        if (value == null)
+            return;
+
+        sb.append(',').append('"').append(key).append('"').append(':');
+        if (isInteger(value)) {
+            sb.append(value);
+        } else {
+            quoted(sb, value);
+        }
+    }
+
+    /**
+     * @return true for 0 and for integers without leading zeros, the only ones JSON takes unquoted
+     */
+    private static boolean isInteger(String value) {
+        int length = value.length();
+        if (length == 0 || length > 18) {
+            return false;
+        }
+        if ("0".equals(value)) {
+            return true;
+        }
+        int first = value.charAt(0) == '-' ? 1 : 0;
+        if (first == length || value.charAt(first) == '0') {
+            return false;
+        }
+        for (int i = first; i < length; i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends digits of a non-negative value one by one, without creating a string.
+     */
+    private static void appendDigits(Appendable sb, long value, int minDigits) throws IOException
+    {
+        long divisor = 1;
+        int digits = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+            digits++;
+        }
+        for (; digits < minDigits; minDigits--) {
+            sb.append('0');
+        }
+        for (; divisor > 0; divisor /= 10) {
+            sb.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    private void timestampJson(Appendable sb, boolean gelf11) throws IOException
+    {
+        long seconds = getTimestamp().longValue();
+        sb.append(",\"timestamp\":");
+        if (seconds < 0) {
+            sb.append(Long.toString(seconds));
+            return;
+        }
+        appendDigits(sb, seconds, 1);
+        if (gelf11 && javaTimestamp / 1000L == seconds) {
+            sb.append('.');
+            appendDigits(sb, javaTimestamp % 1000L, 3);
+        }
+    }
+    
+    public byte[] toGzipMessage() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        try {
+            gzipTo(bos);
+        } catch (IOException e) {
+            return null;
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Streams compressed JSON to out. When sampled, renders JSON first, so that escaping and compression are timed apart.
+     */
+    private void gzipTo(OutputStream out) throws IOException {
+        Sample sample = StageTracer.current();
+        long start = sample == null ? 0 : System.nanoTime();
+        Utf8Buffer json = jsonBuffers.get();
+        json.reset(MAX_REUSED_JSON_LENGTH);
+        write(json);
+        long rendered = sample == null ? 0 : System.nanoTime();
+
+        GZIPOutputStream stream = new GZIPOutputStream(out);
+        stream.write(json.array(), 0, json.length());
+        stream.close();
+        jsonLength = json.length();
+        if (sample != null) {
+            sample.record(Stage.JSON, rendered - start);
+            sample.record(Stage.GZIP, System.nanoTime() - rendered);
+        }
+    }
+
+    /**
+     * @return size of JSON compressed by the last toGzipMessage or toDatagrams call, 0 if never compressed
+     */
+    long getJsonLength() {
+        return jsonLength;
+    }
+
+    public String toJson() {
+        
+        StringBuilder json = new StringBuilder(64);
+
+        try {
+            write(json);
+        } catch (IOException e) {
+            return null;
+        }
+            
+        return json.toString();
+    }
+
+    /**
+     * Appends JSON of the message to a reused buffer, as UTF-8.
+     */
+    void toJson(Utf8Buffer json) {
+        try {
+            write(json);
+        } catch (IOException e) {
+            // Utf8Buffer does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * writes json of message directly to gzip or string buffer without intermediate transformations
+     * 
+     * @param json
+     * @throws IOException
+     */
+    private void write(Appendable json) throws IOException
+    {
+        String version = getVersion() == null ? GELF_VERSION : getVersion();
+        boolean gelf11 = GELF_VERSION_1_1.equals(version);
+
+        json.append("{\"version\":");
+        repeated(json, version);
+        repeatedJson(json,"host", getHost());
+        json(json,"short_message", getShortMessage(),true);
+        if (!gelf11 || (getFullMessage() != null && !getFullMessage().equals(getShortMessage())))
+        {
+            json(json,"full_message", getFullMessage(),true);
+        }
+        timestampJson(json, gelf11);
+
+        if (gelf11)
+        {
+            // GELF 1.1 deprecates facility, file and line in favour of additional fields
+            numberJson(json,"level", getLevel());
+            repeatedJson(json,"_facility", getFacility());
+            repeatedJson(json,"_file", getFile());
+            numberJson(json,"_line", getLine());
+        }
+        else
+        {
+            repeatedJson(json,"level", getLevel());
+            repeatedJson(json,"facility", getFacility());
+            repeatedJson(json,"file", getFile());
+            json(json,"line", getLine(),true);
+        }
+
+        if (senderId != null)
+        {
+            repeatedJson(json,"_sender_id", senderId);
+            json.append(",\"_seq\":");
+            appendDigits(json, sequence, 1);
+        }
+
+        for (Map.Entry<String, Object> additionalField : additonalFields.entrySet()) {
+            if (!ID_NAME.equals(additionalField.getKey())) {
+                additionalJson(json, additionalField.getKey(), additionalField.getValue());
+            }
+        }
+
+        json.append('}');
+    }
+
+    /**
+     * Compresses the message straight into datagram sized arrays, so it is never held in one array and
+     * sliced afterwards.
+     */
+    public List<byte[]> toDatagrams(int maxChunkSize) {
+        ChunkingOutputStream chunks = new ChunkingOutputStream(maxChunkSize);
+        try {
+            gzipTo(chunks);
+        } catch (IOException e) {
+            // in-memory streams do not throw
+            throw new IllegalStateException(e);
+        }
+        Sample sample = StageTracer.current();
+        long start = sample == null ? 0 : System.nanoTime();
+        List<byte[]> datagrams = chunks.toDatagrams();
+        if (sample != null && datagrams.size() > 1) {
+            sample.record(Stage.CHUNK, System.nanoTime() - start);
+        }
+        return datagrams;
+    }
+
+    static int nextChunkedMessageId() {
+        return (int) idGen.incrementAndGet() & 0x7FFFFFFF;
+    }
+
+    static int chunkCount(int messageLength, int maxChunkSize) {
+        return (messageLength + maxChunkSize - 1) / maxChunkSize;
+    }
+
+    /**
+     * writes GELF_CHUNK_HEADER_LENGTH bytes of chunk header to the start of chunk
+     *
+     * @param address {@link HostIdentity#getAddress4Bytes()} read once per message, so a new local address does not
+     *        split the message id of its chunks
+     */
+    static void writeChunkHeader(byte[] chunk, int messageId, byte[] address, int idx, int num) {
+        chunk[0] = GELF_CHUNKED_ID[0];
+        chunk[1] = GELF_CHUNKED_ID[1];
+        chunk[2] = (byte) (messageId >>> 24);
+        chunk[3] = (byte) (messageId >>> 16);
+        chunk[4] = (byte) (messageId >>> 8);
+        chunk[5] = (byte) messageId;
+        System.arraycopy(address, 0, chunk, 6, 4);
+        chunk[10] = (byte) idx;
+        chunk[11] = (byte) num;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public String getShortMessage() {
+        return shortMessage;
+    }
+
+    public void setShortMessage(String shortMessage) {
+        this.shortMessage = shortMessage;
+    }
+
+    public String getFullMessage() {
+        return fullMessage;
+    }
+
+    public void setFullMessage(String fullMessage) {
+        this.fullMessage = fullMessage;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public Long getJavaTimestamp() {
+        return javaTimestamp;
+    }
+
+    public void setTimestamp(Long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public void setLevel(String level) {
+        this.level = level;
+    }
+
+    public String getFacility() {
+        return facility;
+    }
+
+    public void setFacility(String facility) {
+        this.facility = facility;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public void setLine(String line) {
+        this.line = line;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public GelfMessage addField(String key, String value) {
+        getAdditonalFields().put(key, value);
+        forgetRepeated(key);
+        return this;
+    }
+
+    public GelfMessage addField(String key, Object value) {
+        getAdditonalFields().put(key, value);
+        forgetRepeated(key);
+        return this;
+    }
+
+    /**
+     * Adds a field whose value repeats across messages, like a configured field or the logger or thread name.
+     * Its encoding is cached, so writing it again is one array copy. Values which vary from message to message,
+     * like MDC values, belong in {@link #addField}, where they do not evict the ones which repeat.
+     */
+    public GelfMessage addRepeatedField(String key, String value) {
+        getAdditonalFields().put(key, value);
+        if (repeatedKeys == null) {
+            repeatedKeys = new String[4];
+        } else if (repeatedCount == repeatedKeys.length) {
+            repeatedKeys = Arrays.copyOf(repeatedKeys, repeatedCount * 2);
+        }
+        forgetRepeated(key);
+        repeatedKeys[repeatedCount++] = key;
+        return this;
+    }
+
+    private void forgetRepeated(String key) {
+        for (int i = 0; i < repeatedCount; i++) {
+            if (repeatedKeys[i].equals(key)) {
+                repeatedKeys[i] = repeatedKeys[--repeatedCount];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Numbers the message for loss accounting at the receiver, written as {@code _sender_id} and {@code _seq}.
+     *
+     * @param senderId id of the sender numbering its messages, null to leave both fields out
+     * @param sequence positive number, counting up per sender
+     */
+    public void setSequence(String senderId, long sequence) {
+        this.senderId = senderId;
+        this.sequence = sequence;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Map<String, Object> getAdditonalFields() {
+        return additonalFields;
+    }
+
+    public void setAdditonalFields(Map<String, Object> additonalFields) {
+        this.additonalFields = additonalFields;
+        repeatedCount = 0;
+    }
+
+    /**
+     * @return rough heap bytes held by the message: two per character of its strings plus object overhead
+     */
+    int estimateSize() {
+        long chars = length(host) + length(shortMessage) + length(fullMessage) + length(level) + length(facility)
+                     + length(line) + length(file);
+        for (Map.Entry<String, Object> field : additonalFields.entrySet()) {
+            Object value = field.getValue();
+            chars += field.getKey().length() + (value instanceof String ? ((String) value).length() : 8);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 2 * chars + 48 * (8 + additonalFields.size()));
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    public boolean isValid() {
+        return !isEmpty(version) && !isEmpty(host) && !isEmpty(shortMessage) && !isEmpty(facility);
+    }
+
+    public boolean isEmpty(String str) {
+        return str == null || "".equals(str.trim());
+    }
+
+}
@@ -6,6 +6,9 @@ import org.apache.log4j.spi.LocationInfo;
 import org.apache.log4j.spi.LoggingEvent;
 import org.apache.log4j.spi.ThrowableInformation;
 import org.graylog2.log.Log4jVersionChecker;
+import org.graylog2.metrics.StageTracer;
+import org.graylog2.metrics.StageTracer.Sample;
+import org.graylog2.metrics.StageTracer.Stage;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -20,11 +23,26 @@ public class GelfMessageFactory {
     private static final String JAVA_TIMESTAMP = "timestampMs";
     
     public static final GelfMessage makeMessage(LoggingEvent event, GelfMessageProvider provider, LocationInfo locationInformation) {
-        long timeStamp = Log4jVersionChecker.getTimeStamp(event);
-        Level level = event.getLevel();
-
         String file = locationInformation == null ? null : locationInformation.getFileName();
         String lineNumber = locationInformation == null ? null : locationInformation.getLineNumber();
+        return makeMessage(event, provider, file, lineNumber);
+    }
+
+    /**
+     * @param file source file of the logging call, or null
+     * @param lineNumber line of the logging call, or null
+     */
+    public static final GelfMessage makeMessage(LoggingEvent event, GelfMessageProvider provider, String file, String lineNumber) {
+        return makeMessage(event, provider, file, lineNumber, GelfMessage.GELF_VERSION);
+    }
+
+    /**
+     * @param version {@link GelfMessage#GELF_VERSION_1_1} leaves out fields 1.1 makes redundant
+     */
+    public static final GelfMessage makeMessage(LoggingEvent event, GelfMessageProvider provider, String file, String lineNumber,
+                                                String version) {
+        long timeStamp = Log4jVersionChecker.getTimeStamp(event);
+        Level level = event.getLevel();
 
         String renderedMessage = event.getRenderedMessage();
         String shortMessage;
@@ -43,12 +61,21 @@ public class GelfMessageFactory {
         if (provider.isExtractStacktrace()) {
             ThrowableInformation throwableInformation = event.getThrowableInformation();
             if (throwableInformation != null) {
+                Sample sample = StageTracer.current();
+                long start = sample == null ? 0 : System.nanoTime();
                 renderedMessage += "\n\r" + extractStacktrace(throwableInformation);
+                if (sample != null) {
+                    sample.record(Stage.STACKTRACE, System.nanoTime() - start);
+                }
             }
         }
         
         GelfMessage gelfMessage = new GelfMessage(shortMessage, renderedMessage, timeStamp,
                                                   String.valueOf(level.getSyslogEquivalent()), lineNumber, file);
+        boolean gelf11 = GelfMessage.GELF_VERSION_1_1.equals(version);
+        if (gelf11) {
+            gelfMessage.setVersion(version);
+        }
         
         if (provider.getOriginHost() != null) {
             gelfMessage.setHost(provider.getOriginHost());
@@ -63,15 +90,18 @@ public class GelfMessageFactory {
             if (entry.getKey().equals(ORIGIN_HOST_KEY) && gelfMessage.getHost() == null) {
                 gelfMessage.setHost(fields.get(ORIGIN_HOST_KEY));
             } else {
-                gelfMessage.addField(entry.getKey(), entry.getValue());
+                gelfMessage.addRepeatedField(entry.getKey(), entry.getValue());
             }
         }
 
         if (provider.isAddExtendedInformation()) {
 
-            gelfMessage.addField(THREAD_NAME, event.getThreadName());
-            gelfMessage.addField(LOGGER_NAME, event.getLoggerName());
-            gelfMessage.addField(JAVA_TIMESTAMP, Long.toString(gelfMessage.getJavaTimestamp()));
+            gelfMessage.addRepeatedField(THREAD_NAME, event.getThreadName());
+            gelfMessage.addRepeatedField(LOGGER_NAME, event.getLoggerName());
+            if (!gelf11) {
+                // 1.1 timestamps have milliseconds already
+                gelfMessage.addField(JAVA_TIMESTAMP, Long.toString(gelfMessage.getJavaTimestamp()));
+            }
 
             // Get MDC and add a GELF field for each key/value pair
             Map<String, Object> mdc = MDC.getContext();
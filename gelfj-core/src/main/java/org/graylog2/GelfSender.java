@@ -0,0 +1,653 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.graylog2.metrics.SenderMetrics;
+import org.graylog2.metrics.StageTracer;
+import org.graylog2.metrics.StageTracer.Sample;
+import org.graylog2.metrics.StageTracer.Stage;
+
+public class GelfSender {
+
+    private static final int DEFAULT_PORT = 12201;
+    public static final int DEFAULT_CHUNK_SIZE = 1420;
+
+    private static final int PORT_MIN = 8000;
+    private static final int PORT_MAX = 8888;
+    private static final int MAX_REUSED_JSON_LENGTH = 64 * 1024;
+    // what is left of the 576 byte datagram every IPv4 host must accept, after IP, UDP and chunk headers
+    private static final int MIN_CHUNK_SIZE = 536;
+    private static final int IPV4_HEADER_LENGTH = 20;
+    private static final int IPV6_HEADER_LENGTH = 40;
+    private static final int UDP_HEADER_LENGTH = 8;
+    private static final int MAX_IP_PACKET_LENGTH = 65535;
+
+    private InetAddress host;
+    private int port;
+    // one or more sockets to the same destination; each thread keeps to one of them
+    private DatagramChannel[] channels;
+    private DatagramSocket[] sockets;
+    
+    // as configured; the chunk size in use may be lower, or higher towards local destinations
+    private final int configuredChunkSize;
+    private final AtomicInteger maxChunkSize = new AtomicInteger();
+    private volatile BufferArena arena;
+    private volatile int offHeapBufferBytes;
+    private final SenderMetrics metrics = new SenderMetrics();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(metrics);
+    private volatile String senderId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private static final ThreadLocal<DatagramPacket> packets = new ThreadLocal<DatagramPacket>() {
+        @Override
+        protected DatagramPacket initialValue() {
+            return new DatagramPacket(new byte[0], 0);
+        }
+    };
+    private static final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[0];
+        }
+    };
+    private static final ThreadLocal<Encoding> encodings = new ThreadLocal<Encoding>() {
+        @Override
+        protected Encoding initialValue() {
+            return new Encoding();
+        }
+    };
+
+    public GelfSender(String host) throws UnknownHostException, SocketException {
+        this(host, DEFAULT_PORT, DEFAULT_CHUNK_SIZE);
+    }
+
+    public GelfSender(String host, int port, int maxChunkSize) throws UnknownHostException, SocketException {
+        this(host, port, maxChunkSize, 1);
+    }
+
+    /**
+     * Sends over several sockets, so logging threads do not all wait for the one socket's lock. Each thread keeps
+     * to the socket picked by its id, so all chunks of a message, and all messages of a thread, leave through the
+     * same socket and in order.
+     *
+     * @param socketCount number of sockets, each bound to its own local port
+     */
+    public GelfSender(String host, int port, int maxChunkSize, int socketCount)
+        throws UnknownHostException, SocketException {
+        if (socketCount < 1) {
+            throw new IllegalArgumentException("Socket count must be at least 1, was " + socketCount);
+        }
+        this.host = InetAddress.getByName(host);
+        this.port = port;
+        this.channels = new DatagramChannel[socketCount];
+        this.sockets = new DatagramSocket[socketCount];
+        try {
+            for (int i = 0; i < socketCount; i++) {
+                channels[i] = initiateChannel();
+                sockets[i] = channels[i].socket();
+                // connected, so that ICMP port unreachable fails the next send instead of vanishing
+                sockets[i].connect(new InetSocketAddress(this.host, port));
+            }
+        } catch (SocketException e) {
+            closeChannels();
+            throw e;
+        }
+
+        this.configuredChunkSize = maxChunkSize;
+        this.maxChunkSize.set(maxChunkSize);
+        metrics.setMaxChunkSize(maxChunkSize);
+        metrics.register("GelfSender", host + ":" + port);
+    }
+
+    /**
+     * For subclasses sending over something else than UDP: resolves the destination and registers metrics only.
+     */
+    protected GelfSender(String host, int port) throws UnknownHostException {
+        this(InetAddress.getByName(host), port, host + ":" + port);
+    }
+
+    /**
+     * For subclasses sending over something else than UDP: registers metrics only.
+     *
+     * @param host destination, null if it has no network address
+     * @param name name of the metrics MBean
+     */
+    protected GelfSender(InetAddress host, int port, String name) {
+        this.host = host;
+        this.port = port;
+        this.configuredChunkSize = 0;
+        metrics.register("GelfSender", name);
+    }
+
+    private DatagramChannel initiateChannel() throws SocketException {
+        int port = PORT_MIN;
+
+        while (true) {
+            DatagramChannel resultingChannel = openChannel();
+            try {
+                resultingChannel.socket().bind(new InetSocketAddress(port));
+                return resultingChannel;
+            } catch (SocketException e) {
+                closeQuietly(resultingChannel);
+                port++;
+
+                if (port > PORT_MAX)
+                    throw e;
+            }
+        }
+    }
+
+    private static DatagramChannel openChannel() throws SocketException {
+        try {
+            return DatagramChannel.open();
+        } catch (IOException e) {
+            SocketException socketException = new SocketException("Could not open datagram channel: " + e.getMessage());
+            socketException.initCause(e);
+            throw socketException;
+        }
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel != null) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * @return index of the socket the calling thread sends through
+     */
+    private int stripe() {
+        int count = channels.length;
+        return count == 1 ? 0 : (int) (Thread.currentThread().getId() % count);
+    }
+
+    private static void closeQuietly(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Serializes messages from {@link #sendMessage} into pooled direct buffers, one per chunk, which go to the
+     * socket without another copy. On JDK 11 and later messages are deflated straight into them; before, they are
+     * compressed into a per thread heap buffer and copied. When the buffers run out, messages are sent from the heap.
+     *
+     * @param maxBytes most off-heap memory for buffers; 0 sends from heap arrays as before
+     */
+    public void setOffHeapBufferBytes(int maxBytes) {
+        BufferArena previous = arena;
+        offHeapBufferBytes = maxBytes;
+        if (maxBytes <= 0) {
+            arena = null;
+        } else {
+            // the chunk size only ever drops below this, until discoverChunkSize makes new buffers
+            int slabSize = GelfMessage.GELF_CHUNK_HEADER_LENGTH + maxChunkSize.get();
+            arena = new BufferArena(slabSize, Math.max(1, maxBytes / slabSize));
+        }
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Picks the chunk size from the MTU of the network interface messages leave through. Destinations on the loopback
+     * interface or on a network the interface is directly attached to get chunks as large as one packet carries
+     * there, up to maxLocalChunkSize, so jumbo frames and loopback need fewer chunks. Other destinations keep the
+     * configured chunk size, or less when the interface's MTU is smaller, as on tunnels. Receivers must accept
+     * datagrams of maxLocalChunkSize plus the 12 byte chunk header.
+     * <p>
+     * Whether or not it is called, a datagram the network refuses as too long lowers the chunk size, first to
+     * {@link #DEFAULT_CHUNK_SIZE}, then to 536, and the message is sent again in smaller chunks.
+     *
+     * @return chunk size now in use
+     */
+    public int discoverChunkSize(int maxLocalChunkSize) {
+        if (sockets == null) {
+            return maxChunkSize.get();
+        }
+        int discovered = chunkSizeFor(host, sockets[0].getLocalAddress(), configuredChunkSize, maxLocalChunkSize);
+        maxChunkSize.set(discovered);
+        metrics.setMaxChunkSize(discovered);
+        if (arena != null) {
+            setOffHeapBufferBytes(offHeapBufferBytes);
+        }
+        return discovered;
+    }
+
+    /**
+     * @return largest chunk payload sent, without the chunk header
+     */
+    public int getMaxChunkSize() {
+        return maxChunkSize.get();
+    }
+
+    /**
+     * @param source local address datagrams to destination leave from
+     * @param remoteChunkSize chunk size for destinations behind a router
+     */
+    static int chunkSizeFor(InetAddress destination, InetAddress source, int remoteChunkSize, int maxLocalChunkSize) {
+        int overhead = (destination instanceof Inet6Address ? IPV6_HEADER_LENGTH : IPV4_HEADER_LENGTH)
+                       + UDP_HEADER_LENGTH + GelfMessage.GELF_CHUNK_HEADER_LENGTH;
+        if (destination.isLoopbackAddress()) {
+            return Math.min(maxLocalChunkSize, MAX_IP_PACKET_LENGTH - overhead);
+        }
+        int mtu;
+        NetworkInterface networkInterface;
+        try {
+            networkInterface = source == null ? null : NetworkInterface.getByInetAddress(source);
+            mtu = networkInterface == null ? -1 : networkInterface.getMTU();
+        } catch (SocketException e) {
+            return remoteChunkSize;
+        }
+        if (mtu <= 0) {
+            return remoteChunkSize;
+        }
+        int mtuChunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(mtu, MAX_IP_PACKET_LENGTH) - overhead);
+        if (isDirectlyAttached(networkInterface, destination)) {
+            return Math.min(maxLocalChunkSize, mtuChunkSize);
+        }
+        return Math.min(remoteChunkSize, mtuChunkSize);
+    }
+
+    private static boolean isDirectlyAttached(NetworkInterface networkInterface, InetAddress destination) {
+        byte[] target = destination.getAddress();
+        for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+            byte[] local = interfaceAddress.getAddress().getAddress();
+            int prefixLength = interfaceAddress.getNetworkPrefixLength();
+            if (local.length != target.length || prefixLength <= 0) {
+                continue;
+            }
+            boolean same = true;
+            for (int bit = 0; bit < prefixLength && same; bit++) {
+                int mask = 0x80 >>> (bit & 7);
+                same = (local[bit >>> 3] & mask) == (target[bit >>> 3] & mask);
+            }
+            if (same) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lowers the chunk size after a datagram of failedChunkSize was refused as too long.
+     *
+     * @return true if the message is worth sending again with the chunk size now in use
+     */
+    private boolean reduceChunkSize(int failedChunkSize) {
+        int reduced = failedChunkSize > DEFAULT_CHUNK_SIZE ? DEFAULT_CHUNK_SIZE : MIN_CHUNK_SIZE;
+        if (reduced >= failedChunkSize) {
+            return false;
+        }
+        // a racing thread may have lowered it already
+        if (maxChunkSize.compareAndSet(failedChunkSize, reduced)) {
+            metrics.chunkSizeReduced(reduced);
+        }
+        return maxChunkSize.get() < failedChunkSize;
+    }
+
+    /**
+     * Tells a datagram refused as larger than the network takes, EMSGSIZE on Unix and WSAEMSGSIZE on Windows, from
+     * other send failures. The JDK reports it as a plain {@link IOException} from a DatagramChannel, or a plain
+     * {@link SocketException} from the DatagramSocket of JDK 7 to 12, with the operating system's message; in English
+     * these are matched:
+     * <ul>
+     * <li>{@code Message too long} on Linux and macOS, followed by {@code (sendto failed)} from the DatagramSocket
+     * of JDK 7 to 12</li>
+     * <li>{@code A message sent on a datagram socket was larger than the internal message buffer or some other network
+     * limit, ...} on Windows</li>
+     * </ul>
+     * Nothing else counts: the JDK reports passing failures like ENOBUFS or a firewall's EPERM the same way, and
+     * the chunk size is never raised again once lowered. Where the operating system speaks another language, set
+     * the chunk size the network takes.
+     */
+    static boolean isMessageTooLong(IOException e) {
+        String message = e.getMessage();
+        return message != null && (message.contains("too long") || message.contains("larger than"));
+    }
+
+    /**
+     * @return arena buffering messages off-heap, null if messages are sent from heap arrays
+     */
+    public BufferArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Numbers messages passed to {@link #sendMessage} in a {@code _seq} field, counting up from 1, and tags them
+     * with a random {@code _sender_id}, so a receiver can count lost, duplicated and reordered messages per sender.
+     * Payloads and datagrams serialized by callers are not numbered.
+     */
+    public void setSequenceNumbers(boolean enabled) {
+        senderId = enabled ? String.format("%016x", new Random().nextLong()) : null;
+    }
+
+    /**
+     * @return id numbered messages are tagged with, null if messages are not numbered
+     */
+    public String getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Gives the message the next sequence number if messages are numbered; call right before serializing it,
+     * after the circuit breaker let it through, so gaps at the receiver only come from messages lost on the way.
+     */
+    protected void numberMessage(GelfMessage message) {
+        String id = senderId;
+        if (id != null) {
+            message.setSequence(id, sequence.incrementAndGet());
+        }
+    }
+
+    public boolean sendMessage(GelfMessage message) {
+        if (!message.isValid()) {
+            return false;
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            return false;
+        }
+        numberMessage(message);
+        // inside an appender, join its sample rather than counting the event down a second time
+        Sample sample = StageTracer.current();
+        boolean entry = sample == null && !StageTracer.inPipeline();
+        if (entry) {
+            sample = StageTracer.begin();
+        }
+        try {
+            BufferArena offHeap = arena;
+            if (offHeap != null) {
+                return sendOffHeap(message, offHeap, sample);
+            }
+            long start = System.nanoTime();
+            long serialized;
+            boolean sent;
+            while (true) {
+                int chunkSize = maxChunkSize.get();
+                List<byte[]> datagrams = message.toDatagrams(chunkSize);
+                serialized = sample == null ? 0 : System.nanoTime();
+                try {
+                    send(datagrams);
+                    circuitBreaker.success();
+                    sent = true;
+                    break;
+                } catch (IOException e) {
+                    if (!isMessageTooLong(e) || !reduceChunkSize(chunkSize)) {
+                        metrics.sendFailure();
+                        circuitBreaker.failure();
+                        sent = false;
+                        break;
+                    }
+                }
+            }
+            long end = System.nanoTime();
+            if (sample != null) {
+                sample.record(Stage.SEND, end - serialized);
+            }
+            if (sent) {
+                metrics.messageSent(message.getJsonLength(), end - start);
+            }
+            return sent;
+        } finally {
+            if (entry) {
+                StageTracer.end(sample);
+            }
+        }
+    }
+
+    /**
+     * Sends already compressed message, chunking it if needed. Reuses per thread chunk buffers
+     * and packets, so repeated calls do not allocate.
+     *
+     * @param payload buffer holding compressed message from offset 0
+     * @param length message length
+     */
+    public boolean sendPayload(byte[] payload, int length) {
+        if (!circuitBreaker.tryAcquire()) {
+            return false;
+        }
+        return sendCompressed(payload, length, 0, System.nanoTime());
+    }
+
+    private boolean sendCompressed(byte[] payload, int length, int uncompressedLength, long start) {
+        DatagramSocket socket = sockets[stripe()];
+        DatagramPacket datagramPacket = packets.get();
+        datagramPacket.setAddress(host);
+        datagramPacket.setPort(port);
+        int maxChunkSize = this.maxChunkSize.get();
+        try {
+            if (length <= maxChunkSize) {
+                datagramPacket.setData(payload, 0, length);
+                socket.send(datagramPacket);
+                metrics.datagramSent(length, false);
+                metrics.messageSent(uncompressedLength, System.nanoTime() - start);
+                circuitBreaker.success();
+                return true;
+            }
+
+            byte[] chunk = chunks.get();
+            if (chunk.length < GelfMessage.GELF_CHUNK_HEADER_LENGTH + maxChunkSize) {
+                chunk = new byte[GelfMessage.GELF_CHUNK_HEADER_LENGTH + maxChunkSize];
+                chunks.set(chunk);
+            }
+
+            final int messageId = GelfMessage.nextChunkedMessageId();
+            final byte[] address = HostIdentity.getAddress4Bytes();
+            final int num = GelfMessage.chunkCount(length, maxChunkSize);
+            for (int idx = 0; idx < num; idx++) {
+                int from = idx * maxChunkSize;
+                int chunkLength = Math.min(maxChunkSize, length - from);
+
+                GelfMessage.writeChunkHeader(chunk, messageId, address, idx, num);
+                System.arraycopy(payload, from, chunk, GelfMessage.GELF_CHUNK_HEADER_LENGTH, chunkLength);
+                datagramPacket.setData(chunk, 0, GelfMessage.GELF_CHUNK_HEADER_LENGTH + chunkLength);
+                socket.send(datagramPacket);
+                metrics.datagramSent(GelfMessage.GELF_CHUNK_HEADER_LENGTH + chunkLength, true);
+            }
+            metrics.messageSent(uncompressedLength, System.nanoTime() - start);
+            circuitBreaker.success();
+            return true;
+        } catch (IOException e) {
+            if (isMessageTooLong(e) && reduceChunkSize(maxChunkSize)) {
+                return sendCompressed(payload, length, uncompressedLength, start);
+            }
+            metrics.sendFailure();
+            circuitBreaker.failure();
+            return false;
+        }
+    }
+
+    private boolean sendOffHeap(GelfMessage message, BufferArena offHeap, Sample sample) {
+        long start = System.nanoTime();
+        Encoding encoding = encodings.get();
+        Utf8Buffer json = encoding.json;
+        json.reset(MAX_REUSED_JSON_LENGTH);
+        message.toJson(json);
+        long rendered = sample == null ? 0 : System.nanoTime();
+
+        int maxChunkSize = this.maxChunkSize.get();
+        List<BufferArena.Slab> slabs = encoding.slabs;
+        try {
+            encoding.gzip.start(json.array(), json.length());
+            if (!gzipInto(offHeap, slabs, encoding.gzip, maxChunkSize)) {
+                metrics.arenaExhausted();
+                return sendFromHeap(encoding, start);
+            }
+            long compressed = sample == null ? 0 : System.nanoTime();
+            if (sample != null) {
+                sample.record(Stage.JSON, rendered - start);
+                sample.record(Stage.GZIP, compressed - rendered);
+            }
+
+            DatagramChannel channel = channels[stripe()];
+            final int num = slabs.size();
+            if (num == 1) {
+                ByteBuffer buffer = slabs.get(0).buffer();
+                buffer.flip();
+                buffer.position(GelfMessage.GELF_CHUNK_HEADER_LENGTH);
+                int length = buffer.remaining();
+                channel.write(buffer);
+                metrics.datagramSent(length, false);
+            } else {
+                byte[] header = encoding.chunkHeader;
+                final int messageId = GelfMessage.nextChunkedMessageId();
+                final byte[] address = HostIdentity.getAddress4Bytes();
+                for (int idx = 0; idx < num; idx++) {
+                    ByteBuffer buffer = slabs.get(idx).buffer();
+                    buffer.flip();
+                    GelfMessage.writeChunkHeader(header, messageId, address, idx, num);
+                    buffer.put(header);
+                    buffer.position(0);
+                    int length = buffer.remaining();
+                    channel.write(buffer);
+                    metrics.datagramSent(length, true);
+                }
+            }
+            long end = System.nanoTime();
+            if (sample != null) {
+                sample.record(Stage.SEND, end - compressed);
+            }
+            metrics.messageSent(json.length(), end - start);
+            circuitBreaker.success();
+            return true;
+        } catch (IOException e) {
+            if (isMessageTooLong(e) && reduceChunkSize(maxChunkSize)) {
+                // rare enough to compress again rather than cut the slabs into smaller chunks
+                return sendFromHeap(encoding, start);
+            }
+            metrics.sendFailure();
+            circuitBreaker.failure();
+            return false;
+        } finally {
+            for (int i = 0; i < slabs.size(); i++) {
+                offHeap.release(slabs.get(i));
+            }
+            slabs.clear();
+        }
+    }
+
+    /**
+     * GZIPs the message started in gzip into one slab per chunk, leaving room for the chunk header in each.
+     *
+     * @return false if the arena ran out of slabs before the message was written
+     */
+    private static boolean gzipInto(BufferArena offHeap, List<BufferArena.Slab> slabs, DirectGzip gzip,
+                                    int maxChunkSize) {
+        boolean finished = false;
+        while (!finished) {
+            BufferArena.Slab slab = offHeap.acquire();
+            if (slab == null) {
+                return false;
+            }
+            slabs.add(slab);
+            ByteBuffer buffer = slab.buffer();
+            buffer.limit(GelfMessage.GELF_CHUNK_HEADER_LENGTH + maxChunkSize);
+            buffer.position(GelfMessage.GELF_CHUNK_HEADER_LENGTH);
+            finished = gzip.fill(buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the message rendered in the thread's buffer from heap arrays, compressing it there.
+     */
+    private boolean sendFromHeap(Encoding encoding, long start) {
+        Utf8Buffer json = encoding.json;
+        int length = encoding.compressor.gzip(json.array(), json.length());
+        return sendCompressed(encoding.compressor.getBuffer(), length, json.length(), start);
+    }
+
+    public boolean sendDatagrams(List<byte[]> bytesList) {
+        try {
+            send(bytesList);
+        } catch (IOException e) {
+            metrics.sendFailure();
+            circuitBreaker.failure();
+            return false;
+        }
+        circuitBreaker.success();
+        return true;
+    }
+
+    private void send(List<byte[]> bytesList) throws IOException {
+        final boolean chunked = bytesList.size() > 1;
+        DatagramSocket socket = sockets[stripe()];
+        for (byte[] bytes : bytesList) {
+            DatagramPacket datagramPacket = new DatagramPacket(bytes, bytes.length, host, port);
+            socket.send(datagramPacket);
+            metrics.datagramSent(bytes.length, chunked);
+        }
+    }
+
+    /**
+     * @return true if {@link #sendPayload} takes uncompressed JSON, false if it takes compressed messages
+     */
+    public boolean takesJsonPayloads() {
+        return false;
+    }
+
+    /**
+     * @return false while the circuit breaker refuses sends, so callers can skip making the message
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isAvailable();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public SenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of UDP sockets messages are sent through, 0 for senders not using UDP
+     */
+    public int getSocketCount() {
+        return channels == null ? 0 : channels.length;
+    }
+
+    protected InetAddress getAddress() {
+        return host;
+    }
+
+    protected int getPort() {
+        return port;
+    }
+
+    public void close() {
+        if (channels != null) {
+            closeChannels();
+        }
+        BufferArena offHeap = arena;
+        if (offHeap != null) {
+            offHeap.close();
+        }
+        metrics.unregister();
+    }
+
+    /**
+     * Per thread buffers for rendering and compressing messages sent off-heap.
+     */
+    private static final class Encoding {
+        final Utf8Buffer json = new Utf8Buffer(1024);
+        final DirectGzip gzip = new DirectGzip();
+        // compresses messages sent from the heap when the arena is out of slabs
+        final GelfCompressor compressor = new GelfCompressor();
+        final List<BufferArena.Slab> slabs = new ArrayList<BufferArena.Slab>();
+        final byte[] chunkHeader = new byte[GelfMessage.GELF_CHUNK_HEADER_LENGTH];
+    }
+}
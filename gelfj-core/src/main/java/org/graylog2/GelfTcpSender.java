@@ -0,0 +1,190 @@
+package org.graylog2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends GELF messages over one persistent TCP connection as null delimited, uncompressed JSON frames,
+ * which is what Graylog2 GELF TCP inputs read.
+ * <p>
+ * {@link #write} only buffers a frame, so a batch of frames leaves in as few segments as possible on
+ * the next {@link #flush()}; {@link #sendMessage} and {@link #sendPayload} flush right away. A failed
+ * write closes the connection and the next one reconnects, unless repeated failures opened the circuit
+ * breaker, which then spares callers of the send methods the connect timeout.
+ */
+public class GelfTcpSender extends GelfSender {
+
+    private static final int FRAME_DELIMITER = 0;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // not a monitor, so virtual threads blocked in socket I/O do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private Socket socket;
+    private OutputStream out;
+
+    public GelfTcpSender(String host, int port) throws UnknownHostException {
+        super(host, port);
+    }
+
+    @Override
+    public boolean sendMessage(GelfMessage message) {
+        if (!message.isValid() || !getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        numberMessage(message);
+        byte[] json;
+        try {
+            json = message.toJson().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (!write(json, 0, json.length) || !flush()) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        getMetrics().messageSent(json.length, System.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * Sends a single frame.
+     *
+     * @param payload uncompressed JSON; GELF TCP inputs do not accept compressed frames
+     */
+    @Override
+    public boolean sendPayload(byte[] payload, int length) {
+        if (!getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (!write(payload, 0, length) || !flush()) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        getMetrics().messageSent(length, System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public boolean takesJsonPayloads() {
+        return true;
+    }
+
+    /**
+     * Datagrams hold compressed and chunked messages, which cannot be sent over TCP.
+     */
+    @Override
+    public boolean sendDatagrams(List<byte[]> bytesList) {
+        getMetrics().sendFailure();
+        return false;
+    }
+
+    /**
+     * Buffers one frame, connecting first if needed. Frames are sent once the buffer fills up or on {@link #flush()}.
+     *
+     * @param json uncompressed JSON without null bytes
+     */
+    public boolean write(byte[] json, int offset, int length) {
+        lock.lock();
+        try {
+            OutputStream stream = connect();
+            stream.write(json, offset, length);
+            stream.write(FRAME_DELIMITER);
+        } catch (IOException e) {
+            fail();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        getMetrics().datagramSent(length + 1, false);
+        return true;
+    }
+
+    public boolean flush() {
+        lock.lock();
+        try {
+            if (out == null) {
+                return true;
+            }
+            out.flush();
+            getCircuitBreaker().success();
+            return true;
+        } catch (IOException e) {
+            fail();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (out != null) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            disconnect();
+        } finally {
+            lock.unlock();
+        }
+        super.close();
+    }
+
+    private OutputStream connect() throws IOException {
+        if (out == null) {
+            Socket connection = new Socket();
+            try {
+                connection.setTcpNoDelay(true);
+                connection.setKeepAlive(true);
+                connection.connect(new InetSocketAddress(getAddress(), getPort()), CONNECT_TIMEOUT_MILLIS);
+                out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+                socket = connection;
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return out;
+    }
+
+    private void fail() {
+        getMetrics().sendFailure();
+        getCircuitBreaker().failure();
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        socket = null;
+        out = null;
+    }
+}
@@ -0,0 +1,264 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends GELF messages to an agent on the same host, like gelfj-relay, over a Unix domain stream socket as null
+ * delimited, uncompressed JSON frames. Messages are never chunked, and there is no IP stack on the way.
+ * <p>
+ * Unix domain sockets need Java 16 or later; see {@link UnixSockets#isSupported()}. Like {@link GelfTcpSender},
+ * {@link #write} only buffers a frame until the next {@link #flush()}, and a failed write closes the connection
+ * for the next one to reconnect. An agent that stops reading blocks senders for at most the write timeout; then
+ * the connection is dropped with whatever frames were still buffered, since a partly written frame cannot be
+ * completed on another connection, and the circuit breaker counts a failure.
+ */
+public class GelfUnixSocketSender extends GelfSender {
+
+    private static final byte FRAME_DELIMITER = 0;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REUSED_JSON_LENGTH = 64 * 1024;
+
+    private static final ThreadLocal<Utf8Buffer> jsonBuffers = new ThreadLocal<Utf8Buffer>() {
+        @Override
+        protected Utf8Buffer initialValue() {
+            return new Utf8Buffer(1024);
+        }
+    };
+
+    private final String path;
+    private volatile long writeTimeoutMillis = 1000;
+    // not a monitor, so virtual threads blocked in socket I/O do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private SocketChannel channel;
+    private Selector selector;
+
+    /**
+     * Connects on the first send, so the agent may start later.
+     *
+     * @param path socket file the agent listens on
+     * @throws UnsupportedOperationException if the runtime has no Unix domain sockets
+     */
+    public GelfUnixSocketSender(String path) {
+        super(null, -1, "unix:" + path);
+        if (!UnixSockets.isSupported()) {
+            close();
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later");
+        }
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * @param writeTimeoutMillis longest time to wait for the agent to read before giving up on the connection
+     */
+    public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    @Override
+    public boolean sendMessage(GelfMessage message) {
+        if (!message.isValid() || !getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        numberMessage(message);
+        Utf8Buffer json = jsonBuffers.get();
+        json.reset(MAX_REUSED_JSON_LENGTH);
+        message.toJson(json);
+        return send(json.array(), json.length());
+    }
+
+    /**
+     * Sends a single frame.
+     *
+     * @param payload uncompressed JSON; compressed bytes may contain the null delimiter
+     */
+    @Override
+    public boolean sendPayload(byte[] payload, int length) {
+        if (!getCircuitBreaker().tryAcquire()) {
+            return false;
+        }
+        return send(payload, length);
+    }
+
+    @Override
+    public boolean takesJsonPayloads() {
+        return true;
+    }
+
+    /**
+     * Datagrams hold compressed and chunked messages, which cannot be sent over a stream.
+     */
+    @Override
+    public boolean sendDatagrams(List<byte[]> bytesList) {
+        getMetrics().sendFailure();
+        return false;
+    }
+
+    /**
+     * Buffers one frame, connecting first if needed. Frames are sent once the buffer fills up or on {@link #flush()}.
+     *
+     * @param json uncompressed JSON without null bytes
+     */
+    public boolean write(byte[] json, int offset, int length) {
+        final int frameLength = length + 1;
+        lock.lock();
+        try {
+            connect();
+            while (length > 0) {
+                if (!out.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(length, out.remaining());
+                out.put(json, offset, n);
+                offset += n;
+                length -= n;
+            }
+            if (!out.hasRemaining()) {
+                drain();
+            }
+            out.put(FRAME_DELIMITER);
+        } catch (IOException e) {
+            fail();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        getMetrics().datagramSent(frameLength, false);
+        return true;
+    }
+
+    public boolean flush() {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return true;
+            }
+            drain();
+            getCircuitBreaker().success();
+            return true;
+        } catch (IOException e) {
+            fail();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (channel != null) {
+                try {
+                    drain();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            disconnect();
+        } finally {
+            lock.unlock();
+        }
+        super.close();
+    }
+
+    private boolean send(byte[] json, int length) {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (!write(json, 0, length) || !flush()) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        getMetrics().messageSent(length, System.nanoTime() - start);
+        return true;
+    }
+
+    private void connect() throws IOException {
+        if (channel == null) {
+            SocketChannel connection = UnixSockets.connect(path);
+            try {
+                connection.configureBlocking(false);
+                selector = Selector.open();
+                connection.register(selector, SelectionKey.OP_WRITE);
+                channel = connection;
+            } catch (IOException e) {
+                connection.close();
+                if (selector != null) {
+                    selector.close();
+                    selector = null;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered bytes, waiting up to the write timeout whenever the socket buffer is full.
+     */
+    private void drain() throws IOException {
+        out.flip();
+        try {
+            long deadline = 0;
+            while (out.hasRemaining()) {
+                if (channel.write(out) > 0) {
+                    deadline = 0;
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (deadline == 0) {
+                    deadline = now + writeTimeoutMillis;
+                } else if (now >= deadline) {
+                    throw new IOException("Agent at " + path + " did not read for " + writeTimeoutMillis + " ms");
+                }
+                selector.select(Math.max(1, deadline - now));
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            out.compact();
+        }
+    }
+
+    private void fail() {
+        getMetrics().sendFailure();
+        getCircuitBreaker().failure();
+        disconnect();
+    }
+
+    private void disconnect() {
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        selector = null;
+        channel = null;
+        out.clear();
+    }
+}
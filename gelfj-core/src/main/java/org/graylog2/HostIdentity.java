@@ -0,0 +1,124 @@
+package org.graylog2;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name and address of the local host, shared by all appenders, handlers and senders of the process.
+ * <p>
+ * Looking up the local host can take seconds on hosts with slow reverse DNS, so it runs once on a
+ * background thread started with this class, and callers never wait for it: until it finishes, or if it
+ * fails, the host name falls back to the {@code HOSTNAME} or {@code COMPUTERNAME} environment variable
+ * and the address to random bytes. System property {@code gelfj.hostname}, or environment variable
+ * {@code GELFJ_HOSTNAME}, sets the name up front and skips the lookup.
+ */
+public final class HostIdentity {
+
+    static final String HOSTNAME_PROPERTY = "gelfj.hostname";
+    static final String HOSTNAME_ENV = "GELFJ_HOSTNAME";
+    private static final String FALLBACK_HOSTNAME = "localhost";
+
+    private static volatile String hostName;
+    private static volatile byte[] address4Bytes;
+    private static final CountDownLatch resolved = new CountDownLatch(1);
+
+    static {
+        String configured = configuredHostName(System.getProperty(HOSTNAME_PROPERTY), System.getenv(HOSTNAME_ENV));
+        Random random = new Random(System.nanoTime() ^ System.identityHashCode(HostIdentity.class));
+        byte[] randomBytes = new byte[4];
+        random.nextBytes(randomBytes);
+        address4Bytes = randomBytes;
+
+        if (configured != null) {
+            hostName = configured;
+            resolved.countDown();
+        } else {
+            String environment = System.getenv("HOSTNAME");
+            if (environment == null) {
+                environment = System.getenv("COMPUTERNAME");
+            }
+            hostName = environment == null || environment.trim().length() == 0
+                       ? FALLBACK_HOSTNAME : shortName(environment.trim());
+
+            Thread resolver = new Thread(new Runnable() {
+                public void run() {
+                    resolve();
+                }
+            }, "gelfj-host-identity");
+            resolver.setDaemon(true);
+            resolver.start();
+        }
+    }
+
+    private HostIdentity() {
+    }
+
+    /**
+     * @return local host name without domain; never blocks
+     */
+    public static String getHostName() {
+        return hostName;
+    }
+
+    /**
+     * Waits up to timeout for the lookup, for callers where the exact name matters more than startup time.
+     *
+     * @return local host name without domain, or the fallback if the lookup did not finish in time
+     */
+    public static String awaitHostName(long timeoutMillis) {
+        try {
+            resolved.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return hostName;
+    }
+
+    /**
+     * @return last 4 bytes of the local address, for GELF chunk ids; never blocks
+     */
+    static byte[] getAddress4Bytes() {
+        return address4Bytes;
+    }
+
+    private static void resolve() {
+        try {
+            InetAddress localHost = InetAddress.getLocalHost();
+            byte[] address = localHost.getAddress();
+            if (address.length >= 4) {
+                // IPv6 gives its last 4 bytes
+                byte[] last4 = new byte[4];
+                System.arraycopy(address, address.length - 4, last4, 0, 4);
+                address4Bytes = last4;
+            }
+            hostName = shortName(localHost.getHostName());
+        } catch (UnknownHostException e) {
+            // keep the fallbacks
+        } catch (SecurityException e) {
+            // keep the fallbacks
+        } finally {
+            resolved.countDown();
+        }
+    }
+
+    static String configuredHostName(String property, String environment) {
+        if (property != null && property.trim().length() > 0) {
+            return property.trim();
+        }
+        if (environment != null && environment.trim().length() > 0) {
+            return environment.trim();
+        }
+        return null;
+    }
+
+    /**
+     * @return host name with the domain of a FQDN stripped off
+     */
+    static String shortName(String hostName) {
+        int pointPos = hostName.indexOf('.');
+        return pointPos > 0 ? hostName.substring(0, pointPos) : hostName;
+    }
+}
@@ -0,0 +1,92 @@
+package org.graylog2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.graylog2.metrics.BudgetMetrics;
+import org.graylog2.metrics.Gauge;
+
+/**
+ * Byte limit on memory held by queued and pooled GELF messages, shared by all appenders and handlers of the process
+ * through {@link #shared()}.
+ * <p>
+ * Holders reserve bytes before they keep a message or allocate a buffer and release them when done. A refused
+ * reservation means the holder drops by its own policy instead, so a logging storm cannot exhaust the heap or direct
+ * memory however many appenders there are. The shared limit is 64 MB, or {@code -Dgelfj.memoryBudgetBytes}.
+ */
+public final class MemoryBudget {
+
+    public static final long DEFAULT_LIMIT_BYTES = 64L * 1024 * 1024;
+
+    private static final MemoryBudget SHARED =
+        new MemoryBudget(Long.getLong("gelfj.memoryBudgetBytes", DEFAULT_LIMIT_BYTES));
+
+    static {
+        SHARED.getMetrics().register("MemoryBudget", "shared");
+    }
+
+    private final AtomicLong reserved = new AtomicLong();
+    private volatile long limitBytes;
+    private final BudgetMetrics metrics = new BudgetMetrics();
+
+    public MemoryBudget(long limitBytes) {
+        setLimitBytes(limitBytes);
+        metrics.setLimitBytes(new Gauge() {
+            public long get() {
+                return MemoryBudget.this.limitBytes;
+            }
+        });
+        metrics.setReservedBytes(new Gauge() {
+            public long get() {
+                return reserved.get();
+            }
+        });
+    }
+
+    /**
+     * @return budget shared by all appenders and handlers
+     */
+    public static MemoryBudget shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return true if bytes were reserved, false if that would go over the limit
+     */
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = reserved.get();
+            if (current + bytes > limitBytes) {
+                metrics.rejected();
+                return false;
+            }
+        } while (!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    public void release(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    public long getReservedBytes() {
+        return reserved.get();
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * @param limitBytes new limit; lowering it refuses new reservations until enough bytes were released
+     */
+    public void setLimitBytes(long limitBytes) {
+        if (limitBytes < 0) {
+            throw new IllegalArgumentException("Memory budget must not be negative");
+        }
+        this.limitBytes = limitBytes;
+    }
+
+    public BudgetMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,266 @@
+package org.graylog2;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.graylog2.metrics.StripedCounter;
+
+/**
+ * Bounded queues of GELF messages, one per priority, drained by a single thread with weighted priority.
+ * <p>
+ * Each round the drain thread takes up to weight messages from every lane, highest priority lane first,
+ * so a flood in a low priority lane only gets its share of sending while messages in higher lanes keep
+ * moving. A full lane drops either the new message or its oldest one, by its {@link DropPolicy}; callers
+ * never wait. Queued messages also hold their estimated size from a {@link MemoryBudget}, and when that is
+ * used up the lane drops by the same policy rather than queue more. A lane only drops its own oldest messages
+ * while that can make room; a message the lane could never fit is dropped at once.
+ */
+public abstract class PriorityLanes {
+
+    private static final long IDLE_PARK_NANOS = 100L * 1000 * 1000;
+
+    public enum DropPolicy {
+        DROP_NEWEST, DROP_OLDEST
+    }
+
+    /**
+     * Capacity, drop policy and weight of one lane.
+     */
+    public static final class Lane {
+        final int capacity;
+        final DropPolicy policy;
+        final int weight;
+
+        public Lane(int capacity, DropPolicy policy, int weight) {
+            if (capacity <= 0 || weight <= 0) {
+                throw new IllegalArgumentException("Lane capacity and weight must be positive");
+            }
+            this.capacity = capacity;
+            this.policy = policy;
+            this.weight = weight;
+        }
+
+        /**
+         * Parses {@code capacity[,dropNewest|dropOldest[,weight]]}, e.g. {@code 1000,dropOldest,8}.
+         */
+        public static Lane parse(String spec, DropPolicy defaultPolicy, int defaultWeight) {
+            String[] parts = spec.split(",");
+            try {
+                int capacity = Integer.parseInt(parts[0].trim());
+                DropPolicy policy = defaultPolicy;
+                if (parts.length > 1) {
+                    String name = parts[1].trim();
+                    if ("dropNewest".equalsIgnoreCase(name)) {
+                        policy = DropPolicy.DROP_NEWEST;
+                    } else if ("dropOldest".equalsIgnoreCase(name)) {
+                        policy = DropPolicy.DROP_OLDEST;
+                    } else {
+                        throw new IllegalArgumentException("Unknown drop policy " + name + " in lane " + spec);
+                    }
+                }
+                int weight = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : defaultWeight;
+                return new Lane(capacity, policy, weight);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid lane " + spec, e);
+            }
+        }
+    }
+
+    private final Lane[] lanes;
+    private final ArrayBlockingQueue<GelfMessage>[] queues;
+    private final StripedCounter[] dropped;
+    // budget bytes held by the messages queued in each lane
+    private final AtomicLong[] laneBytes;
+    private final MemoryBudget budget;
+    private final Thread drainer;
+
+    private volatile boolean running = true;
+    private volatile boolean waiting;
+    private volatile long closeDeadline;
+
+    /**
+     * @param lanes lanes from highest to lowest priority
+     */
+    public PriorityLanes(String name, Lane... lanes) {
+        this(name, MemoryBudget.shared(), lanes);
+    }
+
+    /**
+     * @param budget budget queued messages reserve their size from
+     * @param lanes lanes from highest to lowest priority
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityLanes(String name, MemoryBudget budget, Lane... lanes) {
+        this.lanes = lanes;
+        this.budget = budget;
+        this.queues = new ArrayBlockingQueue[lanes.length];
+        this.dropped = new StripedCounter[lanes.length];
+        this.laneBytes = new AtomicLong[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            queues[i] = new ArrayBlockingQueue<GelfMessage>(lanes[i].capacity);
+            dropped[i] = new StripedCounter();
+            laneBytes[i] = new AtomicLong();
+        }
+        drainer = new Thread(new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, name);
+        drainer.setDaemon(true);
+    }
+
+    public void start() {
+        drainer.start();
+    }
+
+    /**
+     * Queues message in lane, or drops a message if the lane is full.
+     *
+     * @return false if a message was dropped
+     */
+    public boolean offer(int lane, GelfMessage message) {
+        if (!running) {
+            // nothing would drain it or give its budget back
+            dropped[lane].increment();
+            return false;
+        }
+        ArrayBlockingQueue<GelfMessage> queue = queues[lane];
+        boolean dropOldest = lanes[lane].policy == DropPolicy.DROP_OLDEST;
+        boolean queued = true;
+        int bytes = message.estimateSize();
+        if (bytes > budget.getLimitBytes()) {
+            // would not fit even with every lane empty
+            dropped[lane].increment();
+            return false;
+        }
+        while (!budget.tryReserve(bytes)) {
+            if (!dropOldest || !canMakeRoom(lane, bytes) || !dropOldest(lane)) {
+                dropped[lane].increment();
+                return false;
+            }
+            queued = false;
+        }
+        message.budgetBytes = bytes;
+        laneBytes[lane].addAndGet(bytes);
+
+        if (!queue.offer(message)) {
+            if (!dropOldest) {
+                release(lane, message);
+                dropped[lane].increment();
+                return false;
+            }
+            do {
+                if (dropOldest(lane)) {
+                    queued = false;
+                }
+            } while (!queue.offer(message));
+        }
+        if (waiting) {
+            LockSupport.unpark(drainer);
+        }
+        return queued;
+    }
+
+    /**
+     * @return messages waiting in all lanes
+     */
+    public int size() {
+        int size = 0;
+        for (ArrayBlockingQueue<GelfMessage> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    public long getDropped(int lane) {
+        return dropped[lane].sum();
+    }
+
+    /**
+     * Stops the drain thread once queued messages are sent or timeout passed; later offers are not sent,
+     * and messages still queued then give back their budget.
+     */
+    public void close(long timeoutMillis) throws InterruptedException {
+        closeDeadline = System.nanoTime() + timeoutMillis * 1000000L;
+        running = false;
+        LockSupport.unpark(drainer);
+        drainer.join(timeoutMillis + 1000);
+        if (!drainer.isAlive()) {
+            for (int i = 0; i < queues.length; i++) {
+                GelfMessage message;
+                while ((message = queues[i].poll()) != null) {
+                    release(i, message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends message from the drain thread.
+     */
+    protected abstract void send(GelfMessage message);
+
+    private void drain() {
+        while (running || (!isEmpty() && System.nanoTime() < closeDeadline)) {
+            int sent = 0;
+            for (int i = 0; i < queues.length; i++) {
+                for (int taken = 0; taken < lanes[i].weight; taken++) {
+                    GelfMessage message = queues[i].poll();
+                    if (message == null) {
+                        break;
+                    }
+                    release(i, message);
+                    try {
+                        send(message);
+                    } catch (RuntimeException e) {
+                        // one broken message must not stop the lanes; send reports its own failures
+                    }
+                    sent++;
+                }
+            }
+            if (sent == 0) {
+                waiting = true;
+                // offer checks waiting after queueing, so either it unparks us or we see its message here
+                if (running && isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    private boolean dropOldest(int lane) {
+        GelfMessage oldest = queues[lane].poll();
+        if (oldest == null) {
+            return false;
+        }
+        release(lane, oldest);
+        dropped[lane].increment();
+        return true;
+    }
+
+    /**
+     * @return true if dropping queued messages of lane can free enough budget for bytes; messages of other
+     *         lanes are left alone, so past that, dropping only loses messages
+     */
+    private boolean canMakeRoom(int lane, int bytes) {
+        long free = budget.getLimitBytes() - budget.getReservedBytes();
+        return laneBytes[lane].get() + free >= bytes;
+    }
+
+    private void release(int lane, GelfMessage message) {
+        laneBytes[lane].addAndGet(-message.budgetBytes);
+        budget.release(message.budgetBytes);
+        message.budgetBytes = 0;
+    }
+
+    private boolean isEmpty() {
+        for (ArrayBlockingQueue<GelfMessage> queue : queues) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+package org.graylog2;
+
+/**
+ * Finds the code which called a logging API, for file and line of a message.
+ * <p>
+ * This implementation takes a full stack trace; on JDK 11 and later the multi-release jar
+ * replaces it with one walking only the frames it needs.
+ */
+public final class StackLocator {
+
+    private StackLocator() {
+    }
+
+    /**
+     * @param fqcn class of the logging API, e.g. {@code org.apache.log4j.Category}
+     * @return frame right below the last frame of fqcn, null if fqcn is not on the stack
+     */
+    public static StackTraceElement callerOf(String fqcn) {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        boolean inApi = false;
+        for (StackTraceElement element : stack) {
+            if (fqcn.equals(element.getClassName())) {
+                inApi = true;
+            } else if (inApi) {
+                return element;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,103 @@
+package org.graylog2;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens Unix domain stream sockets, which the JDK supports from Java 16 on.
+ * <p>
+ * The JDK API is looked up once by reflection, so this class loads on any runtime and {@link #isSupported()}
+ * tells whether the runtime has it.
+ */
+public final class UnixSockets {
+
+    private static final ProtocolFamily UNIX = unixFamily();
+    private static final Method ADDRESS_OF = method("java.net.UnixDomainSocketAddress", "of", String.class);
+    private static final Method OPEN_CHANNEL = method("java.nio.channels.SocketChannel", "open", ProtocolFamily.class);
+    private static final Method OPEN_SERVER = method("java.nio.channels.ServerSocketChannel", "open", ProtocolFamily.class);
+
+    private UnixSockets() {
+    }
+
+    public static boolean isSupported() {
+        return UNIX != null && ADDRESS_OF != null && OPEN_CHANNEL != null && OPEN_SERVER != null;
+    }
+
+    /**
+     * @return blocking channel connected to the socket file at path
+     * @throws IOException if nobody listens at path, or the runtime has no Unix domain sockets
+     */
+    public static SocketChannel connect(String path) throws IOException {
+        SocketChannel channel = (SocketChannel) invoke(OPEN_CHANNEL, UNIX);
+        try {
+            channel.connect(address(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @return server channel listening at path; the socket file stays until deleted
+     * @throws IOException if path exists, or the runtime has no Unix domain sockets
+     */
+    public static ServerSocketChannel bind(String path) throws IOException {
+        ServerSocketChannel server = (ServerSocketChannel) invoke(OPEN_SERVER, UNIX);
+        try {
+            server.bind(address(path));
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    private static SocketAddress address(String path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets need Java 16 or later");
+        }
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static ProtocolFamily unixFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Method method(String className, String name, Class<?> parameterType) {
+        try {
+            return Class.forName(className).getMethod(name, parameterType);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
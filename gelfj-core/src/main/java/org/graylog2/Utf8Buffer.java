@@ -0,0 +1,119 @@
+package org.graylog2;
+
+/**
+ * Growable byte array taking JSON as characters, which it encodes to UTF-8 right away, or as already encoded bytes.
+ * <p>
+ * Not thread safe; keep one per thread.
+ */
+final class Utf8Buffer implements Appendable {
+
+    private byte[] bytes;
+    private int length;
+    // high surrogate waiting for the low one
+    private char high;
+
+    Utf8Buffer(int capacity) {
+        bytes = new byte[capacity];
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence csq) {
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Utf8Buffer append(CharSequence csq, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8Buffer append(char ch) {
+        if (high != 0) {
+            char pending = high;
+            high = 0;
+            if (Character.isLowSurrogate(ch)) {
+                int cp = Character.toCodePoint(pending, ch);
+                ensure(4);
+                bytes[length++] = (byte) (0xF0 | (cp >> 18));
+                bytes[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+                return this;
+            }
+            // unpaired surrogate, replace like String.getBytes does
+            ensure(1);
+            bytes[length++] = '?';
+        }
+
+        ensure(3);
+        if (ch < 0x80) {
+            bytes[length++] = (byte) ch;
+        } else if (ch < 0x800) {
+            bytes[length++] = (byte) (0xC0 | (ch >> 6));
+            bytes[length++] = (byte) (0x80 | (ch & 0x3F));
+        } else if (Character.isHighSurrogate(ch)) {
+            high = ch;
+        } else if (Character.isLowSurrogate(ch)) {
+            bytes[length++] = '?';
+        } else {
+            bytes[length++] = (byte) (0xE0 | (ch >> 12));
+            bytes[length++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+            bytes[length++] = (byte) (0x80 | (ch & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Appends bytes which are UTF-8 already.
+     */
+    Utf8Buffer appendEncoded(byte[] encoded) {
+        flushSurrogate();
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, bytes, length, encoded.length);
+        length += encoded.length;
+        return this;
+    }
+
+    /**
+     * @return buffer holding length bytes of UTF-8 from offset 0; valid until the next append
+     */
+    byte[] array() {
+        flushSurrogate();
+        return bytes;
+    }
+
+    int length() {
+        flushSurrogate();
+        return length;
+    }
+
+    /**
+     * Empties the buffer, and gives up its array if a large message grew it past maxCapacity.
+     */
+    void reset(int maxCapacity) {
+        length = 0;
+        high = 0;
+        if (bytes.length > maxCapacity) {
+            bytes = new byte[maxCapacity];
+        }
+    }
+
+    private void flushSurrogate() {
+        if (high != 0) {
+            high = 0;
+            ensure(1);
+            bytes[length++] = '?';
+        }
+    }
+
+    private void ensure(int more) {
+        if (length + more > bytes.length) {
+            byte[] grown = new byte[Math.max(length + more, bytes.length * 2)];
+            System.arraycopy(bytes, 0, grown, 0, length);
+            bytes = grown;
+        }
+    }
+}
@@ -0,0 +1,649 @@
+package org.graylog2.log;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.ErrorManager;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.Priority;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.GelfFanOut;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfMessageFactory;
+import org.graylog2.GelfMessageProvider;
+import org.graylog2.GelfSender;
+import org.graylog2.HostIdentity;
+import org.graylog2.PriorityLanes;
+import org.graylog2.PriorityLanes.DropPolicy;
+import org.graylog2.PriorityLanes.Lane;
+import org.graylog2.StackLocator;
+import org.graylog2.log.LoggerRoutes.Route;
+import org.graylog2.metrics.AppenderMetrics;
+import org.graylog2.metrics.Gauge;
+import org.graylog2.metrics.StageTracer;
+import org.graylog2.metrics.StageTracer.Sample;
+import org.graylog2.metrics.StageTracer.Stage;
+import org.json.simple.JSONValue;
+
+/**
+ * Sends log4j events to Graylog2, by default from the logging thread.
+ * <p>
+ * With {@code priorityLanes} enabled, events are converted on the logging thread and queued by level into
+ * separate bounded lanes for ERROR and FATAL, WARN, and everything else, which a background thread drains
+ * with weighted priority. A DEBUG flood then fills and drops in its own lane while errors keep going out.
+ * <p>
+ * With {@code destinations} set, each message is serialized once and handed to a {@link GelfFanOut}, which queues
+ * it to the Graylog2 server and every listed destination.
+ * <p>
+ * With {@code routes} set, events of some logger hierarchies get their own facility, fields, minimum level or
+ * destination, see {@link LoggerRoutes}. Events routed to their own destination are sent from the logging thread,
+ * also with priority lanes.
+ *
+ * @author Anton Yakimov
+ * @author Jochen Schalanda
+ */
+public class GelfAppender extends AppenderSkeleton implements GelfMessageProvider {
+
+    private String graylogHost;
+    private String originHost;
+    private int graylogPort = 12201;
+    private int maxChunkSize = GelfSender.DEFAULT_CHUNK_SIZE;
+    private String facility;
+    private GelfSender gelfSender;
+    private boolean extractStacktrace;
+    private boolean addExtendedInformation;
+    private boolean addLocation = false;
+    private Map<String, String> fields;
+    private final AppenderMetrics metrics = new AppenderMetrics();
+
+    private static final int ERROR_LANE = 0;
+    private static final int WARN_LANE = 1;
+    private static final int INFO_LANE = 2;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final long HOST_MAP_RESOLVE_MILLIS = 2000;
+
+    private boolean priorityLanes;
+    private String errorLane = "1000,dropOldest,8";
+    private String warnLane = "1000,dropNewest,4";
+    private String infoLane = "10000,dropNewest,1";
+    private int circuitBreakerThreshold = 5;
+    private long circuitBreakerRetryMillis = 1000;
+    private int offHeapBufferBytes;
+    private int udpSockets = 1;
+    private int maxLocalChunkSize;
+    private boolean sequenceNumbers;
+    private String destinations;
+    private int destinationQueueSize = 10000;
+    private String gelfVersion = GelfMessage.GELF_VERSION;
+    private String routes;
+    private volatile LoggerRoutes loggerRoutes;
+    private final List<GelfSender> routeSenders = new ArrayList<GelfSender>();
+    private volatile PriorityLanes lanes;
+
+    private int messageRateLimit = 0;
+    private int messageRateRelaxPeriod = 300; // first 300 seconds we allow to write with full speed
+    
+    
+    private int counter = 0;
+    private int droppedmessagecounter = 0;
+    private long second ;
+    private long servicestarttime ;
+    
+    public GelfAppender() {
+        super();
+    }
+
+    public void setAdditionalFields(String additionalFields) {
+        fields = (Map<String, String>) JSONValue.parse(additionalFields.replaceAll("'", "\""));
+    }
+
+    public int getGraylogPort() {
+        return graylogPort;
+    }
+
+    public void setGraylogPort(int graylogPort) {
+        this.graylogPort = graylogPort;
+    }
+
+    public String getGraylogHost() {
+        return graylogHost;
+    }
+
+    public void setGraylogHost(String graylogHost) {
+        this.graylogHost = graylogHost;
+    }
+
+    /**
+     * { 'regexp_for_host_matching' = 'graylog server', ... }
+     */
+    public void setGraylogHostMap(String graylogHostMap) {
+        Map<String, String> map = (Map<String, String>) JSONValue.parse(graylogHostMap.replaceAll("'", "\""));
+
+        for (Entry<String, String> serverdef : map.entrySet()) {
+            if ( getLocalHostName().matches(serverdef.getKey()) ) {
+                this.graylogHost = serverdef.getValue();
+                return;
+            }
+        }
+
+        LogLog.error("GELF Cannot determine its server. Host name "+getLocalHostName()+" did not matched anything from map "+graylogHostMap);
+    }
+    
+    /**
+     * @param addLocation the addLocation to set
+     */
+    public void setAddLocation(boolean addLocation)
+    {
+        this.addLocation = addLocation;
+    }
+    
+    public String getFacility() {
+        return facility;
+    }
+
+    public void setFacility(String facility) {
+        this.facility = facility;
+    }
+
+    public boolean isExtractStacktrace() {
+        return extractStacktrace;
+    }
+
+    public void setExtractStacktrace(boolean extractStacktrace) {
+        this.extractStacktrace = extractStacktrace;
+    }
+
+    /**
+     * @return configured origin host, or the process wide {@link HostIdentity#getHostName() host name}
+     */
+    public String getOriginHost() {
+        return originHost != null ? originHost : HostIdentity.getHostName();
+    }
+
+    /**
+     * The server choice depends on the exact name, so wait a little for the lookup unlike when logging.
+     */
+    private String getLocalHostName()
+    {
+        return HostIdentity.awaitHostName(HOST_MAP_RESOLVE_MILLIS);
+    }
+
+
+    public void setOriginHost(String originHost) {
+        this.originHost = originHost;
+    }
+
+    public boolean isAddExtendedInformation() {
+        return addExtendedInformation;
+    }
+
+    public void setAddExtendedInformation(boolean addExtendedInformation) {
+        this.addExtendedInformation = addExtendedInformation;
+    }
+    
+    public Map<String, String> getFields() {
+        if (fields == null) {
+            fields = new HashMap<String, String>();
+        }
+        return Collections.unmodifiableMap(fields);
+    }
+
+    @Override
+    public void activateOptions() {
+        // activating a closed appender opens it again, with its metrics registered again below
+        closed = false;
+        try {
+            if (destinations == null) {
+                gelfSender = configure(new GelfSender(graylogHost, graylogPort, maxChunkSize, udpSockets));
+            } else {
+                gelfSender = openFanOut();
+            }
+        } catch (UnknownHostException e) {
+            errorHandler.error("Unknown Graylog2 hostname:" + getGraylogHost(), e, ErrorCode.WRITE_FAILURE);
+        } catch (SocketException e) {
+            errorHandler.error("Socket exception", e, ErrorCode.WRITE_FAILURE);
+        } catch (IOException e) {
+            errorHandler.error("Could not open GELF destination", e, ErrorCode.WRITE_FAILURE);
+        } catch (RuntimeException e) {
+            errorHandler.error("Could not open GELF destination", e, ErrorCode.WRITE_FAILURE);
+        }
+        
+        if (routes != null) {
+            openRoutes();
+        }
+
+        second = System.currentTimeMillis()/1000;
+        servicestarttime =  second;
+
+        if (priorityLanes) {
+            startLanes();
+        }
+
+        metrics.register("GelfAppender", getName());
+    }
+
+    @Override
+    protected void append(LoggingEvent event) {
+        Route route = null;
+        LoggerRoutes table = loggerRoutes;
+        if (table != null) {
+            route = table.route(event.getLoggerName());
+            if (route != null && !route.isEnabledFor(event.getLevel())) {
+                // below the route's level, like below the appender's threshold
+                return;
+            }
+        }
+        metrics.event();
+
+        if (!inMessageLimit()) {
+            metrics.droppedByRateLimit();
+            return;
+        }
+        
+        appendNoLimit(event, route);
+    }
+
+    private void appendNoLimit(LoggingEvent event, Route route)
+    {
+        boolean ownDestination = route != null && route.getDestination() != null;
+        GelfSender sender = ownDestination ? route.getSender() : getGelfSender();
+        if (sender == null) {
+            metrics.droppedNoSender();
+            errorHandler.error("Could not send GELF message");
+            return;
+        }
+        if (!sender.isAvailable()) {
+            // the endpoint keeps failing, so spare making a message which would not be sent
+            metrics.droppedCircuitOpen();
+            return;
+        }
+
+        Sample sample = StageTracer.begin();
+        try {
+            long start = sample == null ? 0 : System.nanoTime();
+            // MDC, NDC and location belong to the logging thread, so the message is made here even when queued
+            GelfMessage gelfMessage = addLocation ? makeMessageWithLocation(event)
+                                                  : GelfMessageFactory.makeMessage(event, this, null, null, gelfVersion);
+            if (route != null) {
+                applyRoute(route, gelfMessage);
+            }
+            if (sample != null) {
+                sample.record(Stage.MAKE_MESSAGE, System.nanoTime() - start);
+            }
+
+            PriorityLanes queue = lanes;
+            if (queue == null || ownDestination) {
+                send(sender, gelfMessage);
+            } else if (!queue.offer(laneOf(event.getLevel()), gelfMessage)) {
+                metrics.droppedQueueFull();
+            }
+        } finally {
+            StageTracer.end(sample);
+        }
+    }
+
+    /**
+     * Finds the logging call on the stack directly, which is much cheaper than log4j parsing a printed
+     * stack trace; falls back to log4j for events not logged through a logger on this thread.
+     */
+    private GelfMessage makeMessageWithLocation(LoggingEvent event) {
+        StackTraceElement caller = StackLocator.callerOf(event.fqnOfCategoryClass);
+        if (caller == null) {
+            LocationInfo location = event.getLocationInformation();
+            return GelfMessageFactory.makeMessage(event, this, location.getFileName(), location.getLineNumber(), gelfVersion);
+        }
+        String file = caller.getFileName() == null ? LocationInfo.NA : caller.getFileName();
+        String line = caller.getLineNumber() < 0 ? LocationInfo.NA : Integer.toString(caller.getLineNumber());
+        return GelfMessageFactory.makeMessage(event, this, file, line, gelfVersion);
+    }
+
+    private static void applyRoute(Route route, GelfMessage gelfMessage) {
+        if (route.getFacility() != null) {
+            gelfMessage.setFacility(route.getFacility());
+        }
+        for (Map.Entry<String, String> field : route.getFields().entrySet()) {
+            gelfMessage.addRepeatedField(field.getKey(), field.getValue());
+        }
+    }
+
+    /**
+     * Compiles the routes and opens each destination they name once. Routes that do not compile are reported and
+     * left out, so every event goes to the appender's own sender.
+     */
+    private void openRoutes() {
+        LoggerRoutes table;
+        try {
+            table = LoggerRoutes.compile(routes);
+        } catch (IllegalArgumentException e) {
+            errorHandler.error("Invalid GELF routes", e, ErrorCode.GENERIC_FAILURE);
+            loggerRoutes = null;
+            return;
+        }
+        Map<String, GelfSender> opened = new HashMap<String, GelfSender>();
+        for (Route route : table.getRoutes()) {
+            String destination = route.getDestination();
+            if (destination == null || opened.containsKey(destination)) {
+                continue;
+            }
+            GelfSender sender = null;
+            try {
+                sender = configure(GelfFanOut.openDestination(destination, maxChunkSize));
+                routeSenders.add(sender);
+            } catch (IOException e) {
+                // events of the route are dropped rather than sent to a stream they do not belong in
+                errorHandler.error("Could not open GELF destination " + destination, e, ErrorCode.WRITE_FAILURE);
+            } catch (RuntimeException e) {
+                errorHandler.error("Could not open GELF destination " + destination, e, ErrorCode.WRITE_FAILURE);
+            }
+            opened.put(destination, sender);
+        }
+        loggerRoutes = table.withSenders(opened);
+    }
+
+    private GelfSender configure(GelfSender sender) {
+        sender.getCircuitBreaker().setFailureThreshold(circuitBreakerThreshold);
+        sender.getCircuitBreaker().setRetryMillis(circuitBreakerRetryMillis);
+        if (maxLocalChunkSize > 0) {
+            sender.discoverChunkSize(maxLocalChunkSize);
+        }
+        sender.setOffHeapBufferBytes(offHeapBufferBytes);
+        sender.setSequenceNumbers(sequenceNumbers);
+        return sender;
+    }
+
+    /**
+     * Opens the Graylog2 server, if one is set, and the listed destinations behind one fan-out.
+     */
+    private GelfFanOut openFanOut() throws IOException {
+        List<GelfSender> senders = new ArrayList<GelfSender>();
+        boolean opened = false;
+        try {
+            if (graylogHost != null) {
+                senders.add(configure(new GelfSender(graylogHost, graylogPort, maxChunkSize, udpSockets)));
+            }
+            for (String destination : destinations.split(",")) {
+                if (destination.trim().length() > 0) {
+                    senders.add(configure(GelfFanOut.openDestination(destination, maxChunkSize)));
+                }
+            }
+            if (senders.isEmpty()) {
+                throw new IOException("No graylogHost and no destinations to send to");
+            }
+            GelfFanOut fanOut = new GelfFanOut(getName(), senders, destinationQueueSize);
+            fanOut.setSequenceNumbers(sequenceNumbers);
+            fanOut.start();
+            opened = true;
+            return fanOut;
+        } finally {
+            if (!opened) {
+                // whatever failed, the senders opened so far must not keep their sockets, threads and MBeans
+                for (GelfSender sender : senders) {
+                    sender.close();
+                }
+            }
+        }
+    }
+
+    private void send(GelfSender sender, GelfMessage gelfMessage) {
+        if (!sender.isAvailable()) {
+            metrics.droppedCircuitOpen();
+        } else if (!sender.sendMessage(gelfMessage)) {
+            metrics.droppedSendFailure();
+            errorHandler.error("Could not send GELF message");
+        }
+    }
+
+    private void startLanes() {
+        PriorityLanes started = new PriorityLanes("gelf-lanes-" + getName(),
+                                                  Lane.parse(errorLane, DropPolicy.DROP_OLDEST, 8),
+                                                  Lane.parse(warnLane, DropPolicy.DROP_NEWEST, 4),
+                                                  Lane.parse(infoLane, DropPolicy.DROP_NEWEST, 1)) {
+            @Override
+            protected void send(GelfMessage message) {
+                GelfSender sender = getGelfSender();
+                if (sender == null) {
+                    metrics.droppedNoSender();
+                    return;
+                }
+                GelfAppender.this.send(sender, message);
+            }
+        };
+        started.start();
+        lanes = started;
+        metrics.setQueueDepth(new Gauge() {
+            public long get() {
+                return lanes == null ? 0 : lanes.size();
+            }
+        });
+    }
+
+    private static int laneOf(Level level) {
+        int value = level.toInt();
+        if (value >= Level.ERROR_INT) {
+            return ERROR_LANE;
+        }
+        return value >= Level.WARN_INT ? WARN_LANE : INFO_LANE;
+    }
+
+    /**
+     * @return true, if message limit deactivated or is met
+     */
+    private boolean inMessageLimit()
+    {
+        if (messageRateLimit <= 0)
+            return true;
+        
+        long nowSec = System.currentTimeMillis() / 1000;
+
+        if ( servicestarttime + messageRateRelaxPeriod >= nowSec ) 
+            return true;
+        
+        if (second < nowSec ) {
+            if (droppedmessagecounter > 0 ) {
+                LoggingEvent le = new LoggingEvent( getClass().getName(), new Category(getClass().getName()) { /* this is to overcome protected modifier of category class */}, Priority.WARN, "Dropped "+droppedmessagecounter+" messages last second, because limited to "+messageRateLimit+" messages per second", null);
+                appendNoLimit(le, null);
+                
+                droppedmessagecounter = 0;
+            }
+            counter = 0;
+            second = nowSec;
+            
+        } else {
+            if ( counter++ > messageRateLimit) {
+                droppedmessagecounter++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setMessageRateLimit(int messageRateLimit)
+    {
+        this.messageRateLimit = messageRateLimit;
+    }
+    
+    /**
+     * @param messageRateRelaxPeriod the messageRateRelaxPeriod to set
+     */
+    public void setMessageRateRelaxPeriod(int messageRateRelaxPeriod)
+    {
+        this.messageRateRelaxPeriod = messageRateRelaxPeriod;
+    }
+    
+    /**
+     * @param maxChunkSize the maxChunkSize to set
+     */
+    public void setMaxChunkSize(int maxChunkSize)
+    {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * @param maxLocalChunkSize largest chunk towards loopback and directly attached networks, whose chunk size is then
+     *                          taken from the interface MTU; 0 sends maxChunkSize chunks everywhere
+     */
+    public void setMaxLocalChunkSize(int maxLocalChunkSize) {
+        this.maxLocalChunkSize = maxLocalChunkSize;
+    }
+
+    /**
+     * @param priorityLanes true to queue events by level and send them from a background thread
+     */
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    /**
+     * @param errorLane lane of ERROR and FATAL events as {@code capacity[,dropNewest|dropOldest[,weight]]}
+     */
+    public void setErrorLane(String errorLane) {
+        this.errorLane = errorLane;
+    }
+
+    /**
+     * @param warnLane lane of WARN events as {@code capacity[,dropNewest|dropOldest[,weight]]}
+     */
+    public void setWarnLane(String warnLane) {
+        this.warnLane = warnLane;
+    }
+
+    /**
+     * @param infoLane lane of INFO and lower events as {@code capacity[,dropNewest|dropOldest[,weight]]}
+     */
+    public void setInfoLane(String infoLane) {
+        this.infoLane = infoLane;
+    }
+
+    /**
+     * @param circuitBreakerThreshold failed sends in a row after which events are skipped for a while; 0 never skips
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * @param circuitBreakerRetryMillis how long events are skipped before probing the endpoint again
+     */
+    public void setCircuitBreakerRetryMillis(long circuitBreakerRetryMillis) {
+        this.circuitBreakerRetryMillis = circuitBreakerRetryMillis;
+    }
+
+    /**
+     * @param offHeapBufferBytes most direct memory for buffers holding serialized messages; 0 uses heap arrays
+     */
+    public void setOffHeapBufferBytes(int offHeapBufferBytes) {
+        this.offHeapBufferBytes = offHeapBufferBytes;
+    }
+
+    /**
+     * @param udpSockets sockets to send to graylogHost through, so threads logging at once do not queue on one socket
+     */
+    public void setUdpSockets(int udpSockets) {
+        this.udpSockets = udpSockets;
+    }
+
+    public boolean isSequenceNumbers() {
+        return sequenceNumbers;
+    }
+
+    /**
+     * @param sequenceNumbers whether to number messages with _seq and _sender_id, for loss accounting at the receiver
+     */
+    public void setSequenceNumbers(boolean sequenceNumbers) {
+        this.sequenceNumbers = sequenceNumbers;
+    }
+
+    public String getDestinations() {
+        return destinations;
+    }
+
+    /**
+     * @param destinations comma separated {@code udp:host[:port]}, {@code tcp:host[:port]} or {@code unix:path}
+     *                     destinations to send every message to besides graylogHost, serializing it only once
+     */
+    public void setDestinations(String destinations) {
+        this.destinations = destinations;
+    }
+
+    /**
+     * @param destinationQueueSize most messages waiting per destination, when sending to destinations
+     */
+    public void setDestinationQueueSize(int destinationQueueSize) {
+        this.destinationQueueSize = destinationQueueSize;
+    }
+
+    public String getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @param routes facility, fields, minimum level and destination per logger name prefix, like
+     *               {@code {'com.ok.payments': {'facility': 'payments', 'fields': {'team': 'payments'}}}};
+     *               see {@link LoggerRoutes#compile}
+     */
+    public void setRoutes(String routes) {
+        this.routes = routes;
+    }
+
+    public String getGelfVersion() {
+        return gelfVersion;
+    }
+
+    /**
+     * @param gelfVersion "1.0", the default, or "1.1" for smaller messages Graylog2 0.20 and later understand
+     */
+    public void setGelfVersion(String gelfVersion) {
+        if (!GelfMessage.GELF_VERSION.equals(gelfVersion) && !GelfMessage.GELF_VERSION_1_1.equals(gelfVersion)) {
+            throw new IllegalArgumentException("Unsupported GELF version " + gelfVersion);
+        }
+        this.gelfVersion = gelfVersion;
+    }
+
+    public GelfSender getGelfSender() {
+        return gelfSender;
+    }
+
+    public AppenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void close() {
+        PriorityLanes queue = lanes;
+        if (queue != null) {
+            try {
+                queue.close(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lanes = null;
+        }
+        // AppenderSkeleton.doAppend refuses events from now on, until activateOptions opens the appender again
+        closed = true;
+        metrics.unregister();
+        if (getGelfSender() != null) {
+            getGelfSender().close();
+        }
+        gelfSender = null;
+        loggerRoutes = null;
+        for (GelfSender sender : routeSenders) {
+            sender.close();
+        }
+        routeSenders.clear();
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+}
@@ -0,0 +1,274 @@
+package org.graylog2.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Level;
+import org.graylog2.GelfSender;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Routing table from logger name prefixes to a facility, static fields, a minimum level and a destination,
+ * compiled into a trie over the dot separated parts of logger names.
+ * <p>
+ * A prefix matches the logger of that name and every logger below it, so {@code com.ok.payments} matches
+ * {@code com.ok.payments.Ledger} but not {@code com.ok.paymentsx}. The route of the longest matching prefix applies;
+ * what it leaves out, it inherits from the routes of shorter prefixes, and its fields are added to theirs. The route
+ * resolved for a logger name is cached, so routing an event takes one hash lookup.
+ */
+public final class LoggerRoutes {
+
+    private static final int MAX_CACHED = 10000;
+
+    /**
+     * What applies to the events of the loggers below one prefix.
+     */
+    public static final class Route {
+        private final String prefix;
+        private final String facility;
+        private final Map<String, String> fields;
+        private final Level level;
+        private final String destination;
+        private final GelfSender sender;
+
+        Route(String prefix, String facility, Map<String, String> fields, Level level, String destination,
+              GelfSender sender) {
+            this.prefix = prefix;
+            this.facility = facility;
+            this.fields = fields;
+            this.level = level;
+            this.destination = destination;
+            this.sender = sender;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return facility replacing the appender's, null to keep it
+         */
+        public String getFacility() {
+            return facility;
+        }
+
+        /**
+         * @return fields added to every message, besides the appender's
+         */
+        public Map<String, String> getFields() {
+            return fields;
+        }
+
+        /**
+         * @return lowest level sent, null to send everything the appender's threshold lets through
+         */
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * @return destination replacing the appender's, as taken by {@link org.graylog2.GelfFanOut#openDestination};
+         *         null to send to the appender's
+         */
+        public String getDestination() {
+            return destination;
+        }
+
+        /**
+         * @return sender of the destination, shared by all routes with the same destination; null if the routes were
+         *         not given senders with {@link LoggerRoutes#withSenders}, or the destination could not be opened
+         */
+        public GelfSender getSender() {
+            return sender;
+        }
+
+        public boolean isEnabledFor(Level eventLevel) {
+            return level == null || eventLevel.isGreaterOrEqual(level);
+        }
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        Route route;
+    }
+
+    private static final Route NO_ROUTE = new Route("", null, Collections.<String, String>emptyMap(), null, null, null);
+
+    private final Node root = new Node();
+    private final List<Route> routes = new ArrayList<Route>();
+    private final ConcurrentHashMap<String, Route> resolved = new ConcurrentHashMap<String, Route>();
+
+    private LoggerRoutes() {
+    }
+
+    /**
+     * Parses routes written like {@code {'com.ok.payments': {'facility': 'payments', 'level': 'WARN',
+     * 'destination': 'udp:graylog-payments:12201', 'fields': {'team': 'payments'}}}}, quoted with ' or ",
+     * and compiles them. A prefix may end in {@code .*}.
+     *
+     * @throws IllegalArgumentException if the routes are not written like that
+     */
+    public static LoggerRoutes compile(String spec) {
+        Object parsed = JSONValue.parse(spec.replaceAll("'", "\""));
+        if (!(parsed instanceof JSONObject)) {
+            throw new IllegalArgumentException("Routes are not a JSON object: " + spec);
+        }
+        // shorter prefixes first, so every route finds the ones it inherits from already compiled
+        List<String> prefixes = new ArrayList<String>();
+        for (Object key : ((JSONObject) parsed).keySet()) {
+            prefixes.add((String) key);
+        }
+        Collections.sort(prefixes);
+
+        LoggerRoutes compiled = new LoggerRoutes();
+        for (String key : prefixes) {
+            Object value = ((JSONObject) parsed).get(key);
+            if (!(value instanceof JSONObject)) {
+                throw new IllegalArgumentException("Route " + key + " is not a JSON object");
+            }
+            compiled.add(normalize(key), (JSONObject) value);
+        }
+        return compiled;
+    }
+
+    /**
+     * @param senders sender of each destination the routes name, null for destinations which could not be opened
+     * @return these routes, each carrying the sender of its destination
+     */
+    public LoggerRoutes withSenders(Map<String, GelfSender> senders) {
+        Map<Route, Route> bound = new IdentityHashMap<Route, Route>();
+        LoggerRoutes table = new LoggerRoutes();
+        for (Route route : routes) {
+            Route withSender = new Route(route.prefix, route.facility, route.fields, route.level, route.destination,
+                                         route.destination == null ? null : senders.get(route.destination));
+            bound.put(route, withSender);
+            table.routes.add(withSender);
+        }
+        copy(root, table.root, bound);
+        return table;
+    }
+
+    private static void copy(Node from, Node to, Map<Route, Route> bound) {
+        to.route = from.route == null ? null : bound.get(from.route);
+        for (Map.Entry<String, Node> child : from.children.entrySet()) {
+            Node node = new Node();
+            to.children.put(child.getKey(), node);
+            copy(child.getValue(), node, bound);
+        }
+    }
+
+    /**
+     * @return all routes, each with what it inherits filled in
+     */
+    public List<Route> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    /**
+     * @return route of the longest prefix of loggerName, null if none matches
+     */
+    public Route route(String loggerName) {
+        Route route = resolved.get(loggerName);
+        if (route == null) {
+            route = find(loggerName);
+            // logger names are usually a fixed set; past that, stop caching rather than grow without bound
+            if (resolved.size() < MAX_CACHED) {
+                resolved.put(loggerName, route);
+            }
+        }
+        return route == NO_ROUTE ? null : route;
+    }
+
+    private Route find(String loggerName) {
+        Node node = root;
+        Route route = root.route;
+        int start = 0;
+        while (start <= loggerName.length()) {
+            int dot = loggerName.indexOf('.', start);
+            int end = dot < 0 ? loggerName.length() : dot;
+            node = node.children.get(loggerName.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (node.route != null) {
+                route = node.route;
+            }
+            start = end + 1;
+        }
+        return route == null ? NO_ROUTE : route;
+    }
+
+    private void add(String prefix, JSONObject spec) {
+        Node node = root;
+        if (prefix.length() > 0) {
+            for (String part : prefix.split("\\.", -1)) {
+                Node child = node.children.get(part);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(part, child);
+                }
+                node = child;
+            }
+        }
+        Route parent = find(prefix);
+        if (parent == NO_ROUTE) {
+            parent = null;
+        }
+
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        if (parent != null) {
+            fields.putAll(parent.fields);
+        }
+        Object ownFields = spec.get("fields");
+        if (ownFields instanceof JSONObject) {
+            for (Object entry : ((JSONObject) ownFields).entrySet()) {
+                Map.Entry<?, ?> field = (Map.Entry<?, ?>) entry;
+                fields.put(String.valueOf(field.getKey()), String.valueOf(field.getValue()));
+            }
+        } else if (ownFields != null) {
+            throw new IllegalArgumentException("Fields of route " + prefix + " are not a JSON object");
+        }
+
+        String level = string(spec, "level");
+        Route route = new Route(prefix,
+                                inherit(string(spec, "facility"), parent == null ? null : parent.facility),
+                                Collections.unmodifiableMap(fields),
+                                level == null ? (parent == null ? null : parent.level) : parseLevel(prefix, level),
+                                inherit(string(spec, "destination"), parent == null ? null : parent.destination),
+                                null);
+        node.route = route;
+        routes.add(route);
+    }
+
+    private static String normalize(String prefix) {
+        String trimmed = prefix.trim();
+        if (trimmed.equals("*")) {
+            return "";
+        }
+        return trimmed.endsWith(".*") ? trimmed.substring(0, trimmed.length() - 2) : trimmed;
+    }
+
+    private static String string(JSONObject spec, String key) {
+        Object value = spec.get(key);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    private static String inherit(String own, String parents) {
+        return own != null ? own : parents;
+    }
+
+    private static Level parseLevel(String prefix, String name) {
+        Level level = Level.toLevel(name.trim(), null);
+        if (level == null) {
+            throw new IllegalArgumentException("Unknown level " + name + " in route " + prefix);
+        }
+        return level;
+    }
+}
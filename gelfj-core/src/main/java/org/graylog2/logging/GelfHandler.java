@@ -0,0 +1,431 @@
+package org.graylog2.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Filter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.graylog2.HostIdentity;
+import org.graylog2.metrics.AppenderMetrics;
+import org.graylog2.metrics.StageTracer;
+import org.graylog2.metrics.StageTracer.Sample;
+import org.graylog2.metrics.StageTracer.Stage;
+
+/**
+ * java.util.logging handler sending records to Graylog2.
+ * <p>
+ * Records are converted and sent by the publishing thread without holding the handler lock,
+ * so concurrent loggers only meet inside the socket. Message parameters are formatted only
+ * for records which passed level and filter checks.
+ */
+public class GelfHandler
+  extends Handler
+{
+  private static final int MAX_SHORT_MESSAGE_LENGTH = 250;
+
+  private String graylogHost;
+  private String originHost;
+  private int graylogPort;
+  private int maxChunkSize;
+  private int maxLocalChunkSize;
+  private String facility;
+  private volatile GelfSender gelfSender;
+  private boolean extractStacktrace;
+  private boolean addExtendedInformation;
+  private boolean addLocation;
+  private int circuitBreakerThreshold;
+  private long circuitBreakerRetryMillis;
+  private int offHeapBufferBytes;
+  private int udpSockets;
+  private boolean sequenceNumbers;
+  private String gelfVersion;
+  private Map<String, String> fields;
+  private final AppenderMetrics metrics = new AppenderMetrics();
+  // like other handlers, a closed one ignores records rather than reopening the sender without metrics
+  private volatile boolean closed;
+  // creating the sender resolves the Graylog2 host; a monitor would pin virtual threads waiting for it
+  private final ReentrantLock senderLock = new ReentrantLock();
+
+  public GelfHandler()
+  {
+    final LogManager manager = LogManager.getLogManager();
+    final String prefix = getClass().getName();
+
+    graylogHost = manager.getProperty( prefix + ".graylogHost" );
+    final String port = manager.getProperty( prefix + ".graylogPort" );
+    graylogPort = null == port ? 12201 : Integer.parseInt( port );
+    final String chunkSize = manager.getProperty( prefix + ".maxChunkSize" );
+    maxChunkSize = null == chunkSize ? GelfSender.DEFAULT_CHUNK_SIZE : Integer.parseInt( chunkSize.trim() );
+    final String localChunkSize = manager.getProperty( prefix + ".maxLocalChunkSize" );
+    maxLocalChunkSize = null == localChunkSize ? 0 : Integer.parseInt( localChunkSize.trim() );
+    originHost = manager.getProperty( prefix + ".originHost" );
+    final String threshold = manager.getProperty( prefix + ".circuitBreakerThreshold" );
+    circuitBreakerThreshold = null == threshold ? 5 : Integer.parseInt( threshold.trim() );
+    final String retryMillis = manager.getProperty( prefix + ".circuitBreakerRetryMillis" );
+    circuitBreakerRetryMillis = null == retryMillis ? 1000 : Long.parseLong( retryMillis.trim() );
+    final String offHeapBytes = manager.getProperty( prefix + ".offHeapBufferBytes" );
+    offHeapBufferBytes = null == offHeapBytes ? 0 : Integer.parseInt( offHeapBytes.trim() );
+    final String sockets = manager.getProperty( prefix + ".udpSockets" );
+    udpSockets = null == sockets ? 1 : Integer.parseInt( sockets.trim() );
+    sequenceNumbers = "true".equalsIgnoreCase( manager.getProperty( prefix + ".sequenceNumbers" ) );
+    extractStacktrace = "true".equalsIgnoreCase( manager.getProperty( prefix + ".extractStacktrace" ) );
+    addExtendedInformation = "true".equalsIgnoreCase( manager.getProperty( prefix + ".addExtendedInformation" ) );
+    // source class and method were always sent, so keep it unless explicitly disabled
+    addLocation = !"false".equalsIgnoreCase( manager.getProperty( prefix + ".addLocation" ) );
+    int fieldNumber = 0;
+    fields = new HashMap<String, String>(  );
+    while( true )
+    {
+    final String property = manager.getProperty( prefix + ".additionalField." + fieldNumber );
+      if ( null == property )
+    {
+      break;
+    }
+      final int index = property.indexOf( '=' );
+      if( -1 != index )
+      {
+        fields.put( property.substring( 0, index ), property.substring( index + 1 ) );
+      }
+
+      fieldNumber++;
+    }
+    facility = manager.getProperty( prefix + ".facility" );
+    gelfVersion = manager.getProperty( prefix + ".gelfVersion" );
+
+
+    final String level = manager.getProperty( prefix + ".level" );
+    if ( null != level )
+    {
+      setLevel( Level.parse( level.trim() ) );
+    }
+    else
+    {
+      setLevel( Level.INFO );
+    }
+
+    final String filter = manager.getProperty( prefix + ".filter" );
+    try
+    {
+      if ( null != filter )
+      {
+        final Class clazz = ClassLoader.getSystemClassLoader().loadClass( filter );
+        setFilter( (Filter) clazz.newInstance() );
+      }
+    }
+    catch ( final Exception e )
+    {
+      //ignore
+    }
+
+    metrics.register( "GelfHandler", prefix );
+  }
+
+  @Override
+  public void flush()
+  {
+  }
+
+
+  private String getOriginHost()
+  {
+    return null == originHost ? HostIdentity.getHostName() : originHost;
+  }
+
+  public boolean isAddLocation()
+  {
+    return addLocation;
+  }
+
+  public void setAddLocation( final boolean addLocation )
+  {
+    this.addLocation = addLocation;
+  }
+
+  public boolean isAddExtendedInformation()
+  {
+    return addExtendedInformation;
+  }
+
+  public void setAddExtendedInformation( final boolean addExtendedInformation )
+  {
+    this.addExtendedInformation = addExtendedInformation;
+  }
+
+  public int getMaxChunkSize()
+  {
+    return maxChunkSize;
+  }
+
+  @Override
+  public void publish( final LogRecord record )
+  {
+    if ( closed || !isLoggable( record ) )
+    {
+      return;
+    }
+    metrics.event();
+    final GelfSender sender = getGelfSender();
+    if ( null == sender )
+    {
+      metrics.droppedNoSender();
+      reportError( "Could not send GELF message", null, ErrorManager.WRITE_FAILURE );
+    }
+    else if ( !sender.isAvailable() )
+    {
+      metrics.droppedCircuitOpen();
+    }
+    else
+    {
+      final Sample sample = StageTracer.begin();
+      try
+      {
+        final long start = null == sample ? 0 : System.nanoTime();
+        final GelfMessage gelfMessage = makeMessage( record );
+        if ( null != sample )
+        {
+          sample.record( Stage.MAKE_MESSAGE, System.nanoTime() - start );
+        }
+
+        if ( !sender.sendMessage( gelfMessage ) )
+        {
+          metrics.droppedSendFailure();
+          reportError( "Could not send GELF message", null, ErrorManager.WRITE_FAILURE );
+        }
+      }
+      finally
+      {
+        StageTracer.end( sample );
+      }
+    }
+  }
+
+  public AppenderMetrics getMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * @return sender, creating it on first use; null if it could not be created
+   */
+  protected GelfSender getGelfSender()
+  {
+    GelfSender sender = gelfSender;
+    if ( null == sender )
+    {
+      senderLock.lock();
+      try
+      {
+        sender = gelfSender;
+        if ( null == sender )
+        {
+          try
+          {
+            sender = new GelfSender( graylogHost, graylogPort, maxChunkSize, udpSockets );
+            sender.getCircuitBreaker().setFailureThreshold( circuitBreakerThreshold );
+            sender.getCircuitBreaker().setRetryMillis( circuitBreakerRetryMillis );
+            if ( maxLocalChunkSize > 0 )
+            {
+              sender.discoverChunkSize( maxLocalChunkSize );
+            }
+            sender.setOffHeapBufferBytes( offHeapBufferBytes );
+            sender.setSequenceNumbers( sequenceNumbers );
+            gelfSender = sender;
+          }
+          catch ( UnknownHostException e )
+          {
+            reportError( "Unknown Graylog2 hostname:" + graylogHost, e, ErrorManager.WRITE_FAILURE );
+          }
+          catch ( SocketException e )
+          {
+            reportError( "Socket exception", e, ErrorManager.WRITE_FAILURE );
+          }
+        }
+      }
+      finally
+      {
+        senderLock.unlock();
+      }
+    }
+    return sender;
+  }
+
+  @Override
+  public void close()
+  {
+    senderLock.lock();
+    try
+    {
+      closed = true;
+      metrics.unregister();
+      if ( null != gelfSender )
+      {
+        gelfSender.close();
+        gelfSender = null;
+      }
+    }
+    finally
+    {
+      senderLock.unlock();
+    }
+  }
+
+  protected GelfMessage makeMessage( final LogRecord record )
+  {
+    String message = formatMessage( record );
+
+    final String shortMessage;
+    if ( message.length() > MAX_SHORT_MESSAGE_LENGTH )
+    {
+      shortMessage = message.substring( 0, MAX_SHORT_MESSAGE_LENGTH - 1 );
+    }
+    else
+    {
+      shortMessage = message;
+    }
+
+    if ( extractStacktrace )
+    {
+      final Throwable thrown = record.getThrown();
+      if ( null != thrown )
+      {
+        final StringWriter sw = new StringWriter();
+        thrown.printStackTrace( new PrintWriter( sw ) );
+        message += "\n\r" + sw.toString();
+      }
+    }
+
+    final GelfMessage gelfMessage =
+      new GelfMessage( shortMessage,
+                       message,
+                       record.getMillis(),
+                       String.valueOf( levelToSyslogLevel( record.getLevel() ) ),
+                       null,
+                       null );
+    if ( addLocation )
+    {
+      // both getters infer the caller from a stack trace, when the logger did not supply it;
+      // records published directly to the handler have no logger frame to infer from
+      final String sourceClassName = record.getSourceClassName();
+      if ( null != sourceClassName )
+      {
+        gelfMessage.addField( "SourceClassName", sourceClassName );
+        gelfMessage.addField( "SourceMethodName", record.getSourceMethodName() );
+      }
+    }
+
+    if ( addExtendedInformation )
+    {
+      gelfMessage.addField( "thread", record.getThreadID() );
+      gelfMessage.addRepeatedField( "logger", record.getLoggerName() );
+    }
+
+    if ( null != getOriginHost() )
+    {
+      gelfMessage.setHost( getOriginHost() );
+    }
+
+    if ( null != facility )
+    {
+      gelfMessage.setFacility( facility );
+    }
+
+    if ( null != gelfVersion )
+    {
+      gelfMessage.setVersion( gelfVersion.trim() );
+    }
+
+    if ( null != fields )
+    {
+      for ( final Map.Entry<String, String> entry : fields.entrySet() )
+      {
+        gelfMessage.addRepeatedField( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    return gelfMessage;
+  }
+
+  /**
+   * Localizes and formats record message the same way {@link java.util.logging.Formatter#formatMessage} does,
+   * but without synchronizing on a shared formatter.
+   */
+  static String formatMessage( final LogRecord record )
+  {
+    String format = record.getMessage();
+    if ( null == format )
+    {
+      return "";
+    }
+
+    final ResourceBundle catalog = record.getResourceBundle();
+    if ( null != catalog )
+    {
+      try
+      {
+        format = catalog.getString( format );
+      }
+      catch ( final MissingResourceException e )
+      {
+        // use message as is
+      }
+    }
+
+    final Object[] parameters = record.getParameters();
+    if ( null == parameters || 0 == parameters.length )
+    {
+      return format;
+    }
+
+    // like JUL, do not treat messages without placeholders as MessageFormat patterns
+    if ( format.indexOf( "{0" ) < 0 && format.indexOf( "{1" ) < 0 &&
+         format.indexOf( "{2" ) < 0 && format.indexOf( "{3" ) < 0 )
+    {
+      return format;
+    }
+
+    try
+    {
+      return MessageFormat.format( format, parameters );
+    }
+    catch ( final IllegalArgumentException e )
+    {
+      return format;
+    }
+  }
+
+  private int levelToSyslogLevel( final Level level )
+  {
+    final int syslogLevel;
+    if ( level == Level.SEVERE )
+    {
+      syslogLevel = 3;
+    }
+    else if ( level == Level.WARNING )
+    {
+      syslogLevel = 4;
+    }
+    else if ( level == Level.INFO )
+    {
+      syslogLevel = 6;
+    }
+    else
+    {
+      syslogLevel = 7;
+    }
+    return syslogLevel;
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.graylog2.metrics;
+
+import javax.management.ObjectName;
+
+/**
+ * Event and drop counters of one appender or handler.
+ */
+public class AppenderMetrics implements AppenderMetricsMBean {
+
+    private final StripedCounter events = new StripedCounter();
+    private final StripedCounter droppedByRateLimit = new StripedCounter();
+    private final StripedCounter droppedNoSender = new StripedCounter();
+    private final StripedCounter droppedSendFailure = new StripedCounter();
+    private final StripedCounter droppedQueueFull = new StripedCounter();
+    private final StripedCounter droppedCircuitOpen = new StripedCounter();
+    private volatile Gauge queueDepth;
+
+    private ObjectName objectName;
+
+    public void event() {
+        events.increment();
+    }
+
+    public void droppedByRateLimit() {
+        droppedByRateLimit.increment();
+    }
+
+    public void droppedNoSender() {
+        droppedNoSender.increment();
+    }
+
+    public void droppedSendFailure() {
+        droppedSendFailure.increment();
+    }
+
+    public void droppedQueueFull() {
+        droppedQueueFull.increment();
+    }
+
+    public void droppedCircuitOpen() {
+        droppedCircuitOpen.increment();
+    }
+
+    public void setQueueDepth(Gauge queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public long getEvents() {
+        return events.sum();
+    }
+
+    public long getDroppedByRateLimit() {
+        return droppedByRateLimit.sum();
+    }
+
+    public long getDroppedNoSender() {
+        return droppedNoSender.sum();
+    }
+
+    public long getDroppedSendFailure() {
+        return droppedSendFailure.sum();
+    }
+
+    /**
+     * @return messages dropped because their queue was full, including older messages pushed out by newer ones
+     */
+    public long getDroppedQueueFull() {
+        return droppedQueueFull.sum();
+    }
+
+    /**
+     * @return events skipped without being converted, because the sender's circuit breaker was open
+     */
+    public long getDroppedCircuitOpen() {
+        return droppedCircuitOpen.sum();
+    }
+
+    /**
+     * @return messages waiting to be sent; always 0 for appenders sending from the logging thread
+     */
+    public long getQueueDepth() {
+        Gauge gauge = queueDepth;
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    public synchronized void register(String type, String name) {
+        unregister();
+        objectName = MetricsRegistry.register(this, type, name);
+    }
+
+    public synchronized void unregister() {
+        MetricsRegistry.unregister(objectName);
+        objectName = null;
+    }
+}
@@ -0,0 +1,21 @@
+package org.graylog2.metrics;
+
+/**
+ * JMX view of a GELF appender or handler.
+ */
+public interface AppenderMetricsMBean {
+
+    long getEvents();
+
+    long getDroppedByRateLimit();
+
+    long getDroppedNoSender();
+
+    long getDroppedSendFailure();
+
+    long getDroppedQueueFull();
+
+    long getDroppedCircuitOpen();
+
+    long getQueueDepth();
+}
@@ -0,0 +1,51 @@
+package org.graylog2.metrics;
+
+import javax.management.ObjectName;
+
+/**
+ * Usage and refusals of a memory budget.
+ */
+public class BudgetMetrics implements BudgetMetricsMBean {
+
+    private final StripedCounter rejected = new StripedCounter();
+    private volatile Gauge limitBytes;
+    private volatile Gauge reservedBytes;
+
+    private ObjectName objectName;
+
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public void setLimitBytes(Gauge limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    public void setReservedBytes(Gauge reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
+    public long getLimitBytes() {
+        Gauge gauge = limitBytes;
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    public long getReservedBytes() {
+        Gauge gauge = reservedBytes;
+        return gauge == null ? 0 : gauge.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public synchronized void register(String type, String name) {
+        unregister();
+        objectName = MetricsRegistry.register(this, type, name);
+    }
+
+    public synchronized void unregister() {
+        MetricsRegistry.unregister(objectName);
+        objectName = null;
+    }
+}
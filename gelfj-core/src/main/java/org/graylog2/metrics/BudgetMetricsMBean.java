@@ -0,0 +1,16 @@
+package org.graylog2.metrics;
+
+/**
+ * JMX view of a memory budget.
+ */
+public interface BudgetMetricsMBean {
+
+    long getLimitBytes();
+
+    long getReservedBytes();
+
+    /**
+     * @return reservations refused because they would have gone over the limit
+     */
+    long getRejected();
+}
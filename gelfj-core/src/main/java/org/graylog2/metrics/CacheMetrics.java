@@ -0,0 +1,55 @@
+package org.graylog2.metrics;
+
+import javax.management.ObjectName;
+
+/**
+ * Lookup counters of a cache.
+ */
+public class CacheMetrics implements CacheMetricsMBean {
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    private ObjectName objectName;
+
+    public void hit() {
+        hits.increment();
+    }
+
+    public void miss() {
+        misses.increment();
+    }
+
+    public void eviction() {
+        evictions.increment();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+    public synchronized void register(String type, String name) {
+        unregister();
+        objectName = MetricsRegistry.register(this, type, name);
+    }
+
+    public synchronized void unregister() {
+        MetricsRegistry.unregister(objectName);
+        objectName = null;
+    }
+}
@@ -0,0 +1,18 @@
+package org.graylog2.metrics;
+
+/**
+ * JMX view of a cache.
+ */
+public interface CacheMetricsMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    /**
+     * @return hits per lookup since start, 0 before the first lookup
+     */
+    double getHitRate();
+}
@@ -0,0 +1,17 @@
+package org.graylog2.metrics;
+
+/**
+ * Emits sampled stage durations as JDK Flight Recorder events named {@code org.graylog2.Stage}.
+ * <p>
+ * JFR events need JDK 11; on older runtimes {@link #isSupported()} is false and this listener does nothing.
+ * Enable with system property {@code gelfj.trace.jfr=true} together with a sample rate.
+ */
+public class FlightRecorderListener implements StageListener {
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public void stage(StageTracer.Stage stage, long nanos) {
+    }
+}
@@ -0,0 +1,8 @@
+package org.graylog2.metrics;
+
+/**
+ * Value read on demand, when JMX asks for it.
+ */
+public interface Gauge {
+    long get();
+}
@@ -0,0 +1,60 @@
+package org.graylog2.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers metrics MBeans under {@code org.graylog2:type=<type>,name=<name>} in the platform MBean server.
+ * <p>
+ * Logging must work where JMX does not, so registration failures are swallowed. Set system property
+ * {@code gelfj.jmx} to false to skip registration altogether.
+ */
+public final class MetricsRegistry {
+
+    private static final String DOMAIN = "org.graylog2";
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("gelfj.jmx"));
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * @return name the mbean was registered under, null if it was not
+     */
+    public static ObjectName register(Object mbean, String type, String name) {
+        if (!ENABLED) {
+            return null;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(String.valueOf(name)));
+            if (server.isRegistered(objectName)) {
+                // several appenders of the same name in different repositories, or several senders to one destination
+                objectName = new ObjectName(objectName + ",id=" + sequence.incrementAndGet());
+            }
+            server.registerMBean(mbean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName objectName) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already gone
+        } catch (SecurityException e) {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.graylog2.metrics;
+
+import javax.management.ObjectName;
+
+/**
+ * Traffic counters and send latency of one sender.
+ */
+public class SenderMetrics implements SenderMetricsMBean {
+
+    private final StripedCounter messagesSent = new StripedCounter();
+    private final StripedCounter sendFailures = new StripedCounter();
+    private final StripedCounter bytesUncompressed = new StripedCounter();
+    private final StripedCounter bytesSent = new StripedCounter();
+    private final StripedCounter datagrams = new StripedCounter();
+    private final StripedCounter chunks = new StripedCounter();
+    private final StripedCounter circuitOpened = new StripedCounter();
+    private final StripedCounter circuitRejected = new StripedCounter();
+    private final StripedCounter arenaExhausted = new StripedCounter();
+    private final StripedCounter chunkSizeReductions = new StripedCounter();
+    private volatile int maxChunkSize;
+    private volatile String circuitState = "CLOSED";
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    private ObjectName objectName;
+
+    /**
+     * @param uncompressedBytes JSON size of the message, or 0 if unknown
+     * @param nanos time spent serializing and sending the message
+     */
+    public void messageSent(long uncompressedBytes, long nanos) {
+        messagesSent.increment();
+        if (uncompressedBytes > 0) {
+            bytesUncompressed.add(uncompressedBytes);
+        }
+        sendLatency.record(nanos);
+    }
+
+    public void sendFailure() {
+        sendFailures.increment();
+    }
+
+    /**
+     * @param bytes datagram size, including chunk header, or TCP frame size, including delimiter
+     * @param chunked true if datagram is one of several chunks of a message
+     */
+    public void datagramSent(int bytes, boolean chunked) {
+        datagrams.increment();
+        bytesSent.add(bytes);
+        if (chunked) {
+            chunks.increment();
+        }
+    }
+
+    public void circuitOpened() {
+        circuitOpened.increment();
+        circuitState = "OPEN";
+    }
+
+    public void circuitStateChanged(String state) {
+        circuitState = state;
+    }
+
+    public void circuitRejected() {
+        circuitRejected.increment();
+    }
+
+    public void arenaExhausted() {
+        arenaExhausted.increment();
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    public void chunkSizeReduced(int maxChunkSize) {
+        chunkSizeReductions.increment();
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    public long getSendFailures() {
+        return sendFailures.sum();
+    }
+
+    public long getBytesUncompressed() {
+        return bytesUncompressed.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getDatagrams() {
+        return datagrams.sum();
+    }
+
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    public String getCircuitState() {
+        return circuitState;
+    }
+
+    public long getCircuitOpened() {
+        return circuitOpened.sum();
+    }
+
+    /**
+     * @return sends refused while the circuit was open
+     */
+    public long getCircuitRejected() {
+        return circuitRejected.sum();
+    }
+
+    /**
+     * @return messages sent from heap buffers because all off-heap buffers were in use
+     */
+    public long getArenaExhausted() {
+        return arenaExhausted.sum();
+    }
+
+    /**
+     * @return largest chunk payload sent now, 0 for senders not chunking messages
+     */
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /**
+     * @return times a datagram was too large for the network and the chunk size was lowered
+     */
+    public long getChunkSizeReductions() {
+        return chunkSizeReductions.sum();
+    }
+
+    public long getSendLatencyP50Micros() {
+        return sendLatency.getPercentile(0.5) / 1000;
+    }
+
+    public long getSendLatencyP99Micros() {
+        return sendLatency.getPercentile(0.99) / 1000;
+    }
+
+    public long getSendLatencyP999Micros() {
+        return sendLatency.getPercentile(0.999) / 1000;
+    }
+
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    public synchronized void register(String type, String name) {
+        unregister();
+        objectName = MetricsRegistry.register(this, type, name);
+    }
+
+    public synchronized void unregister() {
+        MetricsRegistry.unregister(objectName);
+        objectName = null;
+    }
+}
@@ -0,0 +1,37 @@
+package org.graylog2.metrics;
+
+/**
+ * JMX view of a GELF sender.
+ */
+public interface SenderMetricsMBean {
+
+    long getMessagesSent();
+
+    long getSendFailures();
+
+    long getBytesUncompressed();
+
+    long getBytesSent();
+
+    long getDatagrams();
+
+    long getChunks();
+
+    String getCircuitState();
+
+    long getCircuitOpened();
+
+    long getCircuitRejected();
+
+    long getArenaExhausted();
+
+    int getMaxChunkSize();
+
+    long getChunkSizeReductions();
+
+    long getSendLatencyP50Micros();
+
+    long getSendLatencyP99Micros();
+
+    long getSendLatencyP999Micros();
+}
@@ -0,0 +1,9 @@
+package org.graylog2.metrics;
+
+/**
+ * Receives every sampled stage duration, e.g. to emit it as a profiler event.
+ * Called on the logging thread, so it must be quick.
+ */
+public interface StageListener {
+    void stage(StageTracer.Stage stage, long nanos);
+}
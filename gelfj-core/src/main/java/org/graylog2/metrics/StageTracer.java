@@ -0,0 +1,182 @@
+package org.graylog2.metrics;
+
+/**
+ * Process wide sampled timing of the send pipeline stages.
+ * <p>
+ * Every Nth message per thread, as set by {@link #setSampleRate(double)} or system property
+ * {@code gelfj.trace.sampleRate}, gets its stages timed into per stage histograms and passed
+ * to the {@link StageListener}, if any. Switched off, a pipeline entry costs one volatile read; at
+ * 1% sampling other messages also pay a thread local lookup and a decrement.
+ * <p>
+ * Pipeline entry points call {@link #begin()} and {@link #end(Sample)}; code deeper in the
+ * pipeline picks the sample up from {@link #current()}. Senders are entry points when called directly, but
+ * inside an appender's entry, so they only begin a sample when {@link #inPipeline()} is false; otherwise each
+ * event would count down twice and have its stages split across two samples:
+ *
+ * <pre>
+ * Sample sample = StageTracer.current();
+ * long start = sample == null ? 0 : System.nanoTime();
+ * ...
+ * if (sample != null) sample.record(Stage.GZIP, System.nanoTime() - start);
+ * </pre>
+ */
+public final class StageTracer implements StageTracerMBean {
+
+    public enum Stage {
+        MAKE_MESSAGE, STACKTRACE, JSON, GZIP, CHUNK, SEND
+    }
+
+    private static final StageTracer INSTANCE = new StageTracer();
+
+    static {
+        String rate = System.getProperty("gelfj.trace.sampleRate");
+        if (rate != null) {
+            INSTANCE.setSampleRate(Double.parseDouble(rate.trim()));
+        }
+        if ("true".equalsIgnoreCase(System.getProperty("gelfj.trace.jfr")) && FlightRecorderListener.isSupported()) {
+            INSTANCE.setListener(new FlightRecorderListener());
+        }
+        MetricsRegistry.register(INSTANCE, "GelfStages", "tracer");
+    }
+
+    // 0 switches tracing off
+    private volatile int sampleEvery;
+    private volatile StageListener listener;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    private final ThreadLocal<Sample> samples = new ThreadLocal<Sample>() {
+        @Override
+        protected Sample initialValue() {
+            return new Sample();
+        }
+    };
+
+    private StageTracer() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static StageTracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enters the pipeline and starts a sample, if this message is to be sampled and no sample runs on this
+     * thread already. Must be followed by {@link #end(Sample)}, whether or not it returned a sample.
+     *
+     * @return sample to pass to {@link #end(Sample)}, or null
+     */
+    public static Sample begin() {
+        StageTracer tracer = INSTANCE;
+        int every = tracer.sampleEvery;
+        if (every == 0) {
+            return null;
+        }
+        Sample sample = tracer.samples.get();
+        sample.entered = true;
+        if (sample.active || --sample.countdown > 0) {
+            return null;
+        }
+        sample.countdown = every;
+        sample.active = true;
+        return sample;
+    }
+
+    /**
+     * Leaves the pipeline entered by {@link #begin()}, finishing the sample if it returned one.
+     */
+    public static void end(Sample sample) {
+        if (sample != null) {
+            sample.finish();
+            return;
+        }
+        StageTracer tracer = INSTANCE;
+        // a message entering while tracing was off left nothing to clear; one leaving after it was switched off
+        // leaves the flag set until the thread's next entry
+        if (tracer.sampleEvery != 0) {
+            tracer.samples.get().entered = false;
+        }
+    }
+
+    /**
+     * @return true between {@link #begin()} and {@link #end(Sample)} on this thread, sampled or not
+     */
+    public static boolean inPipeline() {
+        StageTracer tracer = INSTANCE;
+        return tracer.sampleEvery != 0 && tracer.samples.get().entered;
+    }
+
+    /**
+     * @return sample running on this thread, or null
+     */
+    public static Sample current() {
+        StageTracer tracer = INSTANCE;
+        if (tracer.sampleEvery == 0) {
+            return null;
+        }
+        Sample sample = tracer.samples.get();
+        return sample.active ? sample : null;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void setListener(StageListener listener) {
+        this.listener = listener;
+    }
+
+    public double getSampleRate() {
+        int every = sampleEvery;
+        return every == 0 ? 0 : 1.0 / every;
+    }
+
+    /**
+     * @param sampleRate fraction of messages to time, like 0.01; 0 switches tracing off
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate <= 0) {
+            sampleEvery = 0;
+        } else {
+            sampleEvery = (int) Math.max(1, Math.round(1.0 / Math.min(1.0, sampleRate)));
+        }
+    }
+
+    public String[] getSummary() {
+        Stage[] stages = Stage.values();
+        String[] summary = new String[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            summary[i] = stages[i] + " count=" + histogram.getCount()
+                         + " p50=" + histogram.getPercentile(0.5) / 1000 + "us"
+                         + " p99=" + histogram.getPercentile(0.99) / 1000 + "us"
+                         + " p999=" + histogram.getPercentile(0.999) / 1000 + "us";
+        }
+        return summary;
+    }
+
+    public long percentileMicros(String stage, double fraction) {
+        return getHistogram(Stage.valueOf(stage)).getPercentile(fraction) / 1000;
+    }
+
+    public static final class Sample {
+        private boolean active;
+        private boolean entered;
+        private int countdown;
+
+        public void record(Stage stage, long nanos) {
+            INSTANCE.histograms[stage.ordinal()].record(nanos);
+            StageListener stageListener = INSTANCE.listener;
+            if (stageListener != null) {
+                stageListener.stage(stage, nanos);
+            }
+        }
+
+        public void finish() {
+            active = false;
+            entered = false;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.graylog2.metrics;
+
+/**
+ * JMX view of the sampled send pipeline timings.
+ */
+public interface StageTracerMBean {
+
+    double getSampleRate();
+
+    void setSampleRate(double sampleRate);
+
+    /**
+     * @return one line per stage with sample count and p50/p99/p999 in microseconds
+     */
+    String[] getSummary();
+
+    long percentileMicros(String stage, double fraction);
+}
@@ -0,0 +1,47 @@
+package org.graylog2.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spreading concurrent updates over several cache line padded cells, picked by thread id,
+ * so logging threads rarely contend on the same cell. Reading sums all cells.
+ */
+public final class StripedCounter {
+
+    // longs per cell, so that cells land on separate 64 byte cache lines
+    private static final int PAD = 8;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) * PAD;
+    }
+
+    private static int stripes() {
+        int target = Runtime.getRuntime().availableProcessors() * 2;
+        int stripes = 1;
+        while (stripes < target && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
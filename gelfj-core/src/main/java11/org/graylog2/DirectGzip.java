@@ -0,0 +1,76 @@
+package org.graylog2;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * GZIPs a message into direct buffers, filling one after another, so it can go to a channel chunk by chunk.
+ * <p>
+ * Deflates straight into the buffers with {@link Deflater#deflate(ByteBuffer)}, so compressed bytes never pass
+ * through a heap array. The GZIP header and trailer are written around them and may straddle two buffers.
+ * <p>
+ * Not thread safe; keep one per thread.
+ */
+final class DirectGzip {
+
+    private static final byte[] GZIP_HEADER = new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] trailer = new byte[8];
+    private int headerWritten;
+    private int trailerWritten;
+
+    /**
+     * Starts compressing a message; its bytes must not change until {@link #fill} returned true.
+     */
+    void start(byte[] bytes, int length) {
+        crc.reset();
+        crc.update(bytes, 0, length);
+        deflater.reset();
+        deflater.setInput(bytes, 0, length);
+        deflater.finish();
+
+        writeIntLE(trailer, 0, (int) crc.getValue());
+        writeIntLE(trailer, 4, length);
+        headerWritten = 0;
+        trailerWritten = 0;
+    }
+
+    /**
+     * Writes the next compressed bytes of the message into target, up to its limit.
+     *
+     * @return true once the whole message is written
+     */
+    boolean fill(ByteBuffer target) {
+        headerWritten += put(GZIP_HEADER, headerWritten, target);
+        while (!deflater.finished() && target.hasRemaining()) {
+            deflater.deflate(target);
+        }
+        if (deflater.finished()) {
+            trailerWritten += put(trailer, trailerWritten, target);
+        }
+        return trailerWritten == trailer.length;
+    }
+
+    /**
+     * @return true if compressed bytes go to the buffers without passing through a heap array
+     */
+    static boolean isDirect() {
+        return true;
+    }
+
+    private static int put(byte[] bytes, int from, ByteBuffer target) {
+        int count = Math.min(bytes.length - from, target.remaining());
+        target.put(bytes, from, count);
+        return count;
+    }
+
+    private static void writeIntLE(byte[] buf, int position, int value) {
+        buf[position] = (byte) value;
+        buf[position + 1] = (byte) (value >> 8);
+        buf[position + 2] = (byte) (value >> 16);
+        buf[position + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,28 @@
+package org.graylog2;
+
+import java.util.Optional;
+
+/**
+ * Finds the code which called a logging API, for file and line of a message.
+ * <p>
+ * Walks the stack lazily and stops at the caller, instead of filling in a full stack trace.
+ */
+public final class StackLocator {
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private StackLocator() {
+    }
+
+    /**
+     * @param fqcn class of the logging API, e.g. {@code org.apache.log4j.Category}
+     * @return frame right below the last frame of fqcn, null if fqcn is not on the stack
+     */
+    public static StackTraceElement callerOf(final String fqcn) {
+        Optional<StackWalker.StackFrame> caller = WALKER.walk(
+            frames -> frames.dropWhile(frame -> !fqcn.equals(frame.getClassName()))
+                            .dropWhile(frame -> fqcn.equals(frame.getClassName()))
+                            .findFirst());
+        return caller.map(StackWalker.StackFrame::toStackTraceElement).orElse(null);
+    }
+}
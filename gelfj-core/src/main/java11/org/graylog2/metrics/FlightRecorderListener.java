@@ -0,0 +1,45 @@
+package org.graylog2.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Emits sampled stage durations as JDK Flight Recorder events named {@code org.graylog2.Stage}.
+ * <p>
+ * Events are only built while a recording has them enabled. Enable with system property
+ * {@code gelfj.trace.jfr=true} together with a sample rate.
+ */
+public class FlightRecorderListener implements StageListener {
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    public void stage(StageTracer.Stage stage, long nanos) {
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.name();
+            event.stageDuration = nanos;
+            event.commit();
+        }
+    }
+
+    @Name("org.graylog2.Stage")
+    @Label("GELF Stage")
+    @Category({"gelfj"})
+    @Description("Time spent in one stage of sending a sampled GELF message")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Stage Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long stageDuration;
+    }
+}
@@ -0,0 +1,24 @@
+package org.graylog2.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter spreading concurrent updates over several cells so logging threads rarely contend.
+ * On JDK 11 and later this is {@link LongAdder}, which only grows cells under actual contention.
+ */
+public final class StripedCounter {
+
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long x) {
+        adder.add(x);
+    }
+
+    public long sum() {
+        return adder.sum();
+    }
+}
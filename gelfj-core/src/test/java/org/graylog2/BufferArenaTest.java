@@ -0,0 +1,81 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferArenaTest {
+
+    @Test
+    public void reuseReleasedSlabs() {
+        BufferArena arena = new BufferArena(64, 2, true);
+        BufferArena.Slab first = arena.acquire();
+        assertTrue(first.buffer().isDirect());
+        assertEquals(64, first.buffer().capacity());
+        first.buffer().put((byte) 1);
+        arena.release(first);
+
+        BufferArena.Slab again = arena.acquire();
+        assertSame(first, again);
+        assertEquals(0, again.buffer().position());
+        arena.release(again);
+
+        assertEquals(1, arena.getAllocated());
+        arena.checkLeaks();
+    }
+
+    @Test
+    public void neverAllocateMoreThanMaxSlabs() {
+        BufferArena arena = new BufferArena(64, 2, false);
+        BufferArena.Slab first = arena.acquire();
+        BufferArena.Slab second = arena.acquire();
+        assertNotNull(second);
+        assertNull(arena.acquire());
+        assertEquals(2, arena.getAllocated());
+
+        arena.release(first);
+        assertSame(first, arena.acquire());
+    }
+
+    @Test
+    public void reportWhereLeakedSlabWasAcquired() {
+        BufferArena arena = new BufferArena(64, 2, true);
+        arena.release(arena.acquire());
+        arena.acquire();
+        try {
+            arena.checkLeaks();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("1 slab(s) not released", e.getMessage());
+            assertNotNull(e.getCause());
+            assertEquals("reportWhereLeakedSlabWasAcquired", e.getCause().getStackTrace()[1].getMethodName());
+        }
+    }
+
+    @Test
+    public void reserveSlabsFromBudgetUntilClosed() {
+        MemoryBudget budget = new MemoryBudget(128);
+        BufferArena arena = new BufferArena(64, 4, false, budget);
+        BufferArena.Slab first = arena.acquire();
+        BufferArena.Slab second = arena.acquire();
+        assertNotNull(second);
+        assertNull(arena.acquire());
+        assertEquals(128, budget.getReservedBytes());
+
+        arena.release(first);
+        arena.close();
+        assertEquals(64, budget.getReservedBytes());
+        assertNull(arena.acquire());
+        arena.release(second);
+        assertEquals(0, budget.getReservedBytes());
+        assertEquals(0, arena.getAllocated());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refuseDoubleRelease() {
+        BufferArena arena = new BufferArena(64, 1, false);
+        BufferArena.Slab slab = arena.acquire();
+        arena.release(slab);
+        arena.release(slab);
+    }
+}
@@ -0,0 +1,56 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChunkingOutputStreamTest {
+
+    @Test
+    public void sendPayloadOfChunkSizeUnchunked() {
+        ChunkingOutputStream out = new ChunkingOutputStream(8);
+        byte[] payload = bytes(8);
+        out.write(payload, 0, 5);
+        out.write(payload, 5, 3);
+
+        List<byte[]> datagrams = out.toDatagrams();
+        assertEquals(1, datagrams.size());
+        assertTrue(Arrays.equals(payload, datagrams.get(0)));
+    }
+
+    @Test
+    public void fillChunksAndPatchCountWhenDone() {
+        ChunkingOutputStream out = new ChunkingOutputStream(8);
+        byte[] payload = bytes(19);
+        out.write(payload, 0, 3);
+        out.write(payload[3]);
+        out.write(payload, 4, 15);
+
+        List<byte[]> datagrams = out.toDatagrams();
+        assertEquals(3, datagrams.size());
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        for (int idx = 0; idx < 3; idx++) {
+            byte[] chunk = datagrams.get(idx);
+            assertEquals(0x1e, chunk[0]);
+            assertEquals(0x0f, chunk[1]);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(datagrams.get(0), 2, 10), Arrays.copyOfRange(chunk, 2, 10)));
+            assertEquals(idx, chunk[10]);
+            assertEquals(3, chunk[11]);
+            reassembled.write(chunk, 12, chunk.length - 12);
+        }
+        assertEquals(12 + 3, datagrams.get(2).length);
+        assertTrue(Arrays.equals(payload, reassembled.toByteArray()));
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (i + 1);
+        }
+        return bytes;
+    }
+}
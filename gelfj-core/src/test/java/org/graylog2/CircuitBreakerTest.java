@@ -0,0 +1,97 @@
+package org.graylog2;
+
+import org.graylog2.CircuitBreaker.State;
+import org.graylog2.metrics.SenderMetrics;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private SenderMetrics metrics;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        metrics = new SenderMetrics();
+        breaker = new CircuitBreaker(metrics);
+        breaker.setFailureThreshold(3);
+        breaker.setRetryMillis(50);
+    }
+
+    @Test
+    public void openAfterRepeatedFailures() throws Exception {
+        breaker.failure();
+        breaker.failure();
+        Thread.sleep(60);
+        // too late to count with the earlier ones
+        breaker.failure();
+        breaker.success();
+        breaker.failure();
+        assertEquals(State.CLOSED, breaker.getState());
+
+        breaker.failure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, metrics.getCircuitOpened());
+        assertEquals(1, metrics.getCircuitRejected());
+        assertEquals("OPEN", metrics.getCircuitState());
+    }
+
+    @Test
+    public void closeAfterSuccessfulProbe() throws Exception {
+        open();
+        Thread.sleep(60);
+
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertFalse(breaker.tryAcquire());
+
+        breaker.success();
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals("CLOSED", metrics.getCircuitState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void reopenAfterFailedProbe() throws Exception {
+        open();
+        Thread.sleep(60);
+
+        assertTrue(breaker.tryAcquire());
+        breaker.failure();
+        assertEquals(State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(2, metrics.getCircuitOpened());
+    }
+
+    @Test
+    public void replaceLostProbe() throws Exception {
+        open();
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void neverOpenWithoutThreshold() {
+        breaker.setFailureThreshold(0);
+        for (int i = 0; i < 10; i++) {
+            breaker.failure();
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.failure();
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,60 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncodedStringCacheTest {
+
+    @Test
+    public void encodeEscapedUtf8WithPrefixAndSuffix() throws Exception {
+        EncodedStringCache cache = new EncodedStringCache(16, 64, "\"", "\",");
+        assertEquals("\"a\\\"ü\\u20AC😀\",", new String(cache.get("a\"ü€😀"), "UTF-8"));
+    }
+
+    @Test
+    public void hitByIdentityAndByEquality() {
+        EncodedStringCache cache = new EncodedStringCache(16, 64, "\"", "\",");
+        String name = "main-thread";
+        byte[] encoded = cache.get(name);
+        assertSame(encoded, cache.get(name));
+        assertSame(encoded, cache.get(new String(name)));
+
+        assertEquals(1, cache.getMetrics().getMisses());
+        assertEquals(2, cache.getMetrics().getHits());
+        assertEquals(2.0 / 3, cache.getMetrics().getHitRate(), 0.001);
+    }
+
+    @Test
+    public void evictUnusedEntriesBeyondCapacity() {
+        EncodedStringCache cache = new EncodedStringCache(4, 64, "", "");
+        for (int i = 0; i < 100; i++) {
+            cache.get("logger" + i);
+        }
+        assertEquals(100, cache.getMetrics().getMisses());
+        assertEquals(96, cache.getMetrics().getEvictions());
+    }
+
+    @Test
+    public void keepRecentlyUsedEntry() {
+        EncodedStringCache cache = new EncodedStringCache(4, 64, "", "");
+        String hot = "hot";
+        byte[] encoded = cache.get(hot);
+        for (int i = 0; i < 3; i++) {
+            cache.get("cold" + i);
+        }
+        // touching hot between each miss keeps giving it a second chance
+        for (int i = 3; i < 50; i++) {
+            assertSame(encoded, cache.get(hot));
+            cache.get("cold" + i);
+        }
+        assertSame(encoded, cache.get(hot));
+    }
+
+    @Test
+    public void skipLongStrings() {
+        EncodedStringCache cache = new EncodedStringCache(4, 8, "", "");
+        assertNull(cache.get("longer than eight"));
+        assertEquals(0, cache.getMetrics().getMisses());
+    }
+}
@@ -0,0 +1,128 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class GelfChunkAssemblerTest {
+
+    @Test
+    public void reassembleChunksInAnyOrder() throws Exception {
+        byte[] payload = payload(5000);
+        List<byte[]> chunks = chunk(payload, 1000);
+        assertEquals(5, chunks.size());
+
+        GelfChunkAssembler assembler = new GelfChunkAssembler(10, 1024 * 1024, 5000);
+        assertNull(add(assembler, chunks.get(4)));
+        assertNull(add(assembler, chunks.get(0)));
+        assertNull(add(assembler, chunks.get(0)));
+        assertNull(add(assembler, chunks.get(2)));
+        assertNull(add(assembler, chunks.get(1)));
+        assertEquals(1, assembler.getPendingMessages());
+
+        assertTrue(Arrays.equals(payload, add(assembler, chunks.get(3))));
+        assertEquals(0, assembler.getPendingMessages());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void passUnchunkedDatagramsThrough() {
+        byte[] datagram = new byte[]{0x1f, (byte) 0x8b, 1, 2, 3};
+        GelfChunkAssembler assembler = new GelfChunkAssembler(10, 1024, 5000);
+        assertTrue(Arrays.equals(datagram, add(assembler, datagram)));
+    }
+
+    @Test
+    public void giveUpOldestMessageOverLimits() {
+        GelfChunkAssembler assembler = new GelfChunkAssembler(2, 1024 * 1024, 5000);
+        for (int i = 0; i < 3; i++) {
+            assertNull(add(assembler, chunk(payload(2000), 1000).get(0)));
+        }
+        assertEquals(2, assembler.getPendingMessages());
+        assertEquals(1, assembler.getIncomplete());
+
+        // each message has 1000 bytes pending after its first chunk, so the third one pushes out the first
+        assembler = new GelfChunkAssembler(10, 2500, 5000);
+        for (int i = 0; i < 3; i++) {
+            assertNull(add(assembler, chunk(payload(2000), 1000).get(0)));
+        }
+        assertEquals(2000, assembler.getPendingBytes());
+        assertEquals(1, assembler.getIncomplete());
+    }
+
+    @Test
+    public void expireStaleMessages() {
+        GelfChunkAssembler assembler = new GelfChunkAssembler(10, 1024 * 1024, 5000);
+        List<byte[]> chunks = chunk(payload(2000), 1000);
+        add(assembler, chunks.get(0));
+
+        assertEquals(0, assembler.expire(System.currentTimeMillis()));
+        assertEquals(1, assembler.expire(System.currentTimeMillis() + 5001));
+        assertEquals(1, assembler.getIncomplete());
+        assertEquals(0, assembler.getPendingBytes());
+        assertNull(add(assembler, chunks.get(1)));
+    }
+
+    @Test
+    public void rejectBrokenHeaders() {
+        byte[] chunk = chunk(payload(2000), 1000).get(0);
+        chunk[10] = 5;
+        GelfChunkAssembler assembler = new GelfChunkAssembler(10, 1024 * 1024, 5000);
+        assertNull(add(assembler, chunk));
+        assertEquals(1, assembler.getInvalid());
+        assertEquals(0, assembler.getPendingMessages());
+    }
+
+    @Test
+    public void decompressWithinLimit() throws Exception {
+        byte[] json = "{\"short_message\":\"hello\"}".getBytes("UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(json);
+        gzip.close();
+
+        assertTrue(Arrays.equals(json, GelfDecoder.decompress(compressed.toByteArray(), 1024)));
+        assertTrue(Arrays.equals(json, GelfDecoder.decompress(json, 1024)));
+        try {
+            GelfDecoder.decompress(compressed.toByteArray(), 10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte[] add(GelfChunkAssembler assembler, byte[] datagram) {
+        return assembler.add(datagram, 0, datagram.length);
+    }
+
+    private static byte[] payload(int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        return payload;
+    }
+
+    private static List<byte[]> chunk(byte[] payload, int maxChunkSize) {
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        int id = GelfMessage.nextChunkedMessageId();
+        byte[] address = HostIdentity.getAddress4Bytes();
+        int num = GelfMessage.chunkCount(payload.length, maxChunkSize);
+        for (int idx = 0; idx < num; idx++) {
+            int from = idx * maxChunkSize;
+            int length = Math.min(maxChunkSize, payload.length - from);
+            byte[] chunk = new byte[GelfMessage.GELF_CHUNK_HEADER_LENGTH + length];
+            GelfMessage.writeChunkHeader(chunk, id, address, idx, num);
+            System.arraycopy(payload, from, chunk, GelfMessage.GELF_CHUNK_HEADER_LENGTH, length);
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+}
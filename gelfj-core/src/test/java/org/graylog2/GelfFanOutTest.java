@@ -0,0 +1,98 @@
+package org.graylog2;
+
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GelfFanOutTest {
+
+    @Test
+    public void serializeOnceForEveryDestination() throws Exception {
+        DatagramSocket udp = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        udp.setSoTimeout(5000);
+        ServerSocket tcp = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        GelfFanOut fanOut = new GelfFanOut("test", Arrays.asList(
+            GelfFanOut.openDestination("udp:127.0.0.1:" + udp.getLocalPort(), GelfSender.DEFAULT_CHUNK_SIZE),
+            GelfFanOut.openDestination("tcp:127.0.0.1:" + tcp.getLocalPort(), 0)), 10, budget);
+        fanOut.setSequenceNumbers(true);
+        fanOut.start();
+        try {
+            GelfMessage message = new GelfMessage("Short", "Long ü€", new Date(), "1");
+            message.setHost("example.com");
+            assertEquals(2, fanOut.send(message));
+
+            DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+            udp.receive(packet);
+            Map datagram = (Map) JSONValue.parse(new String(
+                GelfDecoder.decompress(Arrays.copyOf(packet.getData(), packet.getLength()), 65536), "UTF-8"));
+            Socket connection = tcp.accept();
+            connection.setSoTimeout(5000);
+            Map frame = (Map) JSONValue.parse(readFrame(connection.getInputStream()));
+            connection.close();
+
+            assertEquals("Long ü€", datagram.get("full_message"));
+            assertEquals(datagram, frame);
+            assertEquals(1L, frame.get("_seq"));
+        } finally {
+            fanOut.close(1000);
+            udp.close();
+            tcp.close();
+        }
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    public void keepSendingWhenOneDestinationFails() throws Exception {
+        DatagramSocket udp = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        udp.setSoTimeout(5000);
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        GelfSender down = GelfFanOut.openDestination("tcp:127.0.0.1:" + closedPort, 0);
+        GelfFanOut fanOut = new GelfFanOut("test", Arrays.asList(
+            down, GelfFanOut.openDestination("udp:127.0.0.1:" + udp.getLocalPort(), GelfSender.DEFAULT_CHUNK_SIZE)), 10);
+        fanOut.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                GelfMessage message = new GelfMessage("Message " + i, "Message " + i, new Date(), "1");
+                message.setHost("example.com");
+                assertTrue(fanOut.sendMessage(message));
+                DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+                udp.receive(packet);
+            }
+            GelfSender up = fanOut.getDestinations().get(1).getSender();
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((down.getMetrics().getSendFailures() == 0 || up.getMetrics().getMessagesSent() < 3)
+                   && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(down.getMetrics().getSendFailures() > 0);
+            assertEquals(3, up.getMetrics().getMessagesSent());
+        } finally {
+            fanOut.close(1000);
+            udp.close();
+        }
+    }
+
+    private static String readFrame(InputStream in) throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            frame.write(b);
+        }
+        return new String(frame.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,181 @@
+package org.graylog2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GelfHttpSenderTest {
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private final List<String> received = new CopyOnWriteArrayList<String>();
+    private final Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile int failureStatus = 503;
+    private GelfHttpSender sender;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 50);
+        server.createContext("/gelf", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readAll(exchange.getRequestBody());
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                if (failuresLeft.getAndDecrement() > 0) {
+                    if (failureStatus / 100 == 3) {
+                        exchange.getResponseHeaders().set("Location", exchange.getRequestURI().toString());
+                    }
+                    exchange.sendResponseHeaders(failureStatus, -1);
+                } else {
+                    assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                    received.add(new String(GelfDecoder.decompress(body, 65536), "UTF-8"));
+                    exchange.sendResponseHeaders(202, -1);
+                }
+                exchange.close();
+            }
+        });
+        handlers = Executors.newFixedThreadPool(4);
+        server.setExecutor(handlers);
+        server.start();
+        sender = new GelfHttpSender("http://127.0.0.1:" + server.getAddress().getPort() + "/gelf", 2, 100,
+                                    new MemoryBudget(1024 * 1024));
+        sender.setRetryBackoffMillis(10);
+    }
+
+    @After
+    public void tearDown() {
+        sender.close();
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    @Test
+    public void postOverKeptAliveConnections() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            assertTrue(sender.sendMessage(message("Message " + i)));
+        }
+        awaitReceived(20);
+
+        Map json = (Map) JSONValue.parse(received.get(0));
+        assertEquals("example.com", json.get("host"));
+        assertEquals(20, sender.getMetrics().getMessagesSent());
+        // two sending threads, each reusing its connection
+        assertTrue(clientPorts.toString(), clientPorts.size() <= 2);
+    }
+
+    @Test
+    public void retryServerErrors() throws Exception {
+        failuresLeft.set(2);
+        assertTrue(sender.sendMessage(message("Retried")));
+        awaitReceived(1);
+
+        assertEquals(1, sender.getMetrics().getMessagesSent());
+        assertEquals(0, sender.getMetrics().getSendFailures());
+    }
+
+    @Test
+    public void giveUpOnClientErrors() throws Exception {
+        failuresLeft.set(1);
+        failureStatus = 400;
+        assertTrue(sender.sendMessage(message("Rejected")));
+        assertTrue(sender.sendMessage(message("Accepted")));
+        awaitReceived(1);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.getMetrics().getSendFailures() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sender.getMetrics().getSendFailures());
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void openCircuitOnlyWhenEveryMessageWouldFail() throws Exception {
+        sender.getCircuitBreaker().setFailureThreshold(1);
+        int failures = 0;
+        for (int status : new int[] {400, 413, 422, 404}) {
+            assertTrue("circuit closed before " + status, sender.isAvailable());
+            failuresLeft.set(1);
+            failureStatus = status;
+            assertTrue(sender.sendMessage(message("Rejected " + status)));
+            failures++;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sender.getMetrics().getSendFailures() < failures && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(failures, sender.getMetrics().getSendFailures());
+        }
+        // a wrong URL fails every message alike
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.isAvailable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(sender.isAvailable());
+    }
+
+    @Test
+    public void giveUpOnRedirects() throws Exception {
+        failuresLeft.set(1);
+        failureStatus = 307;
+        assertTrue(sender.sendMessage(message("Redirected")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.getMetrics().getSendFailures() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sender.getMetrics().getSendFailures());
+
+        assertTrue(sender.sendMessage(message("Accepted")));
+        awaitReceived(1);
+        assertEquals("Accepted", ((Map) JSONValue.parse(received.get(0))).get("short_message"));
+    }
+
+    private void awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, received.size());
+        // metrics are updated after the response arrived
+        while (sender.getMetrics().getMessagesSent() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static GelfMessage message(String text) {
+        GelfMessage message = new GelfMessage(text, text, new Date(), "1");
+        message.setHost("example.com");
+        return message;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,182 @@
+package org.graylog2;
+
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static junit.framework.Assert.*;
+
+public class GelfMessageTest {
+
+    @Test
+    public void testAdditionalFieldsIds() throws Exception {
+        GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+        message.addField("id", "LOLCAT").addField("_id", "typos in my closet");
+
+        
+
+        String data = message.toJson();
+        Map resultingMap = (Map) JSONValue.parse(data);
+        assertNull(resultingMap.get("_id"));
+        assertNotNull(resultingMap.get("__id"));
+    }
+
+    @Test
+    public void testSendLongMessage() throws Exception {
+        String longString = "01234567890123456789 ";
+        for (int i = 0; i < 15; i++) {
+            longString += longString;
+        }
+        GelfMessage message = new GelfMessage("Long", longString, new Date(), "1");
+        List<byte[]> bytes2 = message.toDatagrams(GelfSender.DEFAULT_CHUNK_SIZE);
+        assertEquals(2, bytes2.size());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes2.get(0), 10, 11), new byte[] {0x00}));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes2.get(0), 11, 12), new byte[] {0x02}));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes2.get(1), 10, 11), new byte[] {0x01}));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes2.get(1), 11, 12), new byte[] {0x02}));
+    }
+
+    @Test
+    public void testSimpleMessage() throws Exception {
+        GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+        List<byte[]> bytes = message.toDatagrams(GelfSender.DEFAULT_CHUNK_SIZE);
+        assertEquals(1, bytes.size());
+    }
+
+    @Test
+    public void compressSameJsonWithCachedEncodings() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            GelfMessage message = new GelfMessage("Short", "Long ü€😀", new Date(), "1");
+            message.setHost("host \"ü\"");
+            message.addField("logger", "org.example.Läufer").addField("thread", 42L).addField("tab\t", "/");
+            String json = message.toJson();
+
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(message.toGzipMessage()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+            assertEquals(json, new String(out.toByteArray(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void cacheOnlyValuesWhichRepeat() throws Exception {
+        ObjectName values = new ObjectName("org.graylog2:type=EncodedStringCache,name=\"values\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Utf8Buffer json = new Utf8Buffer(1024);
+        for (int i = 0; i < 3; i++) {
+            GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+            message.setHost("example.com");
+            message.addRepeatedField("logger", "org.example.Foo").addRepeatedField("environment", "DEV");
+            message.addField("timestampMs", Long.toString(System.nanoTime())).addField("requestId", "r" + i);
+            // a varying value under a key first added as repeated is not cached either
+            message.addRepeatedField("user", "admin").addField("user", "u" + i);
+
+            long misses = (Long) server.getAttribute(values, "Misses");
+            json.reset(64 * 1024);
+            message.toJson(json);
+            if (i > 0) {
+                assertEquals(misses, ((Long) server.getAttribute(values, "Misses")).longValue());
+            }
+            Map fields = (Map) JSONValue.parse(new String(json.array(), 0, json.length(), "UTF-8"));
+            assertEquals("org.example.Foo", fields.get("_logger"));
+            assertEquals("r" + i, fields.get("_requestId"));
+            assertEquals("u" + i, fields.get("_user"));
+        }
+    }
+
+    @Test
+    public void writeGelf11() throws Exception {
+        GelfMessage message = new GelfMessage("Same", "Same", 1385053862307L, "6", "42", "Foo.java");
+        message.setVersion(GelfMessage.GELF_VERSION_1_1);
+        message.setHost("example.org");
+        message.addField("thread", 7L).addField("logger", "org.example").addField("id", "reserved");
+
+        String json = message.toJson();
+        assertFalse(json, json.contains(",}"));
+        Map resultingMap = (Map) JSONValue.parse(json);
+
+        // required and reserved fields, with types from the GELF 1.1 specification
+        assertEquals("1.1", resultingMap.get("version"));
+        assertEquals("example.org", resultingMap.get("host"));
+        assertEquals("Same", resultingMap.get("short_message"));
+        assertFalse(resultingMap.containsKey("full_message"));
+        assertEquals(1385053862.307, (Double) resultingMap.get("timestamp"), 0.0001);
+        assertEquals(6L, resultingMap.get("level"));
+        assertEquals(42L, resultingMap.get("_line"));
+        assertEquals("Foo.java", resultingMap.get("_file"));
+        assertEquals("gelf-java", resultingMap.get("_facility"));
+        assertEquals(7L, resultingMap.get("_thread"));
+        for (Object key : resultingMap.keySet()) {
+            String name = (String) key;
+            if (!Arrays.asList("version", "host", "short_message", "full_message", "timestamp", "level").contains(name)) {
+                assertTrue(name, name.matches("^_[\\w\\.\\-]*$"));
+                assertFalse(name, "_id".equals(name));
+            }
+        }
+
+        // JSON numbers have no leading zeros, so these stay strings
+        message = new GelfMessage("Same", "Same", 1385053862307L, "007", "-01", "Foo.java");
+        message.setVersion(GelfMessage.GELF_VERSION_1_1);
+        message.setHost("example.org");
+        json = message.toJson();
+        assertTrue(json, json.contains("\"level\":\"007\""));
+        resultingMap = (Map) JSONValue.parse(json);
+        assertEquals("007", resultingMap.get("level"));
+        assertEquals("-01", resultingMap.get("_line"));
+        message = new GelfMessage("Same", "Same", 1385053862307L, "0", "-10", "Foo.java");
+        message.setVersion(GelfMessage.GELF_VERSION_1_1);
+        resultingMap = (Map) JSONValue.parse(message.toJson());
+        assertEquals(0L, resultingMap.get("level"));
+        assertEquals(-10L, resultingMap.get("_line"));
+    }
+
+    @Test
+    public void padMillisecondsOfGelf11Timestamp() throws Exception {
+        GelfMessage message = new GelfMessage("Short", "Long", 1385053862007L, "6", null, null);
+        message.setVersion(GelfMessage.GELF_VERSION_1_1);
+        message.setHost("example.org");
+        assertTrue(message.toJson(), message.toJson().contains("\"timestamp\":1385053862.007,"));
+
+        message.setVersion(GelfMessage.GELF_VERSION);
+        String json = message.toJson();
+        assertTrue(json, json.contains("\"timestamp\":1385053862,"));
+        assertEquals("Long", ((Map) JSONValue.parse(json)).get("full_message"));
+        assertFalse(json, json.contains(",}"));
+    }
+
+    @Test
+    public void testAdditionalFields() throws Exception {
+        GelfMessage message = new GelfMessage();
+        message.setTimestamp(1L);
+        message.addField("one", "two").addField("three", 4).addField("five", 6.0).addField("seven",8);
+
+        String json = message.toJson();
+
+        Map resultingMap = (Map) JSONValue.parse(json);
+
+        assertEquals(resultingMap.get("_one"), "two");
+        assertEquals(resultingMap.get("_three"), 4L);
+        assertEquals(resultingMap.get("_five"), 6.0);
+        assertEquals(resultingMap.get("_seven"), 8L);
+    }
+
+    @Test
+    public void generateBallastMessage() {
+        Date date = new Date();
+    }
+}
@@ -0,0 +1,450 @@
+package org.graylog2;
+
+import org.graylog2.metrics.SenderMetrics;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class GelfSenderTest {
+
+    private DatagramSocket receiver;
+    private GelfSender gelfSender;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(5000);
+        gelfSender = new GelfSender("127.0.0.1", receiver.getLocalPort(), GelfSender.DEFAULT_CHUNK_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        gelfSender.close();
+        receiver.close();
+    }
+
+    @Test
+    public void sendSinglePayload() throws Exception {
+        GelfMessage message = new GelfMessage("Short", "Long ü€😀", new Date(), "1");
+        message.setHost("example.com");
+
+        GelfCompressor compressor = new GelfCompressor();
+        int length = compressor.gzip(message.toJson());
+        assertTrue(gelfSender.sendPayload(compressor.getBuffer(), length));
+        compressor.end();
+
+        Map json = (Map) JSONValue.parse(gunzip(receive()));
+        assertEquals("Long ü€😀", json.get("full_message"));
+    }
+
+    @Test
+    public void sendChunkedPayload() throws Exception {
+        byte[] payload = new byte[GelfSender.DEFAULT_CHUNK_SIZE * 2 + 10];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        assertTrue(gelfSender.sendPayload(payload, payload.length));
+
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        byte[] messageId = null;
+        for (int idx = 0; idx < 3; idx++) {
+            byte[] chunk = receive();
+            assertEquals(0x1e, chunk[0]);
+            assertEquals(0x0f, chunk[1]);
+            if (messageId == null) {
+                messageId = Arrays.copyOfRange(chunk, 2, 10);
+            }
+            assertTrue(Arrays.equals(messageId, Arrays.copyOfRange(chunk, 2, 10)));
+            assertEquals(idx, chunk[10]);
+            assertEquals(3, chunk[11]);
+            reassembled.write(chunk, 12, chunk.length - 12);
+        }
+        assertTrue(Arrays.equals(payload, reassembled.toByteArray()));
+    }
+
+    @Test
+    public void sendAllChunksOfAMessageThroughOneOfTheStripedSockets() throws Exception {
+        final GelfSender striped = new GelfSender("127.0.0.1", receiver.getLocalPort(), GelfSender.DEFAULT_CHUNK_SIZE, 4);
+        try {
+            assertEquals(4, striped.getSocketCount());
+            final byte[] payload = new byte[GelfSender.DEFAULT_CHUNK_SIZE * 2 + 10];
+            Thread[] threads = new Thread[8];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        striped.sendPayload(payload, payload.length);
+                    }
+                });
+                threads[i].start();
+            }
+            Set<Long> stripes = new HashSet<Long>();
+            for (Thread thread : threads) {
+                thread.join();
+                stripes.add(thread.getId() % 4);
+            }
+
+            Map<String, Integer> portOfMessage = new HashMap<String, Integer>();
+            Set<Integer> ports = new HashSet<Integer>();
+            for (int i = 0; i < threads.length * 3; i++) {
+                DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+                receiver.receive(packet);
+                String messageId = Arrays.toString(Arrays.copyOfRange(packet.getData(), 2, 10));
+                Integer port = portOfMessage.put(messageId, packet.getPort());
+                assertTrue(port == null || port == packet.getPort());
+                ports.add(packet.getPort());
+            }
+            assertEquals(threads.length, portOfMessage.size());
+            assertEquals(stripes.size(), ports.size());
+            assertTrue(ports.size() > 1);
+        } finally {
+            striped.close();
+        }
+    }
+
+    @Test
+    public void sendLargerChunksToLoopback() throws Exception {
+        assertEquals(8192, gelfSender.discoverChunkSize(8192));
+        assertEquals(8192, gelfSender.getMetrics().getMaxChunkSize());
+
+        byte[] payload = new byte[20000];
+        new Random(42).nextBytes(payload);
+        assertTrue(gelfSender.sendPayload(payload, payload.length));
+
+        assertTrue(Arrays.equals(payload, receiveChunks(3)));
+        assertEquals(3, gelfSender.getMetrics().getChunks());
+    }
+
+    @Test
+    public void keepChunkSizeTowardsRoutedDestinations() throws Exception {
+        InetAddress remote = InetAddress.getByName("192.0.2.1");
+        assertEquals(1420, GelfSender.chunkSizeFor(remote, InetAddress.getByName("127.0.0.1"), 1420, 8192));
+        assertEquals(1420, GelfSender.chunkSizeFor(remote, null, 1420, 8192));
+        assertEquals(65535 - 20 - 8 - 12, GelfSender.chunkSizeFor(InetAddress.getByName("127.0.0.1"), null, 1420, 100000));
+    }
+
+    @Test
+    public void reduceChunkSizeWhenDatagramIsTooLong() throws Exception {
+        GelfSender jumbo = new GelfSender("127.0.0.1", receiver.getLocalPort(), 70000);
+        try {
+            byte[] payload = new byte[100000];
+            new Random(42).nextBytes(payload);
+            assertTrue(jumbo.sendPayload(payload, payload.length));
+
+            assertEquals(GelfSender.DEFAULT_CHUNK_SIZE, jumbo.getMaxChunkSize());
+            assertEquals(1, jumbo.getMetrics().getChunkSizeReductions());
+            assertEquals(0, jumbo.getMetrics().getSendFailures());
+            int chunks = (payload.length + GelfSender.DEFAULT_CHUNK_SIZE - 1) / GelfSender.DEFAULT_CHUNK_SIZE;
+            assertTrue(Arrays.equals(payload, receiveChunks(chunks)));
+        } finally {
+            jumbo.close();
+        }
+    }
+
+    @Test
+    public void recognizeDatagramsRefusedAsTooLong() {
+        // as reported by the JDKs on Linux and macOS, and on Windows
+        assertTrue(GelfSender.isMessageTooLong(new IOException("Message too long")));
+        assertTrue(GelfSender.isMessageTooLong(new SocketException("Message too long (sendto failed)")));
+        assertTrue(GelfSender.isMessageTooLong(new SocketException(
+            "A message sent on a datagram socket was larger than the internal message buffer or some other network"
+            + " limit, or the buffer used to receive a datagram into was smaller than the datagram itself")));
+        assertFalse(GelfSender.isMessageTooLong(new PortUnreachableException("ICMP Port Unreachable")));
+        assertFalse(GelfSender.isMessageTooLong(new NoRouteToHostException("No route to host")));
+        assertFalse(GelfSender.isMessageTooLong(new ClosedChannelException()));
+    }
+
+    @Test
+    public void keepChunkSizeOnPassingSendFailures() {
+        // reported as plain exceptions too, but a smaller chunk size would be kept for good after the burst passed
+        assertFalse(GelfSender.isMessageTooLong(new IOException("No buffer space available")));
+        assertFalse(GelfSender.isMessageTooLong(new SocketException("No buffer space available (sendto failed)")));
+        assertFalse(GelfSender.isMessageTooLong(new IOException("Operation not permitted")));
+        assertFalse(GelfSender.isMessageTooLong(new IOException("Nachricht zu lang")));
+        assertFalse(GelfSender.isMessageTooLong(new IOException()));
+    }
+
+    @Test
+    public void sendMessagesFromOffHeapBuffers() throws Exception {
+        gelfSender.setOffHeapBufferBytes(64 * 1024);
+        BufferArena arena = gelfSender.getArena();
+
+        GelfMessage message = new GelfMessage("Short", "Long ü€😀", new Date(), "1");
+        message.setHost("example.com");
+        assertTrue(gelfSender.sendMessage(message));
+        Map json = (Map) JSONValue.parse(gunzip(receive()));
+        assertEquals("Long ü€😀", json.get("full_message"));
+
+        StringBuilder random = new StringBuilder();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 3 * GelfSender.DEFAULT_CHUNK_SIZE; i++) {
+            random.append((char) ('a' + rnd.nextInt(26)));
+        }
+        GelfMessage large = new GelfMessage("Short", random.toString(), new Date(), "1");
+        large.setHost("example.com");
+        assertTrue(gelfSender.sendMessage(large));
+
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        byte[] first = receive();
+        int count = first[11];
+        assertTrue(count > 1);
+        reassembled.write(first, 12, first.length - 12);
+        for (int idx = 1; idx < count; idx++) {
+            byte[] chunk = receive();
+            assertEquals(idx, chunk[10]);
+            reassembled.write(chunk, 12, chunk.length - 12);
+        }
+        json = (Map) JSONValue.parse(gunzip(reassembled.toByteArray()));
+        assertEquals(random.toString(), json.get("full_message"));
+
+        assertEquals(2, gelfSender.getMetrics().getMessagesSent());
+        assertEquals(large.toJson().length(), gelfSender.getMetrics().getBytesUncompressed()
+                                              - message.toJson().getBytes("UTF-8").length);
+        // one slab per chunk
+        assertEquals(count, arena.getAllocated());
+        arena.checkLeaks();
+    }
+
+    @Test
+    public void sendFromHeapWhenSlabsRunOutWithinAMessage() throws Exception {
+        gelfSender.setOffHeapBufferBytes(GelfMessage.GELF_CHUNK_HEADER_LENGTH + GelfSender.DEFAULT_CHUNK_SIZE);
+        BufferArena arena = gelfSender.getArena();
+
+        StringBuilder random = new StringBuilder();
+        Random rnd = new Random(42);
+        for (int i = 0; i < 3 * GelfSender.DEFAULT_CHUNK_SIZE; i++) {
+            random.append((char) ('a' + rnd.nextInt(26)));
+        }
+        GelfMessage large = new GelfMessage("Short", random.toString(), new Date(), "1");
+        large.setHost("example.com");
+        assertTrue(gelfSender.sendMessage(large));
+
+        byte[] first = receive();
+        int count = first[11];
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        reassembled.write(first, 12, first.length - 12);
+        for (int idx = 1; idx < count; idx++) {
+            byte[] chunk = receive();
+            reassembled.write(chunk, 12, chunk.length - 12);
+        }
+        Map json = (Map) JSONValue.parse(gunzip(reassembled.toByteArray()));
+        assertEquals(random.toString(), json.get("full_message"));
+        assertEquals(1, gelfSender.getMetrics().getArenaExhausted());
+        assertEquals(1, arena.getAllocated());
+        arena.checkLeaks();
+    }
+
+    @Test
+    public void countSentMessages() throws Exception {
+        GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+        message.setHost("example.com");
+
+        assertTrue(gelfSender.sendMessage(message));
+        receive();
+
+        SenderMetrics metrics = gelfSender.getMetrics();
+        assertEquals(1, metrics.getMessagesSent());
+        assertEquals(1, metrics.getDatagrams());
+        assertEquals(0, metrics.getChunks());
+        assertEquals(message.toJson().length(), metrics.getBytesUncompressed());
+        assertTrue(metrics.getBytesSent() > 0);
+
+        ObjectName name = new ObjectName("org.graylog2:type=GelfSender,name=\"127.0.0.1:" + receiver.getLocalPort() + "\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "MessagesSent"));
+
+        gelfSender.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void openCircuitWhenPortIsUnreachable() throws Exception {
+        DatagramSocket closed = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        int port = closed.getLocalPort();
+        closed.close();
+
+        GelfSender unreachable = new GelfSender("127.0.0.1", port, GelfSender.DEFAULT_CHUNK_SIZE);
+        try {
+            GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+            message.setHost("example.com");
+            // the ICMP reply to one datagram fails the next send on the connected socket
+            for (int i = 0; i < 50 && unreachable.isAvailable(); i++) {
+                unreachable.sendMessage(message);
+                Thread.sleep(5);
+            }
+
+            assertFalse(unreachable.isAvailable());
+            assertEquals(CircuitBreaker.State.OPEN, unreachable.getCircuitBreaker().getState());
+            long failures = unreachable.getMetrics().getSendFailures();
+            assertFalse(unreachable.sendMessage(message));
+            assertEquals(failures, unreachable.getMetrics().getSendFailures());
+            assertEquals(1, unreachable.getMetrics().getCircuitRejected());
+        } finally {
+            unreachable.close();
+        }
+    }
+
+    @Test
+    public void sendOverTcp() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        GelfTcpSender tcpSender = new GelfTcpSender("127.0.0.1", server.getLocalPort());
+        try {
+            GelfMessage message = new GelfMessage("Short", "Long", new Date(), "1");
+            message.setHost("example.com");
+            assertTrue(tcpSender.sendMessage(message));
+            byte[] json = "{\"short_message\":\"batched\"}".getBytes("UTF-8");
+            assertTrue(tcpSender.write(json, 0, json.length));
+            assertTrue(tcpSender.write(json, 0, json.length));
+            assertTrue(tcpSender.flush());
+
+            Socket connection = server.accept();
+            connection.setSoTimeout(5000);
+            InputStream in = connection.getInputStream();
+            Map first = (Map) JSONValue.parse(readFrame(in));
+            assertEquals("Long", first.get("full_message"));
+            assertEquals("{\"short_message\":\"batched\"}", readFrame(in));
+            assertEquals("{\"short_message\":\"batched\"}", readFrame(in));
+            connection.close();
+
+            assertEquals(3, tcpSender.getMetrics().getDatagrams());
+        } finally {
+            tcpSender.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void sendOverUnixSocket() throws Exception {
+        assumeTrue(UnixSockets.isSupported());
+        File path = socketFile();
+        ServerSocketChannel server = UnixSockets.bind(path.getPath());
+        GelfUnixSocketSender unixSender = new GelfUnixSocketSender(path.getPath());
+        try {
+            GelfMessage message = new GelfMessage("Short", "Long ü€😀", new Date(), "1");
+            message.setHost("example.com");
+            assertTrue(unixSender.sendMessage(message));
+            SocketChannel connection = server.accept();
+            InputStream in = Channels.newInputStream(connection);
+            Map first = (Map) JSONValue.parse(readFrame(in));
+            assertEquals("Long ü€😀", first.get("full_message"));
+
+            // agent restarted: the write into the dead connection fails, the next one reconnects
+            connection.close();
+            byte[] json = "{\"short_message\":\"again\"}".getBytes("UTF-8");
+            boolean sent = false;
+            for (int i = 0; i < 10 && !sent; i++) {
+                sent = unixSender.sendPayload(json, json.length);
+            }
+            assertTrue(sent);
+            connection = server.accept();
+            assertEquals("{\"short_message\":\"again\"}", readFrame(Channels.newInputStream(connection)));
+            connection.close();
+        } finally {
+            unixSender.close();
+            server.close();
+            path.delete();
+        }
+    }
+
+    @Test
+    public void giveUpWhenUnixSocketAgentDoesNotRead() throws Exception {
+        assumeTrue(UnixSockets.isSupported());
+        File path = socketFile();
+        ServerSocketChannel server = UnixSockets.bind(path.getPath());
+        GelfUnixSocketSender unixSender = new GelfUnixSocketSender(path.getPath());
+        unixSender.setWriteTimeoutMillis(100);
+        try {
+            byte[] json = new byte[64 * 1024];
+            Arrays.fill(json, (byte) 'x');
+            boolean sent = true;
+            for (int i = 0; i < 1000 && sent; i++) {
+                sent = unixSender.sendPayload(json, json.length);
+            }
+            assertFalse(sent);
+            assertEquals(1, unixSender.getMetrics().getSendFailures());
+        } finally {
+            unixSender.close();
+            server.close();
+            path.delete();
+        }
+    }
+
+    private static File socketFile() throws IOException {
+        File path = File.createTempFile("gelfj", ".sock");
+        path.delete();
+        return path;
+    }
+
+    private static String readFrame(InputStream in) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            frame.write(b);
+        }
+        return new String(frame.toByteArray(), "UTF-8");
+    }
+
+    private byte[] receiveChunks(int count) throws IOException {
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+        DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+        for (int idx = 0; idx < count; idx++) {
+            receiver.receive(packet);
+            byte[] chunk = packet.getData();
+            assertEquals(idx, chunk[10]);
+            assertEquals((byte) count, chunk[11]);
+            reassembled.write(chunk, 12, packet.getLength() - 12);
+        }
+        return reassembled.toByteArray();
+    }
+
+    private byte[] receive() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+        receiver.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,33 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HostIdentityTest {
+
+    @Test
+    public void preferPropertyOverEnvironment() {
+        assertEquals("from-property", HostIdentity.configuredHostName(" from-property ", "from-env"));
+        assertEquals("from-env", HostIdentity.configuredHostName("", "from-env"));
+        assertNull(HostIdentity.configuredHostName(null, " "));
+    }
+
+    @Test
+    public void stripDomain() {
+        assertEquals("host", HostIdentity.shortName("host.example.com"));
+        assertEquals("host", HostIdentity.shortName("host"));
+    }
+
+    @Test
+    public void neverWaitForLookup() {
+        long start = System.nanoTime();
+        String hostName = HostIdentity.getHostName();
+        assertTrue(System.nanoTime() - start < 50L * 1000 * 1000);
+        assertNotNull(hostName);
+        assertTrue(hostName.length() > 0);
+        assertEquals(4, HostIdentity.getAddress4Bytes().length);
+
+        assertNotNull(HostIdentity.awaitHostName(5000));
+    }
+}
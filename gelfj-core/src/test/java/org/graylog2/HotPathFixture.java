@@ -0,0 +1,141 @@
+package org.graylog2;
+
+import java.net.DatagramSocket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.log.GelfAppender;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * The hot path calls measured by {@link HotPathRegressionTest} and {@link HotPathThroughputIT}: serializing a
+ * message, making one with {@link GelfMessageFactory} and appending through the log4j appender to a local UDP sink.
+ * <p>
+ * Every call gets an event of its own, stamped with the current time and a request id in the MDC that differs
+ * from call to call, so caches only help where they would with real traffic. Serializing cycles through messages
+ * made from such events.
+ */
+public abstract class HotPathFixture {
+
+    static final int WARMUP = 20000;
+    static final int OPS = 20000;
+    static final int ROUNDS = 5;
+    private static final int MESSAGES = 1024;
+
+    private static final Category LOGGER = Category.getInstance(HotPathFixture.class);
+
+    private DatagramSocket sink;
+    GelfAppender appender;
+    private final GelfMessage[] messages = new GelfMessage[MESSAGES];
+    private int next;
+
+    @Before
+    public void setUp() throws Exception {
+        sink = new DatagramSocket(0);
+        appender = new GelfAppender();
+        appender.setName("hot-path");
+        appender.setGraylogHost("127.0.0.1");
+        appender.setGraylogPort(sink.getLocalPort());
+        appender.setOriginHost("app01.example.com");
+        appender.setFacility("hot-path");
+        appender.setAddExtendedInformation(true);
+        appender.setAdditionalFields("{'environment': 'DEV', 'application': 'MyAPP'}");
+        appender.activateOptions();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = GelfMessageFactory.makeMessage(nextEvent(), appender, null, null);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        MDC.remove("requestId");
+        appender.close();
+        sink.close();
+    }
+
+    /**
+     * @return event logged now, with the MDC holding a request id not used before
+     */
+    private LoggingEvent nextEvent() {
+        MDC.put("requestId", Integer.toString(next++));
+        return new LoggingEvent(HotPathFixture.class.getName(), LOGGER, System.currentTimeMillis(), Level.INFO,
+                                "User 4711 logged in from 192.0.2.17 after 3 attempts", null);
+    }
+
+    private GelfMessage nextMessage() {
+        return messages[next++ & (MESSAGES - 1)];
+    }
+
+    Runnable serialize() {
+        final Utf8Buffer json = new Utf8Buffer(1024);
+        return new Runnable() {
+            public void run() {
+                json.reset(64 * 1024);
+                nextMessage().toJson(json);
+            }
+        };
+    }
+
+    Runnable makeMessage() {
+        return new Runnable() {
+            public void run() {
+                GelfMessageFactory.makeMessage(nextEvent(), appender, null, null);
+            }
+        };
+    }
+
+    Runnable append() {
+        return new Runnable() {
+            public void run() {
+                appender.doAppend(nextEvent());
+            }
+        };
+    }
+
+    /**
+     * Opens the appender again with off-heap buffers.
+     */
+    Runnable appendOffHeap() {
+        appender.close();
+        appender.setOffHeapBufferBytes(1024 * 1024);
+        appender.activateOptions();
+        return append();
+    }
+
+    /**
+     * @return the same messages rendered naively with json-simple
+     */
+    Runnable baseline() {
+        final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        return new Runnable() {
+            public void run() {
+                GelfMessage message = nextMessage();
+                fields.clear();
+                fields.put("version", message.getVersion());
+                fields.put("host", message.getHost());
+                fields.put("short_message", message.getShortMessage());
+                fields.put("full_message", message.getFullMessage());
+                fields.put("timestamp", message.getTimestamp());
+                fields.put("level", message.getLevel());
+                fields.put("facility", message.getFacility());
+                for (Map.Entry<String, Object> field : message.getAdditonalFields().entrySet()) {
+                    fields.put("_" + field.getKey(), field.getValue());
+                }
+                JSONValue.toJSONString(fields);
+            }
+        };
+    }
+
+    static void repeat(Runnable op, int times) {
+        for (int i = 0; i < times; i++) {
+            op.run();
+        }
+    }
+}
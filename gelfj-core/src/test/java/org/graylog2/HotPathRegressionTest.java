@@ -0,0 +1,67 @@
+package org.graylog2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the hot path against regressions: allocation per event is measured with
+ * {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes} after warm up and must stay within a budget.
+ * Allocation does not depend on how fast or busy the build machine is; {@link HotPathThroughputIT} checks
+ * throughput when asked to.
+ * <p>
+ * Budgets sit a few hundred bytes above what was measured, so noise does not fail the build, but a change that
+ * adds an allocation per event does. Measured on JDK 17: serializing allocates 40 bytes, making a message 936
+ * bytes, appending 3500 bytes and appending through off-heap buffers 904 bytes.
+ */
+public class HotPathRegressionTest extends HotPathFixture {
+
+    @Test
+    public void serializeWithinBudget() {
+        assertWithin(serialize(), 128);
+    }
+
+    @Test
+    public void makeMessageWithinBudget() {
+        assertWithin(makeMessage(), 1280);
+    }
+
+    @Test
+    public void appendWithinBudget() {
+        assertWithin(append(), 4096);
+    }
+
+    @Test
+    public void appendOffHeapWithinBudget() {
+        assertWithin(appendOffHeap(), 1280);
+    }
+
+    private static void assertWithin(Runnable op, long maxBytesPerOp) {
+        long bytes = allocatedBytesPerOp(op);
+        assertTrue(bytes + " bytes allocated per call, budget is " + maxBytesPerOp, bytes <= maxBytesPerOp);
+    }
+
+    /**
+     * @return fewest bytes allocated per call over several rounds, after warm up
+     */
+    private static long allocatedBytesPerOp(Runnable op) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        long id = Thread.currentThread().getId();
+        repeat(op, WARMUP);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            repeat(op, OPS);
+            best = Math.min(best, (threads.getThreadAllocatedBytes(id) - before) / OPS);
+        }
+        return best;
+    }
+}
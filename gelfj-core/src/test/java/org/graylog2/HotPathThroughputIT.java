@@ -0,0 +1,73 @@
+package org.graylog2;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Keeps hot path throughput a multiple of a baseline run in the same JVM, so the check does not depend on how fast
+ * the build machine is. The baseline renders the same messages naively with json-simple. Timing still depends on
+ * how busy the machine is and, for appending, on what a send system call costs there, so this only runs when
+ * asked for with {@code mvn verify -Dgelfj.throughput=true} on a quiet machine.
+ * <p>
+ * Ratios sit a little below the lowest of several runs on JDK 17: serializing at 2.5x the baseline, making a
+ * message at 9.9x, appending at 0.145x and appending through off-heap buffers at 0.17x.
+ */
+public class HotPathThroughputIT extends HotPathFixture {
+
+    @BeforeClass
+    public static void askedFor() {
+        assumeTrue(Boolean.getBoolean("gelfj.throughput"));
+    }
+
+    @Test
+    public void serializeFastEnough() {
+        assertFastEnough(serialize(), 2.3);
+    }
+
+    @Test
+    public void makeMessageFastEnough() {
+        assertFastEnough(makeMessage(), 8.0);
+    }
+
+    @Test
+    public void appendFastEnough() {
+        assertFastEnough(append(), 0.12);
+    }
+
+    @Test
+    public void appendOffHeapFastEnough() {
+        assertFastEnough(appendOffHeap(), 0.15);
+    }
+
+    private void assertFastEnough(Runnable op, double minRatioToBaseline) {
+        double ratio = ratioToBaseline(op);
+        assertTrue("Throughput " + ratio + " times the baseline, expected at least " + minRatioToBaseline,
+                   ratio >= minRatioToBaseline);
+    }
+
+    /**
+     * @return most calls per second of op over several rounds, divided by that of the baseline; rounds of the two
+     *         alternate, so a slow patch of the build machine slows both
+     */
+    private double ratioToBaseline(Runnable op) {
+        Runnable baseline = baseline();
+        repeat(op, WARMUP);
+        repeat(baseline, WARMUP);
+        double bestOp = 0;
+        double bestBaseline = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            bestOp = Math.max(bestOp, opsPerSecond(op));
+            bestBaseline = Math.max(bestBaseline, opsPerSecond(baseline));
+        }
+        return bestOp / bestBaseline;
+    }
+
+    private static double opsPerSecond(Runnable op) {
+        long start = System.nanoTime();
+        repeat(op, OPS);
+        return OPS * 1e9 / (System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,135 @@
+package org.graylog2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.graylog2.metrics.FlightRecorderListener;
+import org.graylog2.metrics.StripedCounter;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs against the packaged jar, so on JDK 11 and later the classes from META-INF/versions/11 are loaded.
+ */
+public class MultiReleaseIT {
+
+    @Test
+    public void loadVersionedClassesOnJdk11() {
+        assumeTrue(javaVersion() >= 11);
+        assertTrue(FlightRecorderListener.isSupported());
+        assertTrue(DirectGzip.isDirect());
+        String location = StackLocator.class.getResource("StackLocator.class").toString();
+        assertTrue(location, location.startsWith("jar:") && location.contains("META-INF/versions/11"));
+    }
+
+    @Test
+    public void versionedClassesBehaveLikeBaseline() {
+        StackTraceElement caller = StackLocator.callerOf(MultiReleaseIT.class.getName() + "$Api");
+        assertNull(caller);
+        caller = Api.log();
+        assertNotNull(caller);
+        assertEquals("versionedClassesBehaveLikeBaseline", caller.getMethodName());
+
+        StripedCounter counter = new StripedCounter();
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.sum());
+    }
+
+    @Test
+    public void gzipIntoDirectBuffersOfAnySize() throws IOException {
+        byte[] json = new byte[20000];
+        Random random = new Random(42);
+        for (int i = 0; i < json.length; i++) {
+            // compressible, yet not so much that it fits a few bytes
+            json[i] = (byte) ('a' + random.nextInt(8));
+        }
+        DirectGzip gzip = new DirectGzip();
+        for (int size : new int[]{1, 7, 536, 65536}) {
+            gzip.start(json, json.length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+            boolean finished;
+            do {
+                buffer.clear();
+                finished = gzip.fill(buffer);
+                buffer.flip();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                compressed.write(bytes);
+            } while (!finished);
+            assertArrayEquals("buffers of " + size + " bytes", json, gunzip(compressed.toByteArray()));
+        }
+    }
+
+    @Test
+    public void sendChunkedMessageFromOffHeapBuffers() throws Exception {
+        DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(5000);
+        GelfSender sender = new GelfSender("127.0.0.1", receiver.getLocalPort(), GelfSender.DEFAULT_CHUNK_SIZE);
+        try {
+            sender.setOffHeapBufferBytes(64 * 1024);
+            StringBuilder random = new StringBuilder();
+            Random rnd = new Random(42);
+            for (int i = 0; i < 3 * GelfSender.DEFAULT_CHUNK_SIZE; i++) {
+                random.append((char) ('a' + rnd.nextInt(26)));
+            }
+            GelfMessage message = new GelfMessage("Short", random.toString(), new Date(), "1");
+            message.setHost("example.com");
+            assertTrue(sender.sendMessage(message));
+
+            ByteArrayOutputStream reassembled = new ByteArrayOutputStream();
+            DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+            int count = 1;
+            for (int idx = 0; idx < count; idx++) {
+                receiver.receive(packet);
+                byte[] chunk = packet.getData();
+                count = chunk[11];
+                assertEquals(idx, chunk[10]);
+                reassembled.write(chunk, 12, packet.getLength() - 12);
+            }
+            assertTrue(count > 1);
+            Map json = (Map) JSONValue.parse(new String(gunzip(reassembled.toByteArray()), "UTF-8"));
+            assertEquals(random.toString(), json.get("full_message"));
+            sender.getArena().checkLeaks();
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? Integer.parseInt(version.substring(2)) : Integer.parseInt(version);
+    }
+
+    static class Api {
+        static StackTraceElement log() {
+            return StackLocator.callerOf(Api.class.getName());
+        }
+    }
+}
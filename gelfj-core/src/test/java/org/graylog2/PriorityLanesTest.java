@@ -0,0 +1,149 @@
+package org.graylog2;
+
+import org.graylog2.PriorityLanes.DropPolicy;
+import org.graylog2.PriorityLanes.Lane;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PriorityLanesTest {
+
+    @Test
+    public void dropByLanePolicy() throws Exception {
+        RecordingLanes lanes = new RecordingLanes(new Lane(2, DropPolicy.DROP_OLDEST, 1),
+                                                  new Lane(2, DropPolicy.DROP_NEWEST, 1));
+        assertTrue(lanes.offer(0, message("e0")));
+        assertTrue(lanes.offer(0, message("e1")));
+        assertFalse(lanes.offer(0, message("e2")));
+        assertTrue(lanes.offer(1, message("d0")));
+        assertTrue(lanes.offer(1, message("d1")));
+        assertFalse(lanes.offer(1, message("d2")));
+        assertEquals(1, lanes.getDropped(0));
+        assertEquals(1, lanes.getDropped(1));
+        assertEquals(4, lanes.size());
+
+        lanes.start();
+        lanes.close(5000);
+        assertEquals(4, lanes.sent.size());
+        assertTrue(lanes.sent.containsAll(Arrays.asList("e1", "e2", "d0", "d1")));
+    }
+
+    @Test
+    public void drainByWeight() throws Exception {
+        RecordingLanes lanes = new RecordingLanes(new Lane(100, DropPolicy.DROP_NEWEST, 3),
+                                                  new Lane(100, DropPolicy.DROP_NEWEST, 1));
+        for (int i = 0; i < 10; i++) {
+            lanes.offer(1, message("debug"));
+        }
+        for (int i = 0; i < 6; i++) {
+            lanes.offer(0, message("error"));
+        }
+
+        lanes.start();
+        lanes.close(5000);
+        List<String> expected = new ArrayList<String>();
+        for (int round = 0; round < 2; round++) {
+            expected.addAll(Collections.nCopies(3, "error"));
+            expected.add("debug");
+        }
+        expected.addAll(Collections.nCopies(8, "debug"));
+        assertEquals(expected, lanes.sent);
+    }
+
+    @Test
+    public void wakeUpOnOffer() throws Exception {
+        final CountDownLatch sent = new CountDownLatch(1);
+        PriorityLanes lanes = new PriorityLanes("test-lanes", new Lane(10, DropPolicy.DROP_NEWEST, 1)) {
+            @Override
+            protected void send(GelfMessage message) {
+                sent.countDown();
+            }
+        };
+        lanes.start();
+        Thread.sleep(50);
+        lanes.offer(0, message("late"));
+        assertTrue(sent.await(1, TimeUnit.SECONDS));
+        lanes.close(1000);
+    }
+
+    @Test
+    public void dropByLanePolicyWhenBudgetIsUsedUp() throws Exception {
+        GelfMessage first = message("e0");
+        MemoryBudget budget = new MemoryBudget(first.estimateSize() * 2);
+        RecordingLanes lanes = new RecordingLanes(budget, new Lane(100, DropPolicy.DROP_OLDEST, 1),
+                                                  new Lane(100, DropPolicy.DROP_NEWEST, 1));
+        assertTrue(lanes.offer(0, first));
+        assertTrue(lanes.offer(1, message("d0")));
+        assertFalse(lanes.offer(1, message("d1")));
+        // pushes out the oldest message of its own lane to make room
+        assertFalse(lanes.offer(0, message("e1")));
+        assertEquals(1, lanes.getDropped(0));
+        assertEquals(1, lanes.getDropped(1));
+        assertEquals(2, budget.getMetrics().getRejected());
+
+        lanes.start();
+        lanes.close(5000);
+        assertEquals(Arrays.asList("e1", "d0"), lanes.sent);
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    @Test
+    public void keepOldMessagesWhenDroppingThemCannotMakeRoom() throws Exception {
+        GelfMessage first = message("e0");
+        MemoryBudget budget = new MemoryBudget(first.estimateSize() * 3);
+        RecordingLanes lanes = new RecordingLanes(budget, new Lane(100, DropPolicy.DROP_OLDEST, 1),
+                                                  new Lane(100, DropPolicy.DROP_NEWEST, 1));
+        assertTrue(lanes.offer(0, first));
+        assertTrue(lanes.offer(1, message("d0")));
+        assertTrue(lanes.offer(1, message("d1")));
+
+        // larger than the whole budget: dropped before anything else is
+        StringBuilder huge = new StringBuilder();
+        while (huge.length() < first.estimateSize() * 2) {
+            huge.append("0123456789");
+        }
+        assertFalse(lanes.offer(0, message(huge.toString())));
+        // needs more than e0 gives back: dropping it would not help, so it stays
+        StringBuilder large = new StringBuilder("e1");
+        while (message(large.toString()).estimateSize() <= first.estimateSize()) {
+            large.append('x');
+        }
+        assertFalse(lanes.offer(0, message(large.toString())));
+        assertEquals(2, lanes.getDropped(0));
+        assertEquals(0, lanes.getDropped(1));
+
+        lanes.start();
+        lanes.close(5000);
+        assertEquals(Arrays.asList("e0", "d0", "d1"), lanes.sent);
+        assertEquals(0, budget.getReservedBytes());
+    }
+
+    private static GelfMessage message(String text) {
+        return new GelfMessage(text, text, new Date(), "6");
+    }
+
+    private static class RecordingLanes extends PriorityLanes {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingLanes(Lane... lanes) {
+            super("test-lanes", lanes);
+        }
+
+        RecordingLanes(MemoryBudget budget, Lane... lanes) {
+            super("test-lanes", budget, lanes);
+        }
+
+        @Override
+        protected void send(GelfMessage message) {
+            sent.add(message.getShortMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.graylog2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StackLocatorTest {
+
+    @Test
+    public void findCallerOfApi() {
+        StackTraceElement caller = Api.log();
+        assertNotNull(caller);
+        assertEquals(StackLocatorTest.class.getName(), caller.getClassName());
+        assertEquals("findCallerOfApi", caller.getMethodName());
+        assertEquals("StackLocatorTest.java", caller.getFileName());
+    }
+
+    @Test
+    public void skipNestedApiFrames() {
+        StackTraceElement caller = Api.logThroughOverload();
+        assertNotNull(caller);
+        assertEquals("skipNestedApiFrames", caller.getMethodName());
+    }
+
+    @Test
+    public void returnNullWhenApiIsNotOnStack() {
+        assertNull(StackLocator.callerOf("org.example.Missing"));
+    }
+
+    static class Api {
+        static StackTraceElement log() {
+            return StackLocator.callerOf(Api.class.getName());
+        }
+
+        static StackTraceElement logThroughOverload() {
+            return log();
+        }
+    }
+}
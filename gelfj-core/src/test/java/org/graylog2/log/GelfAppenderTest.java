@@ -0,0 +1,387 @@
+package org.graylog2.log;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.Priority;
+import org.apache.log4j.helpers.OnlyOnceErrorHandler;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.management.ObjectName;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Anton Yakimov
+ * @author Jochen Schalanda
+ */
+public class GelfAppenderTest {
+
+    private static final String CLASS_NAME = GelfAppenderTest.class.getCanonicalName();
+    private TestGelfSender gelfSender;
+    private GelfAppender gelfAppender;
+
+    @Before
+    public void setUp() throws UnknownHostException, SocketException {
+        gelfSender = new TestGelfSender("localhost");
+
+        gelfAppender = new GelfAppender() {
+
+            @Override
+            public GelfSender getGelfSender() {
+                return gelfSender;
+            }
+
+            @Override
+            public void append(LoggingEvent event) {
+                super.append(event);
+            }
+        };
+    }
+
+    @Test
+    public void ensureHostnameForMessage() {
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.INFO, "Das Auto",
+                                              new RuntimeException("LOL"));
+        gelfAppender.append(event);
+
+        assertThat("Message hostname", gelfSender.getLastMessage().getHost(), notNullValue());
+
+        gelfAppender.setOriginHost("example.com");
+        gelfAppender.append(event);
+        assertThat(gelfSender.getLastMessage().getHost(), is("example.com"));
+    }
+
+    @Test
+    public void addLocationOfLoggingCall() {
+
+        gelfAppender.setAddLocation(true);
+        int line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+        LocatingLogger.log(gelfAppender, "Das Auto");
+
+        assertEquals("GelfAppenderTest.java", gelfSender.getLastMessage().getFile());
+        assertEquals(String.valueOf(line), gelfSender.getLastMessage().getLine());
+    }
+
+    @Test
+    public void leaveOutRedundantFieldsInGelf11() {
+
+        gelfAppender.setGelfVersion(GelfMessage.GELF_VERSION_1_1);
+        gelfAppender.setAddExtendedInformation(true);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(this.getClass()), 123L, Priority.INFO, "Das Auto", null);
+        gelfAppender.append(event);
+
+        GelfMessage message = gelfSender.getLastMessage();
+        assertEquals("1.1", message.getVersion());
+        assertNull(message.getAdditonalFields().get("timestampMs"));
+        assertFalse(message.toJson().contains("full_message"));
+    }
+
+    @Test
+    public void handleNullInAppend() {
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(this.getClass()), 123L, Priority.INFO, null, new RuntimeException("LOL"));
+        gelfAppender.append(event);
+
+        assertThat("Message short message", gelfSender.getLastMessage().getShortMessage(), notNullValue());
+        assertThat("Message full message", gelfSender.getLastMessage().getFullMessage(), notNullValue());
+    }
+
+    @Test
+    public void handleMDC() {
+
+        gelfAppender.setAddExtendedInformation(true);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(this.getClass()), 123L, Priority.INFO, "", new RuntimeException("LOL"));
+        MDC.put("foo", "bar");
+
+        gelfAppender.append(event);
+
+        assertEquals("bar", gelfSender.getLastMessage().getAdditonalFields().get("foo"));
+        assertNull(gelfSender.getLastMessage().getAdditonalFields().get("non-existent"));
+    }
+
+    @Test
+    public void handleNDC() {
+
+        gelfAppender.setAddExtendedInformation(true);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(this.getClass()), 123L, Priority.INFO, "", new RuntimeException("LOL"));
+        NDC.push("Foobar");
+
+        gelfAppender.append(event);
+
+        assertEquals("Foobar", gelfSender.getLastMessage().getAdditonalFields().get("loggerNdc"));
+    }
+
+    @Test
+    public void disableExtendedInformation() {
+
+        gelfAppender.setAddExtendedInformation(false);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(this.getClass()), 123L, Priority.INFO, "", new RuntimeException("LOL"));
+
+        MDC.put("foo", "bar");
+        NDC.push("Foobar");
+
+        gelfAppender.append(event);
+
+        assertNull(gelfSender.getLastMessage().getAdditonalFields().get("loggerNdc"));
+        assertNull(gelfSender.getLastMessage().getAdditonalFields().get("foo"));
+    }
+
+    @Test
+    public void checkExtendedInformation() throws UnknownHostException, SocketException {
+
+        gelfAppender.setAddExtendedInformation(true);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.INFO, "Das Auto", new RuntimeException("LOL"));
+
+        gelfAppender.append(event);
+
+        assertEquals(gelfSender.getLastMessage().getAdditonalFields().get("logger"), CLASS_NAME);
+    }
+
+    @Test
+    public void countDroppedMessages() {
+        gelfSender.setFailing(true);
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.INFO, "Das Auto", null);
+        gelfAppender.append(event);
+        gelfAppender.append(event);
+
+        assertEquals(2, gelfAppender.getMetrics().getEvents());
+        assertEquals(2, gelfAppender.getMetrics().getDroppedSendFailure());
+        assertEquals(0, gelfAppender.getMetrics().getDroppedByRateLimit());
+    }
+
+    @Test
+    public void skipEventsWhileCircuitIsOpen() {
+        for (int i = 0; i < 5; i++) {
+            gelfSender.getCircuitBreaker().failure();
+        }
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.INFO, "Das Auto", null);
+        gelfAppender.append(event);
+
+        assertNull(gelfSender.getLastMessage());
+        assertEquals(1, gelfAppender.getMetrics().getDroppedCircuitOpen());
+        assertEquals(0, gelfAppender.getMetrics().getDroppedSendFailure());
+    }
+
+    @Test
+    public void queueByLevelInPriorityLanes() {
+        gelfAppender.setName("lanes");
+        gelfAppender.setPriorityLanes(true);
+        gelfAppender.setInfoLane("1,dropNewest");
+        gelfAppender.activateOptions();
+
+        gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.ERROR, "Kaputt", null));
+        gelfAppender.close();
+
+        assertEquals("Kaputt", gelfSender.getLastMessage().getShortMessage());
+        assertEquals(1, gelfSender.getSent());
+        assertEquals(0, gelfAppender.getMetrics().getQueueDepth());
+    }
+
+    @Test
+    public void routeByLoggerPrefix() throws Exception {
+        DatagramSocket payments = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        payments.setSoTimeout(5000);
+        try {
+            gelfAppender.setName("routes");
+            gelfAppender.setFacility("default");
+            gelfAppender.setRoutes("{'com.ok': {'facility': 'ok', 'fields': {'team': 'ok'}},"
+                                   + " 'com.ok.payments.*': {'level': 'WARN', 'destination': 'udp:127.0.0.1:"
+                                   + payments.getLocalPort() + "', 'fields': {'stream': 'payments'}}}");
+            gelfAppender.activateOptions();
+
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.Shop"), 123L, Priority.INFO, "Shop", null));
+            GelfMessage shop = gelfSender.getLastMessage();
+            assertEquals("ok", shop.getFacility());
+            assertEquals("ok", shop.getAdditonalFields().get("team"));
+            assertNull(shop.getAdditonalFields().get("stream"));
+
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.payments.Ledger"), 123L, Priority.INFO, "Quiet", null));
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.payments.Ledger"), 123L, Priority.WARN, "Ledger", null));
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("org.example.Other"), 123L, Priority.INFO, "Other", null));
+
+            DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+            payments.receive(packet);
+            Map json = (Map) JSONValue.parse(gunzip(Arrays.copyOf(packet.getData(), packet.getLength())));
+            assertEquals("Ledger", json.get("short_message"));
+            assertEquals("ok", json.get("facility"));
+            assertEquals("ok", json.get("_team"));
+            assertEquals("payments", json.get("_stream"));
+
+            assertEquals("default", gelfSender.getLastMessage().getFacility());
+            assertEquals(2, gelfSender.getSent());
+            assertEquals(3, gelfAppender.getMetrics().getEvents());
+        } finally {
+            gelfAppender.close();
+            payments.close();
+        }
+    }
+
+    @Test
+    public void refuseEventsAfterCloseUntilActivatedAgain() throws Exception {
+        gelfAppender.setName("reopened");
+        gelfAppender.activateOptions();
+        gelfAppender.close();
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, Category.getInstance(GelfAppenderTest.class), 123L, Priority.INFO, "Closed", null);
+        gelfAppender.doAppend(event);
+        assertNull(gelfSender.getLastMessage());
+        assertEquals(0, gelfAppender.getMetrics().getEvents());
+
+        gelfAppender.activateOptions();
+        try {
+            gelfAppender.doAppend(event);
+            assertEquals("Closed", gelfSender.getLastMessage().getShortMessage());
+            ObjectName name = new ObjectName("org.graylog2:type=GelfAppender,name=\"reopened\"");
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Events"));
+        } finally {
+            gelfAppender.close();
+        }
+    }
+
+    @Test
+    public void reportUnusableDestinationsAndStartAnyway() throws Exception {
+        DatagramSocket first = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        RecordingErrorHandler errors = new RecordingErrorHandler();
+        gelfAppender.setName("unusable");
+        gelfAppender.setErrorHandler(errors);
+        gelfAppender.setDestinations("udp:127.0.0.1:" + first.getLocalPort() + ",smtp:mail.example.com");
+        try {
+            gelfAppender.activateOptions();
+            assertEquals(1, errors.messages.size());
+            ObjectName opened = new ObjectName("org.graylog2:type=GelfSender,name=\"127.0.0.1:" + first.getLocalPort() + "\"");
+            assertFalse("the sender opened before the failure is closed again",
+                        ManagementFactory.getPlatformMBeanServer().isRegistered(opened));
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                    new ObjectName("org.graylog2:type=GelfAppender,name=\"unusable\"")));
+            gelfAppender.close();
+
+            gelfAppender.setDestinations("udp:127.0.0.1:port");
+            gelfAppender.activateOptions();
+            gelfAppender.close();
+
+            gelfAppender.setDestinations("");
+            gelfAppender.activateOptions();
+            assertEquals(3, errors.messages.size());
+        } finally {
+            gelfAppender.close();
+            first.close();
+        }
+    }
+
+    @Test
+    public void reportInvalidRoutesAndKeepLogging() throws Exception {
+        RecordingErrorHandler errors = new RecordingErrorHandler();
+        gelfAppender.setName("invalidRoutes");
+        gelfAppender.setErrorHandler(errors);
+        gelfAppender.setRoutes("{'com.ok': {'level': 'LOUD'}}");
+        try {
+            gelfAppender.activateOptions();
+            assertEquals(1, errors.messages.size());
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.Shop"), 123L, Priority.INFO, "Shop", null));
+            assertEquals("Shop", gelfSender.getLastMessage().getShortMessage());
+            gelfAppender.close();
+
+            gelfAppender.setRoutes("{'com.ok.payments': {'destination': 'smtp:mail.example.com'}}");
+            gelfAppender.activateOptions();
+            assertEquals(2, errors.messages.size());
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.payments.Ledger"), 123L, Priority.INFO, "Ledger", null));
+            gelfAppender.append(new LoggingEvent(CLASS_NAME, Category.getInstance("com.ok.Shop"), 123L, Priority.INFO, "Other", null));
+            assertEquals("events of a route without its destination are dropped", 2, gelfSender.getSent());
+            assertEquals("Other", gelfSender.getLastMessage().getShortMessage());
+            assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                    new ObjectName("org.graylog2:type=GelfAppender,name=\"invalidRoutes\"")));
+        } finally {
+            gelfAppender.close();
+        }
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    private static class RecordingErrorHandler extends OnlyOnceErrorHandler {
+
+        private final List<String> messages = new ArrayList<String>();
+
+        @Override
+        public void error(String message, Exception e, int errorCode) {
+            messages.add(message + ": " + e);
+        }
+    }
+
+    private class TestGelfSender extends GelfSender {
+
+        private GelfMessage lastMessage;
+        private boolean failing;
+        private int sent;
+
+        public TestGelfSender(String host) throws UnknownHostException, SocketException {
+            super(host);
+        }
+
+        @Override
+        public boolean sendMessage(GelfMessage message) {
+            this.lastMessage = message;
+            sent++;
+            return !failing;
+        }
+
+        public void setFailing(boolean failing) {
+            this.failing = failing;
+        }
+
+        public int getSent() {
+            return sent;
+        }
+
+        public GelfMessage getLastMessage() {
+            return lastMessage;
+        }
+    }
+
+    static class LocatingLogger {
+        static void log(GelfAppender appender, String message) {
+            appender.append(new LoggingEvent(LocatingLogger.class.getName(), Category.getInstance(GelfAppenderTest.class),
+                                             123L, Priority.INFO, message, null));
+        }
+    }
+}
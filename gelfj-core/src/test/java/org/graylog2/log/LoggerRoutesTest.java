@@ -0,0 +1,87 @@
+package org.graylog2.log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.graylog2.GelfSender;
+import org.graylog2.log.LoggerRoutes.Route;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoggerRoutesTest {
+
+    @Test
+    public void matchLongestPrefixOnDotBoundaries() {
+        LoggerRoutes routes = LoggerRoutes.compile(
+            "{'com.ok.payments': {'facility': 'payments'}, 'com.ok': {'facility': 'ok'}, 'com.ok.payments.fraud.*': {}}");
+
+        assertEquals("ok", routes.route("com.ok").getFacility());
+        assertEquals("ok", routes.route("com.ok.Shop").getFacility());
+        assertEquals("payments", routes.route("com.ok.payments").getFacility());
+        assertEquals("payments", routes.route("com.ok.payments.Ledger").getFacility());
+        assertEquals("com.ok.payments.fraud", routes.route("com.ok.payments.fraud.Scorer").getPrefix());
+        assertEquals("ok", routes.route("com.ok.paymentsx.Ledger").getFacility());
+        assertNull(routes.route("com.okay"));
+        assertNull(routes.route("com"));
+        // resolved routes are cached
+        assertSame(routes.route("com.ok.payments.Ledger"), routes.route("com.ok.payments.Ledger"));
+        assertNull(routes.route("com.okay"));
+    }
+
+    @Test
+    public void inheritFromShorterPrefixes() {
+        LoggerRoutes routes = LoggerRoutes.compile(
+            "{'*': {'level': 'INFO', 'fields': {'env': 'prod', 'team': 'core'}},"
+            + " 'com.ok': {'destination': 'udp:graylog-ok', 'fields': {'team': 'ok'}},"
+            + " 'com.ok.payments': {'facility': 'payments', 'level': 'WARN'}}");
+
+        Route payments = routes.route("com.ok.payments.Ledger");
+        assertEquals("payments", payments.getFacility());
+        assertEquals(Level.WARN, payments.getLevel());
+        assertEquals("udp:graylog-ok", payments.getDestination());
+        assertEquals("prod", payments.getFields().get("env"));
+        assertEquals("ok", payments.getFields().get("team"));
+        assertFalse(payments.isEnabledFor(Level.INFO));
+        assertTrue(payments.isEnabledFor(Level.ERROR));
+
+        Route other = routes.route("org.example.Other");
+        assertEquals("", other.getPrefix());
+        assertNull(other.getDestination());
+        assertEquals("core", other.getFields().get("team"));
+        assertFalse(other.isEnabledFor(Level.DEBUG));
+        assertEquals(3, routes.getRoutes().size());
+    }
+
+    @Test
+    public void shareTheSenderOfADestination() throws Exception {
+        LoggerRoutes compiled = LoggerRoutes.compile(
+            "{'com.ok': {'destination': 'udp:127.0.0.1:12201'}, 'com.ok.payments': {'facility': 'payments'},"
+            + " 'org.example': {}}");
+        assertNull(compiled.route("com.ok.Shop").getSender());
+
+        GelfSender sender = new GelfSender("127.0.0.1", 12201, GelfSender.DEFAULT_CHUNK_SIZE);
+        try {
+            Map<String, GelfSender> senders = new HashMap<String, GelfSender>();
+            senders.put("udp:127.0.0.1:12201", sender);
+            LoggerRoutes routes = compiled.withSenders(senders);
+
+            assertSame(sender, routes.route("com.ok.Shop").getSender());
+            assertSame(sender, routes.route("com.ok.payments.Ledger").getSender());
+            assertEquals("payments", routes.route("com.ok.payments.Ledger").getFacility());
+            assertNull(routes.route("org.example.Other").getSender());
+            assertNull(routes.route("com.okay"));
+            assertEquals(3, routes.getRoutes().size());
+            // the compiled routes are left as they were
+            assertNull(compiled.route("com.ok.Shop").getSender());
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownLevel() {
+        LoggerRoutes.compile("{'com.ok': {'level': 'LOUD'}}");
+    }
+}
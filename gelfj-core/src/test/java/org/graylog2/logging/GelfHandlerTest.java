@@ -0,0 +1,122 @@
+package org.graylog2.logging;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.*;
+
+public class GelfHandlerTest {
+
+    private TestGelfSender gelfSender;
+    private GelfHandler gelfHandler;
+
+    @Before
+    public void setUp() throws UnknownHostException, SocketException {
+        gelfSender = new TestGelfSender("localhost");
+
+        gelfHandler = new GelfHandler() {
+            @Override
+            protected GelfSender getGelfSender() {
+                return gelfSender;
+            }
+        };
+    }
+
+    @Test
+    public void formatParameters() {
+        LogRecord record = new LogRecord(Level.INFO, "User {0} logged in from {1}");
+        record.setParameters(new Object[]{"john", "example.com"});
+
+        gelfHandler.publish(record);
+
+        assertEquals("User john logged in from example.com", gelfSender.getLastMessage().getShortMessage());
+    }
+
+    @Test
+    public void keepMessageWithoutPlaceholders() {
+        LogRecord record = new LogRecord(Level.INFO, "It's 100% {done}");
+        record.setParameters(new Object[]{"unused"});
+
+        gelfHandler.publish(record);
+
+        assertEquals("It's 100% {done}", gelfSender.getLastMessage().getShortMessage());
+    }
+
+    @Test
+    public void handleNullMessage() {
+        gelfHandler.publish(new LogRecord(Level.INFO, null));
+
+        assertEquals("", gelfSender.getLastMessage().getShortMessage());
+    }
+
+    @Test
+    public void skipFilteredRecords() {
+        gelfHandler.publish(new LogRecord(Level.FINE, "Debug {0}"));
+
+        assertNull(gelfSender.getLastMessage());
+    }
+
+    @Test
+    public void optionalSourceLocation() {
+        LogRecord record = new LogRecord(Level.INFO, "Located");
+        record.setSourceClassName("org.example.Foo");
+        record.setSourceMethodName("bar");
+
+        gelfHandler.publish(record);
+        assertEquals("org.example.Foo", gelfSender.getLastMessage().getAdditonalFields().get("SourceClassName"));
+        assertEquals("bar", gelfSender.getLastMessage().getAdditonalFields().get("SourceMethodName"));
+
+        gelfHandler.setAddLocation(false);
+        gelfHandler.publish(record);
+        assertNull(gelfSender.getLastMessage().getAdditonalFields().get("SourceClassName"));
+        assertNull(gelfSender.getLastMessage().getAdditonalFields().get("SourceMethodName"));
+    }
+
+    @Test
+    public void checkExtendedInformation() {
+        gelfHandler.setAddExtendedInformation(true);
+
+        LogRecord record = new LogRecord(Level.WARNING, "Extended");
+        record.setLoggerName("org.example.Logger");
+
+        gelfHandler.publish(record);
+
+        assertEquals("org.example.Logger", gelfSender.getLastMessage().getAdditonalFields().get("logger"));
+        assertEquals(record.getThreadID(), gelfSender.getLastMessage().getAdditonalFields().get("thread"));
+    }
+
+    @Test
+    public void ignoreRecordsAfterClose() {
+        gelfHandler.close();
+        gelfHandler.publish(new LogRecord(Level.INFO, "Closed"));
+
+        assertNull(gelfSender.getLastMessage());
+        assertEquals(0, gelfHandler.getMetrics().getEvents());
+    }
+
+    private class TestGelfSender extends GelfSender {
+
+        private GelfMessage lastMessage;
+
+        public TestGelfSender(String host) throws UnknownHostException, SocketException {
+            super(host);
+        }
+
+        @Override
+        public boolean sendMessage(GelfMessage message) {
+            this.lastMessage = message;
+            return true;
+        }
+
+        public GelfMessage getLastMessage() {
+            return lastMessage;
+        }
+    }
+}
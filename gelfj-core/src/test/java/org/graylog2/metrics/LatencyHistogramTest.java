@@ -0,0 +1,56 @@
+package org.graylog2.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void percentilesWithinFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertPercentile(500000L, histogram.getPercentile(0.5));
+        assertPercentile(990000L, histogram.getPercentile(0.99));
+        assertPercentile(1000000L, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void stripedCounterSumsAllThreads() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, counter.sum());
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue(expected + " <= " + actual, expected <= actual);
+        assertTrue(actual + " < 2 * " + expected, actual < 2 * expected);
+    }
+}
@@ -0,0 +1,132 @@
+package org.graylog2.metrics;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.graylog2.log.GelfAppender;
+import org.graylog2.metrics.StageTracer.Stage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StageTracerTest {
+
+    private final StageTracer tracer = StageTracer.getInstance();
+    private final List<Stage> stages = new ArrayList<Stage>();
+
+    private DatagramSocket receiver;
+    private GelfSender gelfSender;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        gelfSender = new GelfSender("127.0.0.1", receiver.getLocalPort(), 100);
+        tracer.setListener(new StageListener() {
+            public void stage(Stage stage, long nanos) {
+                stages.add(stage);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        tracer.setSampleRate(0);
+        tracer.setListener(null);
+        gelfSender.close();
+        receiver.close();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertEquals(0.0, tracer.getSampleRate(), 0.0);
+        assertNull(StageTracer.begin());
+        assertNull(StageTracer.current());
+
+        gelfSender.sendMessage(largeMessage());
+        assertTrue(stages.isEmpty());
+    }
+
+    @Test
+    public void sampleEveryStage() {
+        tracer.setSampleRate(1.0);
+        long gzipped = tracer.getHistogram(Stage.GZIP).getCount();
+
+        assertTrue(gelfSender.sendMessage(largeMessage()));
+
+        assertEquals(gzipped + 1, tracer.getHistogram(Stage.GZIP).getCount());
+        assertTrue(stages.contains(Stage.JSON));
+        assertTrue(stages.contains(Stage.GZIP));
+        assertTrue(stages.contains(Stage.CHUNK));
+        assertTrue(stages.contains(Stage.SEND));
+        assertNull("sample finished with the pipeline", StageTracer.current());
+    }
+
+    @Test
+    public void keepStagesOfAnAppendedEventInOneSample() {
+        GelfAppender appender = new GelfAppender();
+        appender.setName("traced");
+        appender.setGraylogHost("127.0.0.1");
+        appender.setGraylogPort(receiver.getLocalPort());
+        appender.activateOptions();
+        try {
+            tracer.setSampleRate(0.25);
+            long made = tracer.getHistogram(Stage.MAKE_MESSAGE).getCount();
+            long sent = tracer.getHistogram(Stage.SEND).getCount();
+            for (int i = 0; i < 100; i++) {
+                appender.doAppend(new LoggingEvent(StageTracerTest.class.getName(),
+                                                   Category.getInstance(StageTracerTest.class), Level.INFO,
+                                                   "Event " + i, null));
+            }
+
+            // the sender joins the appender's sample instead of counting each event down again
+            assertEquals(made + 25, tracer.getHistogram(Stage.MAKE_MESSAGE).getCount());
+            assertEquals(sent + 25, tracer.getHistogram(Stage.SEND).getCount());
+            List<Stage> oneEvent = Arrays.asList(Stage.MAKE_MESSAGE, Stage.JSON, Stage.GZIP, Stage.SEND);
+            assertEquals(100, stages.size());
+            for (int i = 0; i < stages.size(); i += oneEvent.size()) {
+                assertEquals(oneEvent, stages.subList(i, i + oneEvent.size()));
+            }
+            assertFalse(StageTracer.inPipeline());
+        } finally {
+            appender.close();
+        }
+    }
+
+    @Test
+    public void sampleFraction() {
+        tracer.setSampleRate(0.25);
+        assertEquals(0.25, tracer.getSampleRate(), 0.0);
+
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            StageTracer.Sample sample = StageTracer.begin();
+            if (sample != null) {
+                assertNull("no nested samples", StageTracer.begin());
+                sample.finish();
+                sampled++;
+            }
+        }
+        assertEquals(25, sampled);
+    }
+
+    private static GelfMessage largeMessage() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append(i).append(' ');
+        }
+        GelfMessage message = new GelfMessage("Short", text.toString(), new Date(), "1");
+        message.setHost("example.com");
+        return message;
+    }
+}
@@ -0,0 +1,209 @@
+package org.graylog2.testing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.apache.log4j.Category;
+import org.apache.log4j.Priority;
+import org.apache.log4j.spi.LoggingEvent;
+import org.graylog2.GelfSender;
+import org.graylog2.log.GelfAppender;
+import org.graylog2.logging.GelfHandler;
+
+/**
+ * Drives a GELF appender or handler from many threads at a target rate and measures CPU spent per message.
+ * Pair it with {@link GelfTestReceiver} to get end to end loss on a single box:
+ *
+ * <pre>
+ * java -cp ... org.graylog2.testing.GelfLoadGenerator log4j 16 50000 10
+ * </pre>
+ *
+ * Arguments are target (log4j or jul), threads, messages per second and seconds.
+ */
+public class GelfLoadGenerator {
+
+    static final String MESSAGE_PREFIX = "gelfj-load ";
+
+    /**
+     * Logging API under load.
+     */
+    public interface Target {
+        void log(long sequence, String payload);
+
+        void close();
+    }
+
+    public static Target log4j(final GelfAppender appender) {
+        final Category category = Category.getInstance(GelfLoadGenerator.class);
+        return new Target() {
+            public void log(long sequence, String payload) {
+                appender.doAppend(new LoggingEvent(GelfLoadGenerator.class.getName(), category, Priority.INFO,
+                                                   payload + MESSAGE_PREFIX + sequence, null));
+            }
+
+            public void close() {
+                appender.close();
+            }
+        };
+    }
+
+    public static Target jul(final GelfHandler handler) {
+        return new Target() {
+            public void log(long sequence, String payload) {
+                LogRecord record = new LogRecord(Level.INFO, payload + MESSAGE_PREFIX + "{0}");
+                record.setParameters(new Object[]{String.valueOf(sequence)});
+                handler.publish(record);
+            }
+
+            public void close() {
+                handler.close();
+            }
+        };
+    }
+
+    public static GelfAppender appender(int port) {
+        GelfAppender appender = new GelfAppender();
+        appender.setName("load");
+        appender.setGraylogHost("127.0.0.1");
+        appender.setGraylogPort(port);
+        appender.setOriginHost("load-generator");
+        appender.setSequenceNumbers(true);
+        appender.activateOptions();
+        return appender;
+    }
+
+    public static GelfHandler handler(int port) throws UnknownHostException, SocketException {
+        final GelfSender sender = new GelfSender("127.0.0.1", port, GelfSender.DEFAULT_CHUNK_SIZE);
+        sender.setSequenceNumbers(true);
+        return new GelfHandler() {
+            @Override
+            protected GelfSender getGelfSender() {
+                return sender;
+            }
+
+            @Override
+            public synchronized void close() {
+                super.close();
+                sender.close();
+            }
+        };
+    }
+
+    /**
+     * Logs from threads until duration passes, each thread pacing itself to its share of the rate.
+     *
+     * @param messagesPerSecond total target rate; 0 for as fast as possible
+     * @param payloadSize characters of filler text in front of the sequence number
+     */
+    public static Result run(final Target target, int threads, int messagesPerSecond, final long durationMillis,
+                             int payloadSize) throws InterruptedException {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final boolean cpuTime = threadBean.isCurrentThreadCpuTimeSupported();
+        final long intervalNanos = messagesPerSecond <= 0 ? 0 : 1000000000L * threads / messagesPerSecond;
+        final String payload = filler(payloadSize);
+
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicLong cpuNanos = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.nanoTime();
+        final long end = start + durationMillis * 1000000L;
+
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread("gelf-load-" + t) {
+                @Override
+                public void run() {
+                    long cpuStart = cpuTime ? threadBean.getCurrentThreadCpuTime() : 0;
+                    long next = System.nanoTime();
+                    try {
+                        while (true) {
+                            long now = System.nanoTime();
+                            if (now >= end) {
+                                break;
+                            }
+                            if (next > now) {
+                                LockSupport.parkNanos(next - now);
+                                continue;
+                            }
+                            target.log(sequence.getAndIncrement(), payload);
+                            next += intervalNanos;
+                        }
+                    } finally {
+                        if (cpuTime) {
+                            cpuNanos.addAndGet(threadBean.getCurrentThreadCpuTime() - cpuStart);
+                        }
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        done.await();
+
+        return new Result(sequence.get(), System.nanoTime() - start, cpuTime ? cpuNanos.get() : -1);
+    }
+
+    private static String filler(int size) {
+        StringBuilder filler = new StringBuilder(size);
+        while (filler.length() < size) {
+            filler.append("lorem ipsum dolor sit amet ");
+        }
+        filler.setLength(size);
+        return filler.toString();
+    }
+
+    public static final class Result {
+        public final long sent;
+        public final long elapsedNanos;
+        public final long cpuNanos;
+
+        Result(long sent, long elapsedNanos, long cpuNanos) {
+            this.sent = sent;
+            this.elapsedNanos = elapsedNanos;
+            this.cpuNanos = cpuNanos;
+        }
+
+        public double getMessagesPerSecond() {
+            return sent * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return CPU time logging threads spent per message, -1 if the JVM does not measure thread CPU time
+         */
+        public long getCpuNanosPerMessage() {
+            return cpuNanos < 0 || sent == 0 ? -1 : cpuNanos / sent;
+        }
+
+        @Override
+        public String toString() {
+            return "sent=" + sent + " rate=" + Math.round(getMessagesPerSecond()) + "/s cpu="
+                   + getCpuNanosPerMessage() + "ns/message";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String api = args.length > 0 ? args[0] : "log4j";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int payloadSize = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+
+        GelfTestReceiver receiver = new GelfTestReceiver();
+        receiver.setKeepMessages(false);
+        Target target = "jul".equals(api) ? jul(handler(receiver.getUdpPort())) : log4j(appender(receiver.getUdpPort()));
+
+        Result result = run(target, threads, rate, seconds * 1000L, payloadSize);
+        receiver.awaitMessages(result.sent, 2000);
+        target.close();
+        receiver.close();
+
+        System.out.println(api + " threads=" + threads + " " + result);
+        System.out.println("receiver " + receiver.getStats());
+    }
+}
@@ -0,0 +1,53 @@
+package org.graylog2.testing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Short end to end runs over loopback; use {@link GelfLoadGenerator#main} for real load.
+ */
+public class GelfLoadTest {
+
+    private GelfTestReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new GelfTestReceiver();
+        receiver.setKeepMessages(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void appenderUnderLoad() throws Exception {
+        GelfLoadGenerator.Target target = GelfLoadGenerator.log4j(GelfLoadGenerator.appender(receiver.getUdpPort()));
+
+        assertDelivered(GelfLoadGenerator.run(target, 4, 2000, 500, 200));
+        target.close();
+    }
+
+    @Test
+    public void handlerUnderLoad() throws Exception {
+        GelfLoadGenerator.Target target = GelfLoadGenerator.jul(GelfLoadGenerator.handler(receiver.getUdpPort()));
+
+        assertDelivered(GelfLoadGenerator.run(target, 4, 2000, 500, 200));
+        target.close();
+    }
+
+    private void assertDelivered(GelfLoadGenerator.Result result) throws InterruptedException {
+        assertTrue(result.sent > 0);
+        receiver.awaitMessages(result.sent, 5000);
+
+        GelfTestReceiver.Stats stats = receiver.getStats();
+        assertEquals(0, stats.corrupted);
+        assertEquals(0, stats.duplicated);
+        // loopback UDP may still drop under a loaded build machine, so only require nearly everything
+        assertTrue(stats.toString(), stats.received >= result.sent * 95 / 100);
+    }
+}
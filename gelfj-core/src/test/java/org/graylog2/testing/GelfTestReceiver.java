@@ -0,0 +1,343 @@
+package org.graylog2.testing;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.graylog2.GelfChunkAssembler;
+import org.graylog2.GelfDecoder;
+import org.json.simple.JSONValue;
+
+/**
+ * Stand-in for a Graylog2 GELF input, listening on local UDP and TCP ports.
+ * <p>
+ * Reassembles chunked datagrams with {@link GelfChunkAssembler}, inflates GZIP and ZLIB payloads,
+ * parses JSON and counts what arrived. Messages numbered by their sender with {@code _seq} are checked
+ * for loss, duplicates and reordering per {@code _sender_id}, see {@link SequenceTracker}. Otherwise messages
+ * whose short message ends with a sequence number, like the ones {@link GelfLoadGenerator} sends, are
+ * checked for loss and duplicates.
+ */
+public class GelfTestReceiver {
+
+    private static final long CHUNK_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    private final DatagramSocket udpSocket;
+    private final ServerSocket tcpSocket;
+    private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    private final List<Socket> connections = new CopyOnWriteArrayList<Socket>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+    private final AtomicLong datagrams = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // guarded by this
+    private final BitSet sequences = new BitSet();
+    private long maxSequence = -1;
+    private final Map<String, SequenceTracker> senders = new HashMap<String, SequenceTracker>();
+    private long firstReceived;
+    private long lastReceived;
+    private final List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
+    private boolean keepMessages = true;
+
+    // only fed by the UDP thread
+    private final GelfChunkAssembler assembler = new GelfChunkAssembler(1000, MAX_MESSAGE_LENGTH, CHUNK_TIMEOUT_MILLIS);
+
+    private volatile boolean closed;
+
+    public GelfTestReceiver() throws IOException {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        udpSocket = new DatagramSocket(0, loopback);
+        udpSocket.setReceiveBufferSize(8 * 1024 * 1024);
+        udpSocket.setSoTimeout(500);
+        tcpSocket = new ServerSocket(0, 50, loopback);
+
+        start(new Runnable() {
+            public void run() {
+                receiveUdp();
+            }
+        }, "gelf-receiver-udp");
+        start(new Runnable() {
+            public void run() {
+                acceptTcp();
+            }
+        }, "gelf-receiver-tcp");
+    }
+
+    public int getUdpPort() {
+        return udpSocket.getLocalPort();
+    }
+
+    public int getTcpPort() {
+        return tcpSocket.getLocalPort();
+    }
+
+    /**
+     * @param keepMessages whether to keep parsed messages for {@link #getMessages()}; switch off for long load runs
+     */
+    public synchronized void setKeepMessages(boolean keepMessages) {
+        this.keepMessages = keepMessages;
+    }
+
+    public synchronized List<Map<String, Object>> getMessages() {
+        return new ArrayList<Map<String, Object>>(messages);
+    }
+
+    /**
+     * Waits until count messages arrived or timeout passed.
+     *
+     * @return true if they arrived
+     */
+    public boolean awaitMessages(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (received.get() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        long expected = maxSequence + 1;
+        long lost = expected - sequences.cardinality();
+        long duplicates = duplicated.get();
+        long reordered = 0;
+        for (SequenceTracker tracker : senders.values()) {
+            lost += tracker.getLost();
+            duplicates += tracker.getDuplicated();
+            reordered += tracker.getReordered();
+        }
+        double seconds = (lastReceived - firstReceived) / 1e9;
+        return new Stats(received.get(), lost, duplicates, reordered, senders.size(),
+                         corrupted.get() + assembler.getInvalid(), assembler.getIncomplete(),
+                         datagrams.get(), bytes.get(), seconds > 0 ? received.get() / seconds : 0);
+    }
+
+    /**
+     * @return copy of the counts per {@code _sender_id} of numbered messages
+     */
+    public synchronized Map<String, SequenceTracker> getSenders() {
+        Map<String, SequenceTracker> copy = new HashMap<String, SequenceTracker>();
+        for (Map.Entry<String, SequenceTracker> sender : senders.entrySet()) {
+            copy.put(sender.getKey(), sender.getValue().copy());
+        }
+        return copy;
+    }
+
+    public void close() throws InterruptedException {
+        closed = true;
+        udpSocket.close();
+        try {
+            tcpSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+    }
+
+    private void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void receiveUdp() {
+        DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+        while (!closed) {
+            try {
+                udpSocket.receive(packet);
+            } catch (java.net.SocketTimeoutException e) {
+                assembler.expire(System.currentTimeMillis());
+                continue;
+            } catch (IOException e) {
+                return;
+            }
+            datagrams.incrementAndGet();
+            bytes.addAndGet(packet.getLength());
+
+            byte[] payload = assembler.add(packet.getData(), packet.getOffset(), packet.getLength());
+            if (payload != null) {
+                decode(payload);
+            }
+        }
+    }
+
+    private void acceptTcp() {
+        while (!closed) {
+            final Socket connection;
+            try {
+                connection = tcpSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.add(connection);
+            start(new Runnable() {
+                public void run() {
+                    readTcp(connection);
+                }
+            }, "gelf-receiver-tcp-" + connection.getPort());
+        }
+    }
+
+    private void readTcp(Socket connection) {
+        try {
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == 0) {
+                    bytes.addAndGet(frame.size() + 1);
+                    decode(frame.toByteArray());
+                    frame.reset();
+                } else {
+                    frame.write(b);
+                }
+            }
+        } catch (SocketException e) {
+            // closed
+        } catch (IOException e) {
+            corrupted.incrementAndGet();
+        }
+    }
+
+    private void decode(byte[] payload) {
+        Map<String, Object> json;
+        try {
+            json = parse(GelfDecoder.decompress(payload, MAX_MESSAGE_LENGTH));
+        } catch (IOException e) {
+            corrupted.incrementAndGet();
+            return;
+        }
+        if (json == null) {
+            corrupted.incrementAndGet();
+            return;
+        }
+        received.incrementAndGet();
+        record(json);
+    }
+
+    private synchronized void record(Map<String, Object> json) {
+        long now = System.nanoTime();
+        if (firstReceived == 0) {
+            firstReceived = now;
+        }
+        lastReceived = now;
+        if (keepMessages) {
+            messages.add(json);
+        }
+
+        Object senderId = json.get("_sender_id");
+        Object seq = json.get("_seq");
+        if (senderId instanceof String && seq instanceof Number) {
+            SequenceTracker tracker = senders.get(senderId);
+            if (tracker == null) {
+                tracker = new SequenceTracker();
+                senders.put((String) senderId, tracker);
+            }
+            tracker.add(((Number) seq).longValue());
+            return;
+        }
+
+        long sequence = sequenceOf(json);
+        if (sequence >= 0 && sequence < Integer.MAX_VALUE) {
+            if (sequences.get((int) sequence)) {
+                duplicated.incrementAndGet();
+            }
+            sequences.set((int) sequence);
+            maxSequence = Math.max(maxSequence, sequence);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parse(byte[] json) throws IOException {
+        Object parsed = JSONValue.parse(new String(json, "UTF-8"));
+        return parsed instanceof Map ? (Map<String, Object>) parsed : null;
+    }
+
+    /**
+     * @return number trailing the short message, -1 if there is none
+     */
+    static long sequenceOf(Map<String, Object> json) {
+        Object shortMessage = json.get("short_message");
+        if (!(shortMessage instanceof String)) {
+            return -1;
+        }
+        String text = (String) shortMessage;
+        int start = text.lastIndexOf(' ') + 1;
+        if (start == 0 || start == text.length()) {
+            return -1;
+        }
+        long sequence = 0;
+        for (int i = start; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            sequence = sequence * 10 + (ch - '0');
+        }
+        return sequence;
+    }
+
+    public static final class Stats {
+        public final long received;
+        public final long lost;
+        public final long duplicated;
+        public final long reordered;
+        public final long senders;
+        public final long corrupted;
+        public final long incomplete;
+        public final long datagrams;
+        public final long bytes;
+        public final double messagesPerSecond;
+
+        Stats(long received, long lost, long duplicated, long reordered, long senders, long corrupted, long incomplete,
+              long datagrams, long bytes, double messagesPerSecond) {
+            this.received = received;
+            this.lost = lost;
+            this.duplicated = duplicated;
+            this.reordered = reordered;
+            this.senders = senders;
+            this.corrupted = corrupted;
+            this.incomplete = incomplete;
+            this.datagrams = datagrams;
+            this.bytes = bytes;
+            this.messagesPerSecond = messagesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "received=" + received + " lost=" + lost + " duplicated=" + duplicated + " reordered=" + reordered
+                   + " senders=" + senders + " corrupted=" + corrupted
+                   + " incomplete=" + incomplete + " datagrams=" + datagrams + " bytes=" + bytes
+                   + " rate=" + Math.round(messagesPerSecond) + "/s";
+        }
+    }
+}
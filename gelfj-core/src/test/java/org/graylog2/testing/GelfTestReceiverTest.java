@@ -0,0 +1,99 @@
+package org.graylog2.testing;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GelfTestReceiverTest {
+
+    private GelfTestReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new GelfTestReceiver();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void reassembleChunkedMessage() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append(i).append(' ');
+        }
+        GelfMessage message = new GelfMessage("Chunked", text.toString(), new Date(), "1");
+        message.setHost("example.com");
+
+        GelfSender sender = new GelfSender("127.0.0.1", receiver.getUdpPort(), 200);
+        assertTrue(sender.sendMessage(message));
+        sender.close();
+
+        assertTrue(receiver.awaitMessages(1, 5000));
+        Map<String, Object> json = receiver.getMessages().get(0);
+        assertEquals(text.toString(), json.get("full_message"));
+        assertTrue(receiver.getStats().datagrams > 1);
+        assertEquals(0, receiver.getStats().corrupted);
+    }
+
+    @Test
+    public void readTcpFrames() throws Exception {
+        Socket socket = new Socket("127.0.0.1", receiver.getTcpPort());
+        OutputStream out = socket.getOutputStream();
+        out.write("{\"version\":\"1.1\",\"host\":\"a\",\"short_message\":\"gelfj-load 0\"}\0".getBytes("UTF-8"));
+        out.write("{\"version\":\"1.1\",\"host\":\"a\",\"short_message\":\"gelfj-load 2\"}\0".getBytes("UTF-8"));
+        out.write("{\"version\":\"1.1\",\"host\":\"a\",\"short_message\":\"gelfj-load 2\"}\0".getBytes("UTF-8"));
+        out.write("not json\0".getBytes("UTF-8"));
+        out.flush();
+
+        assertTrue(receiver.awaitMessages(3, 5000));
+        Thread.sleep(100);
+        socket.close();
+
+        GelfTestReceiver.Stats stats = receiver.getStats();
+        assertEquals(3, stats.received);
+        assertEquals(1, stats.lost);
+        assertEquals(1, stats.duplicated);
+        assertEquals(1, stats.corrupted);
+    }
+
+    @Test
+    public void trackNumberedMessagesPerSender() throws Exception {
+        GelfSender first = new GelfSender("127.0.0.1", receiver.getUdpPort(), GelfSender.DEFAULT_CHUNK_SIZE);
+        GelfSender second = new GelfSender("127.0.0.1", receiver.getUdpPort(), GelfSender.DEFAULT_CHUNK_SIZE);
+        first.setSequenceNumbers(true);
+        second.setSequenceNumbers(true);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(first.sendMessage(message("first")));
+            assertTrue(second.sendMessage(message("second")));
+        }
+        first.close();
+        second.close();
+
+        assertTrue(receiver.awaitMessages(6, 5000));
+        Map<String, SequenceTracker> senders = receiver.getSenders();
+        assertEquals(2, senders.size());
+        assertEquals(3, senders.get(first.getSenderId()).getHighest());
+        assertEquals(3, senders.get(second.getSenderId()).getHighest());
+        GelfTestReceiver.Stats stats = receiver.getStats();
+        assertEquals(0, stats.lost);
+        assertEquals(0, stats.duplicated);
+    }
+
+    private static GelfMessage message(String text) {
+        GelfMessage message = new GelfMessage(text, text, new Date(), "1");
+        message.setHost("example.com");
+        return message;
+    }
+}
@@ -0,0 +1,98 @@
+package org.graylog2.testing;
+
+/**
+ * Counts lost, duplicated and reordered messages of one sender from the {@code _seq} numbers it stamps,
+ * see {@link org.graylog2.GelfSender#setSequenceNumbers}.
+ * <p>
+ * Remembers which of the last {@value #WINDOW} numbers below the highest one arrived, so memory stays fixed
+ * however long the run. A number arriving later than that is counted as reordered, but can no longer be told
+ * apart from a duplicate. Not thread safe.
+ */
+public final class SequenceTracker {
+
+    static final int WINDOW = 1 << 16;
+
+    // ring of arrival bits, indexed by sequence number modulo WINDOW
+    private final long[] seen = new long[WINDOW / 64];
+    private long highest;
+    private long distinct;
+    private long duplicated;
+    private long reordered;
+
+    public void add(long sequence) {
+        if (sequence <= 0) {
+            return;
+        }
+        if (sequence > highest) {
+            // slots of numbers between the old and the new highest one now stand for those numbers
+            long from = Math.max(highest + 1, sequence - WINDOW + 1);
+            for (long s = from; s < sequence; s++) {
+                clear(s);
+            }
+            highest = sequence;
+            set(sequence);
+            distinct++;
+        } else if (highest - sequence >= WINDOW) {
+            reordered++;
+            distinct++;
+        } else if (isSet(sequence)) {
+            duplicated++;
+        } else {
+            set(sequence);
+            reordered++;
+            distinct++;
+        }
+    }
+
+    /**
+     * @return numbers below the highest one which never arrived; messages lost after the highest one are not known
+     */
+    public long getLost() {
+        return Math.max(0, highest - distinct);
+    }
+
+    public long getDuplicated() {
+        return duplicated;
+    }
+
+    /**
+     * @return messages which arrived after one with a higher number
+     */
+    public long getReordered() {
+        return reordered;
+    }
+
+    public long getHighest() {
+        return highest;
+    }
+
+    SequenceTracker copy() {
+        SequenceTracker copy = new SequenceTracker();
+        System.arraycopy(seen, 0, copy.seen, 0, seen.length);
+        copy.highest = highest;
+        copy.distinct = distinct;
+        copy.duplicated = duplicated;
+        copy.reordered = reordered;
+        return copy;
+    }
+
+    private void set(long sequence) {
+        int slot = (int) (sequence & (WINDOW - 1));
+        seen[slot >>> 6] |= 1L << slot;
+    }
+
+    private void clear(long sequence) {
+        int slot = (int) (sequence & (WINDOW - 1));
+        seen[slot >>> 6] &= ~(1L << slot);
+    }
+
+    private boolean isSet(long sequence) {
+        int slot = (int) (sequence & (WINDOW - 1));
+        return (seen[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "highest=" + highest + " lost=" + getLost() + " duplicated=" + duplicated + " reordered=" + reordered;
+    }
+}
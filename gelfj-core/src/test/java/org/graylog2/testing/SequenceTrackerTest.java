@@ -0,0 +1,41 @@
+package org.graylog2.testing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SequenceTrackerTest {
+
+    @Test
+    public void countLostDuplicatedAndReordered() {
+        SequenceTracker tracker = new SequenceTracker();
+        for (long sequence : new long[]{1, 2, 4, 3, 3, 7, 5}) {
+            tracker.add(sequence);
+        }
+
+        assertEquals(7, tracker.getHighest());
+        assertEquals(1, tracker.getLost());
+        assertEquals(1, tracker.getDuplicated());
+        assertEquals(2, tracker.getReordered());
+    }
+
+    @Test
+    public void forgetNumbersOutsideWindow() {
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.add(1);
+        tracker.add(2);
+        long highest = SequenceTracker.WINDOW + 10;
+        tracker.add(highest);
+        assertEquals(highest - 3, tracker.getLost());
+
+        // too old to tell from a duplicate, so taken as late
+        tracker.add(2);
+        assertEquals(0, tracker.getDuplicated());
+        assertEquals(1, tracker.getReordered());
+
+        // slots reused by numbers within the window start out empty
+        tracker.add(highest - 1);
+        tracker.add(highest - 1);
+        assertEquals(1, tracker.getDuplicated());
+    }
+}
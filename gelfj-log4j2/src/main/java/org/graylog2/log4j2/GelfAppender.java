@@ -0,0 +1,161 @@
+package org.graylog2.log4j2;
+
+import java.io.Serializable;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.validation.constraints.Required;
+import org.apache.logging.log4j.core.util.Constants;
+import org.graylog2.GelfCompressor;
+import org.graylog2.GelfSender;
+
+/**
+ * Sends log events to Graylog2 over UDP from the logging thread.
+ * <p>
+ * JSON rendered by {@link GelfLayout} is compressed and chunked in per thread buffers, so with
+ * Log4j 2 thread locals enabled the GELF path adds no garbage to garbage-free logging:
+ *
+ * <pre>
+ * &lt;Gelf name="graylog2" graylogHost="graylog2.example.com"&gt;
+ *     &lt;GelfjLayout facility="gelf-java" addExtendedInformation="true"&gt;
+ *         &lt;AdditionalField key="environment" value="DEV"/&gt;
+ *     &lt;/GelfjLayout&gt;
+ * &lt;/Gelf&gt;
+ * </pre>
+ */
+@Plugin(name = "Gelf", category = Core.CATEGORY_NAME, elementType = Appender.ELEMENT_TYPE, printObject = true)
+public final class GelfAppender extends AbstractAppender {
+
+    private static final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>();
+
+    private final GelfLayout gelfLayout;
+    private final GelfSender gelfSender;
+
+    private GelfAppender(String name, Filter filter, GelfLayout layout, boolean ignoreExceptions,
+                         Property[] properties, GelfSender gelfSender) {
+        super(name, filter, layout, ignoreExceptions, properties);
+        this.gelfLayout = layout;
+        this.gelfSender = gelfSender;
+    }
+
+    @PluginBuilderFactory
+    public static <B extends Builder<B>> B newBuilder() {
+        return new Builder<B>().asBuilder();
+    }
+
+    @Override
+    public void append(LogEvent event) {
+        Buffers local = getBuffers();
+        try {
+            StringBuilder json = local.json;
+            json.setLength(0);
+            gelfLayout.toText(event, json);
+
+            int length = local.compressor.gzip(json);
+            if (!gelfSender.sendPayload(local.compressor.getBuffer(), length)) {
+                error("Could not send GELF message", event, null);
+            }
+
+            if (json.length() > Constants.MAX_REUSABLE_MESSAGE_SIZE) {
+                json.setLength(Constants.MAX_REUSABLE_MESSAGE_SIZE);
+                json.trimToSize();
+            }
+        } finally {
+            if (!Constants.ENABLE_THREADLOCALS) {
+                local.compressor.end();
+            }
+        }
+    }
+
+    @Override
+    public boolean stop(long timeout, TimeUnit timeUnit) {
+        setStopping();
+        boolean stopped = super.stop(timeout, timeUnit, false);
+        gelfSender.close();
+        setStopped();
+        return stopped;
+    }
+
+    private static Buffers getBuffers() {
+        if (!Constants.ENABLE_THREADLOCALS) {
+            return new Buffers();
+        }
+        Buffers result = buffers.get();
+        if (result == null) {
+            result = new Buffers();
+            buffers.set(result);
+        }
+        return result;
+    }
+
+    private static final class Buffers {
+        final StringBuilder json = new StringBuilder(Constants.INITIAL_REUSABLE_MESSAGE_SIZE);
+        final GelfCompressor compressor = new GelfCompressor();
+    }
+
+    public static class Builder<B extends Builder<B>> extends AbstractAppender.Builder<B>
+            implements org.apache.logging.log4j.core.util.Builder<GelfAppender> {
+
+        @PluginBuilderAttribute
+        @Required(message = "No graylogHost provided for GelfAppender")
+        private String graylogHost;
+
+        @PluginBuilderAttribute
+        private int graylogPort = 12201;
+
+        @PluginBuilderAttribute
+        private int maxChunkSize = GelfSender.DEFAULT_CHUNK_SIZE;
+
+        @Override
+        public GelfAppender build() {
+            Layout<? extends Serializable> layout = getLayout();
+            if (layout == null) {
+                layout = GelfLayout.newBuilder().setConfiguration(getConfiguration()).build();
+            }
+            if (!(layout instanceof GelfLayout)) {
+                LOGGER.error("GelfAppender {} needs GelfjLayout, not {}", getName(), layout.getClass().getName());
+                return null;
+            }
+
+            GelfSender gelfSender;
+            try {
+                gelfSender = new GelfSender(graylogHost, graylogPort, maxChunkSize);
+            } catch (UnknownHostException e) {
+                LOGGER.error("Unknown Graylog2 hostname:" + graylogHost, e);
+                return null;
+            } catch (SocketException e) {
+                LOGGER.error("Socket exception", e);
+                return null;
+            }
+
+            return new GelfAppender(getName(), getFilter(), (GelfLayout) layout, isIgnoreExceptions(),
+                                    getPropertyArray(), gelfSender);
+        }
+
+        public B setGraylogHost(String graylogHost) {
+            this.graylogHost = graylogHost;
+            return asBuilder();
+        }
+
+        public B setGraylogPort(int graylogPort) {
+            this.graylogPort = graylogPort;
+            return asBuilder();
+        }
+
+        public B setMaxChunkSize(int maxChunkSize) {
+            this.maxChunkSize = maxChunkSize;
+            return asBuilder();
+        }
+    }
+}
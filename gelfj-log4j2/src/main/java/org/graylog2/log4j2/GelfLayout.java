@@ -0,0 +1,269 @@
+package org.graylog2.log4j2;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.layout.AbstractStringLayout;
+import org.apache.logging.log4j.core.layout.ByteBufferDestination;
+import org.apache.logging.log4j.core.net.Severity;
+import org.apache.logging.log4j.core.util.Constants;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.core.util.StringBuilderWriter;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.TriConsumer;
+import org.graylog2.GelfJson;
+import org.graylog2.GelfMessage;
+import org.graylog2.HostIdentity;
+
+/**
+ * Renders log events as GELF JSON straight into reused buffers.
+ * <p>
+ * Messages implementing {@link StringBuilderFormattable} are formatted into a per thread buffer and
+ * context data is read through {@code ReadOnlyStringMap.forEach} without copying, so rendering an
+ * event without exception does not allocate when Log4j 2 runs garbage-free. Named {@code GelfjLayout}
+ * not to clash with the layout shipped by Log4j 2 itself.
+ */
+@Plugin(name = "GelfjLayout", category = Node.CATEGORY, elementType = Layout.ELEMENT_TYPE, printObject = true)
+public final class GelfLayout extends AbstractStringLayout {
+
+    private static final int MAX_SHORT_MESSAGE_LENGTH = 250;
+    private static final String ID_NAME = "id";
+
+    private static final ThreadLocal<StringBuilder> messageBuffers = new ThreadLocal<StringBuilder>();
+
+    private static final TriConsumer<String, Object, StringBuilder> CONTEXT_WRITER = new TriConsumer<String, Object, StringBuilder>() {
+        @Override
+        public void accept(String key, Object value, StringBuilder json) {
+            if (value == null || ID_NAME.equals(key)) {
+                return;
+            }
+            json.append(",\"_");
+            GelfJson.escape(key, json);
+            json.append("\":\"");
+            if (value instanceof CharSequence) {
+                GelfJson.escape((CharSequence) value, json);
+            } else {
+                GelfJson.escape(String.valueOf(value), json);
+            }
+            json.append('"');
+        }
+    };
+
+    private final String host;
+    private final String facility;
+    private final boolean extractStacktrace;
+    private final boolean addExtendedInformation;
+    private final boolean includeLocation;
+    private final boolean includeNewLineDelimiter;
+    // already rendered ,"_key":"value" pairs of static fields
+    private final String staticFields;
+
+    private GelfLayout(Configuration config, String host, String facility, boolean extractStacktrace,
+                       boolean addExtendedInformation, boolean includeLocation, boolean includeNewLineDelimiter,
+                       KeyValuePair[] additionalFields) {
+        super(config, StandardCharsets.UTF_8, null, null);
+        this.host = host;
+        this.facility = facility;
+        this.extractStacktrace = extractStacktrace;
+        this.addExtendedInformation = addExtendedInformation;
+        this.includeLocation = includeLocation;
+        this.includeNewLineDelimiter = includeNewLineDelimiter;
+
+        StringBuilder fields = new StringBuilder();
+        if (additionalFields != null) {
+            for (KeyValuePair field : additionalFields) {
+                CONTEXT_WRITER.accept(field.getKey(), field.getValue(), fields);
+            }
+        }
+        this.staticFields = fields.toString();
+    }
+
+    @PluginBuilderFactory
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toSerializable(LogEvent event) {
+        StringBuilder text = toText(event, getStringBuilder());
+        String json = text.toString();
+        trimToMaxSize(text);
+        return json;
+    }
+
+    @Override
+    public void encode(LogEvent event, ByteBufferDestination destination) {
+        if (!Constants.ENABLE_THREADLOCALS) {
+            super.encode(event, destination);
+            return;
+        }
+        StringBuilder text = toText(event, getStringBuilder());
+        getStringBuilderEncoder().encode(text, destination);
+        trimToMaxSize(text);
+    }
+
+    @Override
+    public boolean requiresLocation() {
+        return includeLocation;
+    }
+
+    /**
+     * Appends GELF JSON of the event to json.
+     *
+     * @return json
+     */
+    public StringBuilder toText(LogEvent event, StringBuilder json) {
+        StringBuilder message = getMessageBuilder();
+        Message msg = event.getMessage();
+        if (msg instanceof StringBuilderFormattable) {
+            ((StringBuilderFormattable) msg).formatTo(message);
+        } else if (msg != null) {
+            message.append(msg.getFormattedMessage());
+        }
+
+        final int shortLength = message.length() > MAX_SHORT_MESSAGE_LENGTH ? MAX_SHORT_MESSAGE_LENGTH - 1 : message.length();
+        if (extractStacktrace && event.getThrown() != null) {
+            message.append("\n\r");
+            event.getThrown().printStackTrace(new PrintWriter(new StringBuilderWriter(message)));
+        }
+
+        json.append("{\"version\":\"").append(GelfMessage.GELF_VERSION).append('"');
+        json.append(",\"host\":\"");
+        // the shared identity is looked up in the background, so this never blocks
+        GelfJson.escape(host != null ? host : HostIdentity.getHostName(), json);
+        json.append('"');
+        json.append(",\"short_message\":\"");
+        GelfJson.escape(message, 0, shortLength, json);
+        json.append("\",\"full_message\":\"");
+        GelfJson.escape(message, json);
+        json.append("\",\"timestamp\":").append(event.getTimeMillis() / 1000L);
+        json.append(",\"level\":\"").append(Severity.getSeverity(event.getLevel()).getCode()).append('"');
+        json.append(",\"facility\":\"");
+        GelfJson.escape(facility, json);
+        json.append('"');
+
+        if (includeLocation) {
+            StackTraceElement source = event.getSource();
+            if (source != null) {
+                if (source.getFileName() != null) {
+                    json.append(",\"file\":\"");
+                    GelfJson.escape(source.getFileName(), json);
+                    json.append('"');
+                }
+                json.append(",\"line\":\"").append(source.getLineNumber()).append('"');
+            }
+        }
+
+        json.append(staticFields);
+
+        if (addExtendedInformation) {
+            CONTEXT_WRITER.accept("thread", event.getThreadName(), json);
+            CONTEXT_WRITER.accept("logger", event.getLoggerName(), json);
+            event.getContextData().forEach(CONTEXT_WRITER, json);
+        }
+
+        json.append('}');
+        if (includeNewLineDelimiter) {
+            json.append('\n');
+        }
+
+        trimToMaxSize(message);
+        return json;
+    }
+
+    private static StringBuilder getMessageBuilder() {
+        if (!Constants.ENABLE_THREADLOCALS) {
+            return new StringBuilder(DEFAULT_STRING_BUILDER_SIZE);
+        }
+        StringBuilder result = messageBuffers.get();
+        if (result == null) {
+            result = new StringBuilder(DEFAULT_STRING_BUILDER_SIZE);
+            messageBuffers.set(result);
+        }
+        result.setLength(0);
+        return result;
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<GelfLayout> {
+
+        @PluginConfiguration
+        private Configuration configuration;
+
+        @PluginBuilderAttribute
+        private String host;
+
+        @PluginBuilderAttribute
+        private String facility = "gelf-java";
+
+        @PluginBuilderAttribute
+        private boolean extractStacktrace;
+
+        @PluginBuilderAttribute
+        private boolean addExtendedInformation;
+
+        @PluginBuilderAttribute
+        private boolean includeLocation;
+
+        @PluginBuilderAttribute
+        private boolean includeNewLineDelimiter;
+
+        @PluginElement("AdditionalField")
+        private KeyValuePair[] additionalFields;
+
+        @Override
+        public GelfLayout build() {
+            return new GelfLayout(configuration, host, facility, extractStacktrace, addExtendedInformation,
+                                  includeLocation, includeNewLineDelimiter, additionalFields);
+        }
+
+        public Builder setConfiguration(Configuration configuration) {
+            this.configuration = configuration;
+            return this;
+        }
+
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setFacility(String facility) {
+            this.facility = facility;
+            return this;
+        }
+
+        public Builder setExtractStacktrace(boolean extractStacktrace) {
+            this.extractStacktrace = extractStacktrace;
+            return this;
+        }
+
+        public Builder setAddExtendedInformation(boolean addExtendedInformation) {
+            this.addExtendedInformation = addExtendedInformation;
+            return this;
+        }
+
+        public Builder setIncludeLocation(boolean includeLocation) {
+            this.includeLocation = includeLocation;
+            return this;
+        }
+
+        public Builder setIncludeNewLineDelimiter(boolean includeNewLineDelimiter) {
+            this.includeNewLineDelimiter = includeNewLineDelimiter;
+            return this;
+        }
+
+        public Builder setAdditionalFields(KeyValuePair[] additionalFields) {
+            this.additionalFields = additionalFields;
+            return this;
+        }
+    }
+}
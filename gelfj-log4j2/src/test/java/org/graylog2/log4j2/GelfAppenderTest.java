@@ -0,0 +1,72 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.json.simple.JSONValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class GelfAppenderTest {
+
+    private DatagramSocket receiver;
+    private GelfAppender appender;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(5000);
+
+        appender = GelfAppender.newBuilder()
+                .setName("gelf")
+                .setGraylogHost("127.0.0.1")
+                .setGraylogPort(receiver.getLocalPort())
+                .setLayout(GelfLayout.newBuilder().setHost("example.com").build())
+                .build();
+        appender.start();
+    }
+
+    @After
+    public void tearDown() {
+        appender.stop();
+        receiver.close();
+    }
+
+    @Test
+    public void sendCompressedMessage() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            appender.append(Log4jLogEvent.newBuilder()
+                    .setLoggerName(GelfAppenderTest.class.getName())
+                    .setLevel(Level.INFO)
+                    .setMessage(new SimpleMessage("Message " + i))
+                    .build());
+
+            DatagramPacket packet = new DatagramPacket(new byte[8192], 8192);
+            receiver.receive(packet);
+
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                out.write(buf, 0, read);
+            }
+
+            Map json = (Map) JSONValue.parse(new String(out.toByteArray(), "UTF-8"));
+            assertEquals("Message " + i, json.get("short_message"));
+            assertEquals("example.com", json.get("host"));
+        }
+    }
+}
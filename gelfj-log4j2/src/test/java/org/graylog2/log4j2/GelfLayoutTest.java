@@ -0,0 +1,102 @@
+package org.graylog2.log4j2;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.apache.logging.log4j.util.SortedArrayStringMap;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GelfLayoutTest {
+
+    private static final String LOGGER_NAME = GelfLayoutTest.class.getName();
+
+    @Test
+    public void renderBasicFields() {
+        GelfLayout layout = GelfLayout.newBuilder().setHost("example.com").setFacility("test").build();
+
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER_NAME)
+                .setLevel(Level.WARN)
+                .setTimeMillis(1234567L)
+                .setMessage(new ParameterizedMessage("Hello {}", "\"world\""))
+                .build();
+
+        Map json = (Map) JSONValue.parse(layout.toSerializable(event));
+
+        assertEquals("1.0", json.get("version"));
+        assertEquals("example.com", json.get("host"));
+        assertEquals("Hello \"world\"", json.get("short_message"));
+        assertEquals("Hello \"world\"", json.get("full_message"));
+        assertEquals(1234L, json.get("timestamp"));
+        assertEquals("4", json.get("level"));
+        assertEquals("test", json.get("facility"));
+        assertNull(json.get("_logger"));
+    }
+
+    @Test
+    public void renderExtendedInformation() {
+        GelfLayout layout = GelfLayout.newBuilder()
+                .setHost("example.com")
+                .setAddExtendedInformation(true)
+                .setAdditionalFields(new KeyValuePair[]{new KeyValuePair("environment", "DEV")})
+                .build();
+
+        SortedArrayStringMap contextData = new SortedArrayStringMap();
+        contextData.putValue("foo", "bar");
+        contextData.putValue("id", "reserved");
+
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER_NAME)
+                .setLevel(Level.INFO)
+                .setThreadName("worker-1")
+                .setMessage(new SimpleMessage("Extended"))
+                .setContextData(contextData)
+                .build();
+
+        Map json = (Map) JSONValue.parse(layout.toSerializable(event));
+
+        assertEquals("bar", json.get("_foo"));
+        assertNull(json.get("_id"));
+        assertEquals("worker-1", json.get("_thread"));
+        assertEquals(LOGGER_NAME, json.get("_logger"));
+        assertEquals("DEV", json.get("_environment"));
+    }
+
+    @Test
+    public void renderStacktraceAndLocation() {
+        GelfLayout layout = GelfLayout.newBuilder()
+                .setExtractStacktrace(true)
+                .setIncludeLocation(true)
+                .build();
+        assertTrue(layout.requiresLocation());
+
+        StringBuilder longMessage = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            longMessage.append("0123456789");
+        }
+
+        LogEvent event = Log4jLogEvent.newBuilder()
+                .setLoggerName(LOGGER_NAME)
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage(longMessage.toString()))
+                .setThrown(new RuntimeException("LOL"))
+                .setSource(new StackTraceElement("org.example.Foo", "bar", "Foo.java", 42))
+                .build();
+
+        Map json = (Map) JSONValue.parse(layout.toSerializable(event));
+
+        assertEquals(249, ((String) json.get("short_message")).length());
+        assertTrue(((String) json.get("full_message")).startsWith(longMessage + "\n\rjava.lang.RuntimeException: LOL"));
+        assertEquals("3", json.get("level"));
+        assertEquals("Foo.java", json.get("file"));
+        assertEquals("42", json.get("line"));
+    }
+}
@@ -0,0 +1,85 @@
+package org.graylog2.logback;
+
+import ch.qos.logback.classic.AsyncAppender;
+
+/**
+ * {@link GelfAppender} behind logback's own asynchronous queue.
+ * <p>
+ * Takes the GELF options of {@link GelfAppender} and the queue options of {@link AsyncAppender}
+ * ({@code queueSize}, {@code discardingThreshold}, {@code neverBlock}, {@code maxFlushTime}):
+ *
+ * <pre>
+ * &lt;appender name="gelf" class="org.graylog2.logback.AsyncGelfAppender"&gt;
+ *     &lt;graylogHost&gt;graylog2.example.com&lt;/graylogHost&gt;
+ *     &lt;queueSize&gt;8192&lt;/queueSize&gt;
+ *     &lt;neverBlock&gt;true&lt;/neverBlock&gt;
+ *     &lt;encoder class="org.graylog2.logback.GelfEncoder"&gt;
+ *         &lt;includeCallerData&gt;true&lt;/includeCallerData&gt;
+ *     &lt;/encoder&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ *
+ * Caller data is captured on the logging thread whenever the encoder asks for it.
+ */
+public class AsyncGelfAppender extends AsyncAppender {
+
+    private final GelfAppender gelfAppender = new GelfAppender();
+
+    @Override
+    public void start() {
+        gelfAppender.setContext(getContext());
+        gelfAppender.setName(getName() + "-sender");
+
+        GelfEncoder encoder = gelfAppender.getEncoder();
+        if (encoder != null && encoder.isIncludeCallerData()) {
+            setIncludeCallerData(true);
+        }
+
+        gelfAppender.start();
+        if (!gelfAppender.isStarted()) {
+            addError("GELF sender of the appender named [" + name + "] failed to start.");
+            return;
+        }
+
+        addAppender(gelfAppender);
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        gelfAppender.stop();
+    }
+
+    public String getGraylogHost() {
+        return gelfAppender.getGraylogHost();
+    }
+
+    public void setGraylogHost(String graylogHost) {
+        gelfAppender.setGraylogHost(graylogHost);
+    }
+
+    public int getGraylogPort() {
+        return gelfAppender.getGraylogPort();
+    }
+
+    public void setGraylogPort(int graylogPort) {
+        gelfAppender.setGraylogPort(graylogPort);
+    }
+
+    public int getMaxChunkSize() {
+        return gelfAppender.getMaxChunkSize();
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        gelfAppender.setMaxChunkSize(maxChunkSize);
+    }
+
+    public GelfEncoder getEncoder() {
+        return gelfAppender.getEncoder();
+    }
+
+    public void setEncoder(GelfEncoder encoder) {
+        gelfAppender.setEncoder(encoder);
+    }
+}
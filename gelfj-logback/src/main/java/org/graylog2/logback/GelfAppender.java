@@ -0,0 +1,107 @@
+package org.graylog2.logback;
+
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import org.graylog2.GelfSender;
+
+/**
+ * Sends logback events to Graylog2 from the logging thread.
+ * <p>
+ * Events are converted by the {@link GelfEncoder}, which is created with defaults unless configured
+ * as nested element. Use {@link AsyncGelfAppender} to move conversion and sending off the logging thread.
+ */
+public class GelfAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    private String graylogHost;
+    private int graylogPort = 12201;
+    private int maxChunkSize = GelfSender.DEFAULT_CHUNK_SIZE;
+    private GelfEncoder encoder;
+    private GelfSender gelfSender;
+
+    @Override
+    public void start() {
+        if (graylogHost == null) {
+            addError("No graylogHost set for the appender named [" + name + "].");
+            return;
+        }
+
+        if (encoder == null) {
+            encoder = new GelfEncoder();
+            encoder.setContext(getContext());
+        }
+        if (!encoder.isStarted()) {
+            encoder.start();
+        }
+
+        try {
+            gelfSender = new GelfSender(graylogHost, graylogPort, maxChunkSize);
+        } catch (UnknownHostException e) {
+            addError("Unknown Graylog2 hostname:" + graylogHost, e);
+            return;
+        } catch (SocketException e) {
+            addError("Socket exception", e);
+            return;
+        }
+
+        super.start();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        GelfSender sender = getGelfSender();
+        if (sender == null || !sender.sendMessage(encoder.toGelfMessage(event))) {
+            addError("Could not send GELF message");
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (gelfSender != null) {
+            gelfSender.close();
+            gelfSender = null;
+        }
+        if (encoder != null) {
+            encoder.stop();
+        }
+    }
+
+    public GelfSender getGelfSender() {
+        return gelfSender;
+    }
+
+    public String getGraylogHost() {
+        return graylogHost;
+    }
+
+    public void setGraylogHost(String graylogHost) {
+        this.graylogHost = graylogHost;
+    }
+
+    public int getGraylogPort() {
+        return graylogPort;
+    }
+
+    public void setGraylogPort(int graylogPort) {
+        this.graylogPort = graylogPort;
+    }
+
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    public void setMaxChunkSize(int maxChunkSize) {
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    public GelfEncoder getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(GelfEncoder encoder) {
+        this.encoder = encoder;
+    }
+}
@@ -0,0 +1,232 @@
+package org.graylog2.logback;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.classic.util.LevelToSyslogSeverity;
+import ch.qos.logback.core.encoder.EncoderBase;
+import org.graylog2.GelfMessage;
+import org.graylog2.HostIdentity;
+import org.slf4j.Marker;
+
+/**
+ * Maps logback events to GELF messages.
+ * <p>
+ * Used by {@link GelfAppender} to build messages for the network, and usable on its own with any
+ * output stream appender, writing one GELF JSON document per line:
+ *
+ * <pre>
+ * &lt;encoder class="org.graylog2.logback.GelfEncoder"&gt;
+ *     &lt;facility&gt;gelf-java&lt;/facility&gt;
+ *     &lt;extractStacktrace&gt;true&lt;/extractStacktrace&gt;
+ *     &lt;addExtendedInformation&gt;true&lt;/addExtendedInformation&gt;
+ *     &lt;additionalField&gt;environment=DEV&lt;/additionalField&gt;
+ * &lt;/encoder&gt;
+ * </pre>
+ */
+public class GelfEncoder extends EncoderBase<ILoggingEvent> {
+
+    private static final int MAX_SHORT_MESSAGE_LENGTH = 250;
+    private static final String LOGGER_NAME = "logger";
+    private static final String THREAD_NAME = "thread";
+    private static final String MARKER = "marker";
+    private static final String SOURCE_CLASS_NAME = "SourceClassName";
+    private static final String SOURCE_METHOD_NAME = "SourceMethodName";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] LINE_SEP = System.getProperty("line.separator", "\n").getBytes(UTF8);
+
+    private String originHost;
+    private String facility;
+    private String gelfVersion;
+    private boolean extractStacktrace;
+    private boolean addExtendedInformation;
+    private boolean includeCallerData;
+    private final Map<String, String> fields = new HashMap<String, String>();
+
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    public byte[] encode(ILoggingEvent event) {
+        byte[] json = toGelfMessage(event).toJson().getBytes(UTF8);
+        byte[] line = new byte[json.length + LINE_SEP.length];
+        System.arraycopy(json, 0, line, 0, json.length);
+        System.arraycopy(LINE_SEP, 0, line, json.length, LINE_SEP.length);
+        return line;
+    }
+
+    public byte[] footerBytes() {
+        return null;
+    }
+
+    /**
+     * Builds GELF message from all event parts this encoder is configured to send.
+     */
+    public GelfMessage toGelfMessage(ILoggingEvent event) {
+        String renderedMessage = event.getFormattedMessage();
+        if (renderedMessage == null) {
+            renderedMessage = "";
+        }
+
+        String shortMessage;
+        if (renderedMessage.length() > MAX_SHORT_MESSAGE_LENGTH) {
+            shortMessage = renderedMessage.substring(0, MAX_SHORT_MESSAGE_LENGTH - 1);
+        } else {
+            shortMessage = renderedMessage;
+        }
+
+        if (extractStacktrace) {
+            IThrowableProxy throwableProxy = event.getThrowableProxy();
+            if (throwableProxy != null) {
+                renderedMessage += "\n\r" + ThrowableProxyUtil.asString(throwableProxy);
+            }
+        }
+
+        String file = null;
+        String line = null;
+        StackTraceElement caller = null;
+        if (includeCallerData) {
+            StackTraceElement[] callerData = event.getCallerData();
+            if (callerData != null && callerData.length > 0) {
+                caller = callerData[0];
+                file = caller.getFileName();
+                line = Integer.toString(caller.getLineNumber());
+            }
+        }
+
+        GelfMessage gelfMessage = new GelfMessage(shortMessage, renderedMessage, event.getTimeStamp(),
+                String.valueOf(LevelToSyslogSeverity.convert(event)), line, file);
+
+        gelfMessage.setHost(getOriginHost());
+        if (facility != null) {
+            gelfMessage.setFacility(facility);
+        }
+        if (gelfVersion != null) {
+            gelfMessage.setVersion(gelfVersion);
+        }
+
+        for (Map.Entry<String, String> entry : fields.entrySet()) {
+            gelfMessage.addRepeatedField(entry.getKey(), entry.getValue());
+        }
+
+        if (caller != null) {
+            gelfMessage.addField(SOURCE_CLASS_NAME, caller.getClassName());
+            gelfMessage.addField(SOURCE_METHOD_NAME, caller.getMethodName());
+        }
+
+        if (addExtendedInformation) {
+            gelfMessage.addRepeatedField(THREAD_NAME, event.getThreadName());
+            gelfMessage.addRepeatedField(LOGGER_NAME, event.getLoggerName());
+
+            Map<String, String> mdc = event.getMDCPropertyMap();
+            if (mdc != null) {
+                for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                    if (entry.getValue() != null) {
+                        gelfMessage.addField(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+
+            Marker marker = event.getMarker();
+            if (marker != null) {
+                gelfMessage.addField(MARKER, markerNames(marker));
+            }
+        }
+
+        return gelfMessage;
+    }
+
+    /**
+     * @return marker name followed by the names of all its references, comma separated
+     */
+    private static String markerNames(Marker marker) {
+        if (!marker.hasReferences()) {
+            return marker.getName();
+        }
+
+        StringBuilder names = new StringBuilder(marker.getName());
+        for (Iterator<?> i = marker.iterator(); i.hasNext(); ) {
+            names.append(',').append(((Marker) i.next()).getName());
+        }
+        return names.toString();
+    }
+
+    /**
+     * @return configured origin host, or the process wide {@link HostIdentity#getHostName() host name}
+     */
+    public String getOriginHost() {
+        return originHost != null ? originHost : HostIdentity.getHostName();
+    }
+
+    public void setOriginHost(String originHost) {
+        this.originHost = originHost;
+    }
+
+    public String getFacility() {
+        return facility;
+    }
+
+    public void setFacility(String facility) {
+        this.facility = facility;
+    }
+
+    public String getGelfVersion() {
+        return gelfVersion;
+    }
+
+    /**
+     * @param gelfVersion "1.1" for numeric level and line, fractional timestamp and no full message repeating the short one
+     */
+    public void setGelfVersion(String gelfVersion) {
+        this.gelfVersion = gelfVersion;
+    }
+
+    public boolean isExtractStacktrace() {
+        return extractStacktrace;
+    }
+
+    public void setExtractStacktrace(boolean extractStacktrace) {
+        this.extractStacktrace = extractStacktrace;
+    }
+
+    public boolean isAddExtendedInformation() {
+        return addExtendedInformation;
+    }
+
+    public void setAddExtendedInformation(boolean addExtendedInformation) {
+        this.addExtendedInformation = addExtendedInformation;
+    }
+
+    public boolean isIncludeCallerData() {
+        return includeCallerData;
+    }
+
+    /**
+     * @param includeCallerData add file, line, class and method of the logging call. This is slow.
+     */
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    /**
+     * @param additionalField static field as key=value; may be repeated
+     */
+    public void addAdditionalField(String additionalField) {
+        int index = additionalField.indexOf('=');
+        if (index <= 0) {
+            addWarn("Ignoring additionalField without key=value: " + additionalField);
+            return;
+        }
+        fields.put(additionalField.substring(0, index).trim(), additionalField.substring(index + 1).trim());
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,107 @@
+package org.graylog2.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.graylog2.GelfMessage;
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GelfEncoderTest {
+
+    private static final String CLASS_NAME = GelfEncoderTest.class.getName();
+
+    private LoggerContext context;
+    private Logger logger;
+    private GelfEncoder encoder;
+
+    @Before
+    public void setUp() {
+        context = new LoggerContext();
+        logger = context.getLogger(GelfEncoderTest.class);
+
+        encoder = new GelfEncoder();
+        encoder.setContext(context);
+        encoder.setOriginHost("example.com");
+        encoder.setFacility("test");
+    }
+
+    @Test
+    public void mapBasicFields() {
+        encoder.start();
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, logger, Level.WARN, "Hello {}", null, new Object[]{"world"});
+        GelfMessage message = encoder.toGelfMessage(event);
+
+        assertEquals("Hello world", message.getShortMessage());
+        assertEquals("example.com", message.getHost());
+        assertEquals("test", message.getFacility());
+        assertEquals("4", message.getLevel());
+        assertEquals(Long.valueOf(event.getTimeStamp()), message.getJavaTimestamp());
+        assertNull(message.getAdditonalFields().get("logger"));
+    }
+
+    @Test
+    public void mapExtendedInformation() {
+        encoder.setAddExtendedInformation(true);
+        encoder.addAdditionalField("environment=DEV");
+        encoder.start();
+
+        Map<String, String> mdc = new HashMap<String, String>();
+        mdc.put("foo", "bar");
+        Marker marker = MarkerFactory.getDetachedMarker("AUDIT");
+        marker.add(MarkerFactory.getDetachedMarker("SECURITY"));
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, logger, Level.INFO, "Extended", null, null);
+        event.setMDCPropertyMap(mdc);
+        event.setMarker(marker);
+        event.setThreadName("worker-1");
+        GelfMessage message = encoder.toGelfMessage(event);
+
+        assertEquals("bar", message.getAdditonalFields().get("foo"));
+        assertEquals("AUDIT,SECURITY", message.getAdditonalFields().get("marker"));
+        assertEquals("worker-1", message.getAdditonalFields().get("thread"));
+        assertEquals(logger.getName(), message.getAdditonalFields().get("logger"));
+        assertEquals("DEV", message.getAdditonalFields().get("environment"));
+    }
+
+    @Test
+    public void mapCallerDataAndStacktrace() {
+        encoder.setIncludeCallerData(true);
+        encoder.setExtractStacktrace(true);
+        encoder.start();
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, logger, Level.ERROR, "Failed", new RuntimeException("LOL"), null);
+        event.setCallerData(new StackTraceElement[]{new StackTraceElement("org.example.Foo", "bar", "Foo.java", 42)});
+        GelfMessage message = encoder.toGelfMessage(event);
+
+        assertEquals("Foo.java", message.getFile());
+        assertEquals("42", message.getLine());
+        assertEquals("org.example.Foo", message.getAdditonalFields().get("SourceClassName"));
+        assertEquals("bar", message.getAdditonalFields().get("SourceMethodName"));
+        assertEquals("Failed", message.getShortMessage());
+        assertTrue(message.getFullMessage().contains("java.lang.RuntimeException: LOL"));
+    }
+
+    @Test
+    public void encodeJsonLine() throws Exception {
+        encoder.start();
+
+        LoggingEvent event = new LoggingEvent(CLASS_NAME, logger, Level.INFO, "Line", null, null);
+        String line = new String(encoder.encode(event), "UTF-8");
+
+        assertTrue(line.endsWith(System.getProperty("line.separator")));
+        Map json = (Map) JSONValue.parse(line.trim());
+        assertEquals("Line", json.get("short_message"));
+        assertEquals("example.com", json.get("host"));
+    }
+}
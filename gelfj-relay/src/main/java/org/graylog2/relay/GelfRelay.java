@@ -0,0 +1,459 @@
+package org.graylog2.relay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.graylog2.GelfChunkAssembler;
+import org.graylog2.GelfDecoder;
+import org.graylog2.UnixSockets;
+import org.graylog2.metrics.Gauge;
+
+/**
+ * Sidecar accepting GELF from applications on local UDP and TCP ports, and optionally a Unix domain socket,
+ * and forwarding it to Graylog2 over a few persistent TCP connections.
+ * <p>
+ * Chunked datagrams are reassembled within bounded memory, compressed payloads are inflated and the
+ * resulting JSON waits in a bounded queue for the {@link Upstream} connections; when the queue is full
+ * new messages are dropped and counted. Configure with setters and call {@link #start()}, or run
+ * {@link #main} with a properties file whose keys are the setter names:
+ *
+ * <pre>
+ * upstreamHost=graylog2.example.com
+ * connections=2
+ * </pre>
+ */
+public class GelfRelay {
+
+    private static final int SOCKET_TIMEOUT_MILLIS = 500;
+
+    private String bindHost = "127.0.0.1";
+    private int udpPort = 12201;
+    private int tcpPort = 12201;
+    private String unixSocket;
+    private String upstreamHost;
+    private int upstreamPort = 12201;
+    private int connections = 2;
+    private int queueSize = 10000;
+    private int batchSize = 512;
+    private int maxMessageSize = 8 * 1024 * 1024;
+    private int maxPendingChunkedMessages = 1000;
+    private long maxPendingChunkedBytes = 32 * 1024 * 1024;
+    private long chunkTimeoutMillis = 5000;
+    private long closeTimeoutMillis = 5000;
+
+    private final RelayMetrics metrics = new RelayMetrics();
+    private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    private final List<Closeable> clients = new CopyOnWriteArrayList<Closeable>();
+    private BlockingQueue<byte[]> queue;
+    private Upstream upstream;
+    private DatagramSocket udpSocket;
+    private ServerSocket tcpSocket;
+    private ServerSocketChannel unixServer;
+    private volatile boolean running;
+
+    public synchronized void start() throws IOException {
+        if (upstreamHost == null) {
+            throw new IllegalStateException("upstreamHost is not set");
+        }
+        queue = new ArrayBlockingQueue<byte[]>(queueSize);
+        final BlockingQueue<byte[]> depth = queue;
+        metrics.setQueueDepth(new Gauge() {
+            public long get() {
+                return depth.size();
+            }
+        });
+        upstream = new Upstream(upstreamHost, upstreamPort, connections, queue, batchSize, metrics);
+        upstream.start();
+        running = true;
+
+        InetAddress bindAddress = InetAddress.getByName(bindHost);
+        if (udpPort >= 0) {
+            udpSocket = new DatagramSocket(udpPort, bindAddress);
+            udpSocket.setReceiveBufferSize(4 * 1024 * 1024);
+            udpSocket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+            final GelfChunkAssembler assembler =
+                new GelfChunkAssembler(maxPendingChunkedMessages, maxPendingChunkedBytes, chunkTimeoutMillis);
+            metrics.setIncompleteChunked(new Gauge() {
+                public long get() {
+                    return assembler.getIncomplete();
+                }
+            });
+            start(new Runnable() {
+                public void run() {
+                    receiveUdp(assembler);
+                }
+            }, "gelf-relay-udp");
+        }
+        if (tcpPort >= 0) {
+            tcpSocket = new ServerSocket(tcpPort, 50, bindAddress);
+            start(new Runnable() {
+                public void run() {
+                    acceptTcp();
+                }
+            }, "gelf-relay-tcp");
+        }
+        if (unixSocket != null) {
+            // a socket file left behind by a relay that was killed would make bind fail
+            new File(unixSocket).delete();
+            unixServer = UnixSockets.bind(unixSocket);
+            start(new Runnable() {
+                public void run() {
+                    acceptUnix();
+                }
+            }, "gelf-relay-unix");
+        }
+
+        metrics.register(bindHost + ":" + getUdpPort() + "/" + getTcpPort());
+    }
+
+    /**
+     * Stops accepting messages and waits up to closeTimeoutMillis for queued ones to go upstream.
+     */
+    public synchronized void close() throws InterruptedException {
+        running = false;
+        if (udpSocket != null) {
+            udpSocket.close();
+        }
+        closeQuietly(tcpSocket);
+        if (unixServer != null) {
+            closeQuietly(unixServer);
+            new File(unixSocket).delete();
+        }
+        for (Closeable client : clients) {
+            closeQuietly(client);
+        }
+        for (Thread thread : threads) {
+            thread.join(SOCKET_TIMEOUT_MILLIS * 2);
+        }
+        if (upstream != null) {
+            upstream.close(closeTimeoutMillis);
+        }
+        metrics.unregister();
+    }
+
+    /**
+     * @return bound UDP port, -1 if UDP is off or the relay is not started
+     */
+    public int getUdpPort() {
+        return udpSocket == null ? -1 : udpSocket.getLocalPort();
+    }
+
+    /**
+     * @return bound TCP port, -1 if TCP is off or the relay is not started
+     */
+    public int getTcpPort() {
+        return tcpSocket == null ? -1 : tcpSocket.getLocalPort();
+    }
+
+    public RelayMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Queues an uncompressed or compressed, but not chunked, GELF payload for forwarding.
+     *
+     * @return false if the payload was invalid or the queue was full
+     */
+    boolean relay(byte[] payload) {
+        metrics.received();
+        byte[] json;
+        try {
+            json = GelfDecoder.decompress(payload, maxMessageSize);
+        } catch (IOException e) {
+            metrics.invalid();
+            return false;
+        }
+        if (json.length == 0 || containsNull(json)) {
+            // would break TCP framing upstream
+            metrics.invalid();
+            return false;
+        }
+        if (!queue.offer(json)) {
+            metrics.droppedQueueFull();
+            return false;
+        }
+        return true;
+    }
+
+    private void start(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void receiveUdp(GelfChunkAssembler assembler) {
+        DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+        long lastExpired = System.currentTimeMillis();
+        while (running) {
+            try {
+                udpSocket.receive(packet);
+                long invalid = assembler.getInvalid();
+                byte[] payload = assembler.add(packet.getData(), packet.getOffset(), packet.getLength());
+                if (payload != null) {
+                    relay(payload);
+                } else if (assembler.getInvalid() != invalid) {
+                    metrics.invalid();
+                }
+            } catch (SocketTimeoutException e) {
+                // expire below
+            } catch (IOException e) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastExpired >= SOCKET_TIMEOUT_MILLIS) {
+                assembler.expire(now);
+                lastExpired = now;
+            }
+        }
+    }
+
+    private void acceptTcp() {
+        while (running) {
+            final Socket client;
+            try {
+                client = tcpSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            clients.add(client);
+            start(new Runnable() {
+                public void run() {
+                    try {
+                        readFrames(client.getInputStream());
+                    } catch (IOException e) {
+                        // client went away
+                    } finally {
+                        clients.remove(client);
+                        closeQuietly(client);
+                    }
+                }
+            }, "gelf-relay-tcp-" + client.getPort());
+        }
+    }
+
+    private void acceptUnix() {
+        int count = 0;
+        while (running) {
+            final SocketChannel client;
+            try {
+                client = unixServer.accept();
+            } catch (IOException e) {
+                return;
+            }
+            clients.add(client);
+            start(new Runnable() {
+                public void run() {
+                    try {
+                        readFrames(Channels.newInputStream(client));
+                    } finally {
+                        clients.remove(client);
+                        closeQuietly(client);
+                    }
+                }
+            }, "gelf-relay-unix-" + count++);
+        }
+    }
+
+    private void readFrames(InputStream stream) {
+        try {
+            InputStream in = new BufferedInputStream(stream);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            boolean oversized = false;
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b != 0) {
+                    if (frame.size() < maxMessageSize) {
+                        frame.write(b);
+                    } else {
+                        oversized = true;
+                    }
+                    continue;
+                }
+                if (oversized) {
+                    metrics.received();
+                    metrics.invalid();
+                } else if (frame.size() > 0) {
+                    relay(frame.toByteArray());
+                }
+                frame.reset();
+                oversized = false;
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private static boolean containsNull(byte[] json) {
+        for (byte b : json) {
+            if (b == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    public void setBindHost(String bindHost) {
+        this.bindHost = bindHost;
+    }
+
+    /**
+     * @param udpPort port to receive datagrams on; 0 for any free port, -1 to not listen on UDP
+     */
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    /**
+     * @param tcpPort port to accept null delimited frames on; 0 for any free port, -1 to not listen on TCP
+     */
+    public void setTcpPort(int tcpPort) {
+        this.tcpPort = tcpPort;
+    }
+
+    /**
+     * @param unixSocket path of a Unix domain socket to accept null delimited frames on, e.g. from
+     *                   {@link org.graylog2.GelfUnixSocketSender}; needs Java 16 or later
+     */
+    public void setUnixSocket(String unixSocket) {
+        this.unixSocket = unixSocket;
+    }
+
+    public void setUpstreamHost(String upstreamHost) {
+        this.upstreamHost = upstreamHost;
+    }
+
+    public void setUpstreamPort(int upstreamPort) {
+        this.upstreamPort = upstreamPort;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public void setMaxPendingChunkedMessages(int maxPendingChunkedMessages) {
+        this.maxPendingChunkedMessages = maxPendingChunkedMessages;
+    }
+
+    public void setMaxPendingChunkedBytes(long maxPendingChunkedBytes) {
+        this.maxPendingChunkedBytes = maxPendingChunkedBytes;
+    }
+
+    public void setChunkTimeoutMillis(long chunkTimeoutMillis) {
+        this.chunkTimeoutMillis = chunkTimeoutMillis;
+    }
+
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {
+        this.closeTimeoutMillis = closeTimeoutMillis;
+    }
+
+    /**
+     * Sets options from properties named like the setters, e.g. {@code upstreamHost} for {@link #setUpstreamHost}.
+     */
+    public void configure(Properties properties) {
+        for (String key : properties.stringPropertyNames()) {
+            String setter = "set" + Character.toUpperCase(key.charAt(0)) + key.substring(1);
+            String value = properties.getProperty(key).trim();
+            Method method = findSetter(setter);
+            if (method == null) {
+                throw new IllegalArgumentException("Unknown relay option " + key);
+            }
+            try {
+                Class<?> type = method.getParameterTypes()[0];
+                if (type == int.class) {
+                    method.invoke(this, Integer.valueOf(value));
+                } else if (type == long.class) {
+                    method.invoke(this, Long.valueOf(value));
+                } else {
+                    method.invoke(this, value);
+                }
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid value " + value + " of relay option " + key, e);
+            }
+        }
+    }
+
+    private static Method findSetter(String name) {
+        for (Method method : GelfRelay.class.getMethods()) {
+            if (method.getName().equals(name) && method.getParameterTypes().length == 1) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: java -jar gelfj-relay.jar relay.properties");
+            System.exit(1);
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        final GelfRelay relay = new GelfRelay();
+        relay.configure(properties);
+        relay.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("gelf-relay-shutdown") {
+            @Override
+            public void run() {
+                try {
+                    relay.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        System.out.println("GELF relay listening on udp " + relay.getUdpPort() + ", tcp " + relay.getTcpPort()
+                           + ", forwarding to " + relay.upstreamHost + ":" + relay.upstreamPort);
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,99 @@
+package org.graylog2.relay;
+
+import javax.management.ObjectName;
+
+import org.graylog2.metrics.Gauge;
+import org.graylog2.metrics.MetricsRegistry;
+import org.graylog2.metrics.StripedCounter;
+
+/**
+ * Counters of one relay: what came in, what went upstream and what was given up on the way.
+ */
+public class RelayMetrics implements RelayMetricsMBean {
+
+    private final StripedCounter received = new StripedCounter();
+    private final StripedCounter forwarded = new StripedCounter();
+    private final StripedCounter droppedQueueFull = new StripedCounter();
+    private final StripedCounter invalid = new StripedCounter();
+    private final StripedCounter upstreamFailures = new StripedCounter();
+    private volatile Gauge incompleteChunked;
+    private volatile Gauge queueDepth;
+
+    private ObjectName objectName;
+
+    public void received() {
+        received.increment();
+    }
+
+    public void forwarded(int messages) {
+        forwarded.add(messages);
+    }
+
+    public void droppedQueueFull() {
+        droppedQueueFull.increment();
+    }
+
+    public void invalid() {
+        invalid.increment();
+    }
+
+    public void upstreamFailure() {
+        upstreamFailures.increment();
+    }
+
+    void setIncompleteChunked(Gauge incompleteChunked) {
+        this.incompleteChunked = incompleteChunked;
+    }
+
+    void setQueueDepth(Gauge queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getForwarded() {
+        return forwarded.sum();
+    }
+
+    public long getDroppedQueueFull() {
+        return droppedQueueFull.sum();
+    }
+
+    /**
+     * @return payloads which could not be decompressed, were too long or had broken chunk headers
+     */
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    /**
+     * @return chunked messages given up because they timed out or did not fit the reassembly limits
+     */
+    public long getIncompleteChunked() {
+        return get(incompleteChunked);
+    }
+
+    public long getUpstreamFailures() {
+        return upstreamFailures.sum();
+    }
+
+    public long getQueueDepth() {
+        return get(queueDepth);
+    }
+
+    public synchronized void register(String name) {
+        unregister();
+        objectName = MetricsRegistry.register(this, "GelfRelay", name);
+    }
+
+    public synchronized void unregister() {
+        MetricsRegistry.unregister(objectName);
+        objectName = null;
+    }
+
+    private static long get(Gauge gauge) {
+        return gauge == null ? 0 : gauge.get();
+    }
+}
@@ -0,0 +1,21 @@
+package org.graylog2.relay;
+
+/**
+ * JMX view of a GELF relay.
+ */
+public interface RelayMetricsMBean {
+
+    long getReceived();
+
+    long getForwarded();
+
+    long getDroppedQueueFull();
+
+    long getInvalid();
+
+    long getIncompleteChunked();
+
+    long getUpstreamFailures();
+
+    long getQueueDepth();
+}
@@ -0,0 +1,112 @@
+package org.graylog2.relay;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.graylog2.GelfTcpSender;
+
+/**
+ * Forwards queued JSON messages over a few persistent TCP connections to Graylog2.
+ * <p>
+ * Each connection has its own thread draining up to batchSize messages at a time from the shared queue,
+ * writing them into the connection buffer and flushing once, so bursts leave in few large segments.
+ * A batch that fails is retried, with growing pauses, until it goes through or the relay is closed.
+ */
+class Upstream {
+
+    private static final long POLL_MILLIS = 100;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final BlockingQueue<byte[]> queue;
+    private final int batchSize;
+    private final RelayMetrics metrics;
+    private final List<GelfTcpSender> senders = new ArrayList<GelfTcpSender>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    private volatile boolean running = true;
+
+    Upstream(String host, int port, int connections, BlockingQueue<byte[]> queue, int batchSize,
+             RelayMetrics metrics) throws UnknownHostException {
+        this.queue = queue;
+        this.batchSize = batchSize;
+        this.metrics = metrics;
+        for (int i = 0; i < connections; i++) {
+            senders.add(new GelfTcpSender(host, port));
+        }
+    }
+
+    void start() {
+        for (int i = 0; i < senders.size(); i++) {
+            final GelfTcpSender sender = senders.get(i);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    forward(sender);
+                }
+            }, "gelf-relay-upstream-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops forwarding once the queue is drained or timeout passed, whichever comes first.
+     */
+    void close(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            thread.interrupt();
+        }
+        for (GelfTcpSender sender : senders) {
+            sender.close();
+        }
+    }
+
+    private void forward(GelfTcpSender sender) {
+        List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+        long backoff = MIN_BACKOFF_MILLIS;
+        try {
+            while (running) {
+                if (batch.isEmpty()) {
+                    byte[] first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+
+                if (send(sender, batch)) {
+                    metrics.forwarded(batch.size());
+                    batch.clear();
+                    backoff = MIN_BACKOFF_MILLIS;
+                } else {
+                    // frames written before the failure may have arrived and will be sent again
+                    metrics.upstreamFailure();
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean send(GelfTcpSender sender, List<byte[]> batch) {
+        for (byte[] json : batch) {
+            if (!sender.write(json, 0, json.length)) {
+                return false;
+            }
+        }
+        return sender.flush();
+    }
+}
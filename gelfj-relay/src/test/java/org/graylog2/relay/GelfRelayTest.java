@@ -0,0 +1,137 @@
+package org.graylog2.relay;
+
+import org.graylog2.GelfMessage;
+import org.graylog2.GelfSender;
+import org.graylog2.GelfUnixSocketSender;
+import org.graylog2.UnixSockets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class GelfRelayTest {
+
+    private ServerSocket graylog;
+    private GelfRelay relay;
+
+    @Before
+    public void setUp() throws Exception {
+        graylog = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+        graylog.setSoTimeout(5000);
+
+        relay = new GelfRelay();
+        relay.setUdpPort(0);
+        relay.setTcpPort(0);
+        relay.setUpstreamHost("127.0.0.1");
+        relay.setUpstreamPort(graylog.getLocalPort());
+        relay.setConnections(1);
+        relay.setCloseTimeoutMillis(1000);
+        relay.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        relay.close();
+        graylog.close();
+    }
+
+    @Test
+    public void forwardChunkedDatagramsAsJsonFrames() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            text.append(i).append(' ');
+        }
+        GelfMessage message = new GelfMessage("Chunked", text.toString(), new Date(), "1");
+        message.setHost("example.com");
+
+        GelfSender sender = new GelfSender("127.0.0.1", relay.getUdpPort(), 300);
+        assertTrue(sender.sendMessage(message));
+        assertTrue(sender.getMetrics().getChunks() > 1);
+        sender.close();
+
+        Socket upstream = graylog.accept();
+        upstream.setSoTimeout(5000);
+        assertEquals(message.toJson(), readFrame(upstream.getInputStream()));
+        upstream.close();
+    }
+
+    @Test
+    public void forwardTcpFramesAndDropInvalidOnes() throws Exception {
+        Socket client = new Socket("127.0.0.1", relay.getTcpPort());
+        OutputStream out = client.getOutputStream();
+        out.write("{\"short_message\":\"one\"}\0".getBytes("UTF-8"));
+        out.write(new byte[]{0x1f, (byte) 0x8b, 1, 2, 3, 0});
+        out.write("{\"short_message\":\"two\"}\0".getBytes("UTF-8"));
+        out.flush();
+
+        Socket upstream = graylog.accept();
+        upstream.setSoTimeout(5000);
+        InputStream in = new BufferedInputStream(upstream.getInputStream());
+        assertEquals("{\"short_message\":\"one\"}", readFrame(in));
+        assertEquals("{\"short_message\":\"two\"}", readFrame(in));
+        client.close();
+
+        RelayMetrics metrics = relay.getMetrics();
+        assertEquals(3, metrics.getReceived());
+        assertEquals(1, metrics.getInvalid());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getForwarded() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, metrics.getForwarded());
+        upstream.close();
+    }
+
+    @Test
+    public void forwardUnixSocketFrames() throws Exception {
+        assumeTrue(UnixSockets.isSupported());
+        File path = File.createTempFile("gelfj-relay", ".sock");
+        relay.close();
+        relay = new GelfRelay();
+        relay.setUdpPort(-1);
+        relay.setTcpPort(-1);
+        // the temporary file is replaced by the socket
+        relay.setUnixSocket(path.getPath());
+        relay.setUpstreamHost("127.0.0.1");
+        relay.setUpstreamPort(graylog.getLocalPort());
+        relay.setConnections(1);
+        relay.setCloseTimeoutMillis(1000);
+        relay.start();
+
+        GelfMessage message = new GelfMessage("Local", "Over a socket file", new Date(), "1");
+        message.setHost("example.com");
+        GelfUnixSocketSender sender = new GelfUnixSocketSender(path.getPath());
+        assertTrue(sender.sendMessage(message));
+        sender.close();
+
+        Socket upstream = graylog.accept();
+        upstream.setSoTimeout(5000);
+        assertEquals(message.toJson(), readFrame(upstream.getInputStream()));
+        upstream.close();
+
+        relay.close();
+        assertFalse(path.exists());
+    }
+
+    private static String readFrame(InputStream in) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) {
+            frame.write(b);
+        }
+        return new String(frame.toByteArray(), "UTF-8");
+    }
+}
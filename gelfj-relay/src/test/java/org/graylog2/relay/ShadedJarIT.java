@@ -0,0 +1,48 @@
+package org.graylog2.relay;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the shaded relay jar, which must stay a multi-release jar for the versioned gelfj classes in it to load.
+ */
+public class ShadedJarIT {
+
+    @Test
+    public void keepMultiReleaseManifest() throws Exception {
+        JarFile jar = new JarFile(shadedJar());
+        try {
+            assertEquals("true", jar.getManifest().getMainAttributes().getValue("Multi-Release"));
+            assertNotNull(jar.getEntry("META-INF/versions/11/org/graylog2/StackLocator.class"));
+        } finally {
+            jar.close();
+        }
+    }
+
+    @Test
+    public void loadVersionedClassesOnJdk11() throws Exception {
+        String version = System.getProperty("java.specification.version");
+        assumeTrue(!version.startsWith("1."));
+        URLClassLoader loader = new URLClassLoader(new URL[]{shadedJar().toURI().toURL()}, null);
+        try {
+            Class<?> locator = loader.loadClass("org.graylog2.StackLocator");
+            String location = locator.getResource("StackLocator.class").toString();
+            assertTrue(location, location.contains("gelfj-relay.jar") && location.contains("META-INF/versions/11"));
+        } finally {
+            loader.close();
+        }
+    }
+
+    private static File shadedJar() {
+        File jar = new File(System.getProperty("relay.jar", "target/gelfj-relay.jar"));
+        assertTrue(jar + " not built", jar.isFile());
+        return jar;
+    }
+}